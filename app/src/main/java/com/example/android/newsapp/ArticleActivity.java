@@ -0,0 +1,109 @@
+package com.example.android.newsapp;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v7.app.AppCompatActivity;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+/**
+ * Reader view of an article.  The body comes from the {@link ArticleBodyLoader}, which has
+ * usually downloaded it while the article was on screen in the list, so it shows straight from
+ * local storage and works offline.  The article can still be opened in the browser from the
+ * menu.
+ */
+public class ArticleActivity extends AppCompatActivity {
+
+    private static final String LOG_TAG = ArticleActivity.class.getSimpleName();
+
+    private static final String EXTRA_WEB_URL = "web_url";
+    private static final String EXTRA_TITLE = "title";
+    private static final String EXTRA_SECTION = "section";
+    private static final String EXTRA_AUTHOR = "author";
+    private static final String EXTRA_TIME = "time";
+
+    private String mWebUrl;
+
+    private TextView mBodyView;
+
+    /** Set once the activity is destroyed, so a body loaded afterwards is dropped */
+    private boolean mDestroyed;
+
+    /**
+     * Returns the intent that opens the given article in the reader view.
+     */
+    public static Intent newIntent(Context context, News article) {
+        return new Intent(context, ArticleActivity.class)
+                .putExtra(EXTRA_WEB_URL, article.getUrl())
+                .putExtra(EXTRA_TITLE, article.getTitle())
+                .putExtra(EXTRA_SECTION, article.getSection())
+                .putExtra(EXTRA_AUTHOR, article.getAuthor())
+                .putExtra(EXTRA_TIME, article.getTimeInMillis());
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_article);
+
+        Intent intent = getIntent();
+        mWebUrl = intent.getStringExtra(EXTRA_WEB_URL);
+
+        TextView sectionView = findViewById(R.id.article_section);
+        sectionView.setText(intent.getStringExtra(EXTRA_SECTION));
+        TextView titleView = findViewById(R.id.article_title);
+        titleView.setText(intent.getStringExtra(EXTRA_TITLE));
+
+        TextView bylineView = findViewById(R.id.article_byline);
+        String byline = intent.getStringExtra(EXTRA_AUTHOR);
+        long time = intent.getLongExtra(EXTRA_TIME, IsoDates.INVALID);
+        if (time != IsoDates.INVALID) {
+            byline = byline + ", " + DateUtils.getRelativeTimeSpanString(time,
+                    System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS);
+        }
+        bylineView.setText(byline);
+
+        mBodyView = findViewById(R.id.article_body);
+        mBodyView.setText(R.string.article_loading);
+        final long startMillis = SystemClock.elapsedRealtime();
+        ArticleBodyLoader.getInstance(this).load(mWebUrl,
+                new ArticleBodyLoader.OnBodyLoadedListener() {
+            @Override
+            public void onBodyLoaded(String body) {
+                if (mDestroyed) {
+                    return;
+                }
+                Log.d(LOG_TAG, "Body loaded in "
+                        + (SystemClock.elapsedRealtime() - startMillis) + "ms");
+                mBodyView.setText(body != null ? body : getString(R.string.article_unavailable));
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        mDestroyed = true;
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.article, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_open_in_browser) {
+            startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(mWebUrl)));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.newsapp;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A size-bounded on-disk store of article bodies, used by {@link ArticleBodyLoader}.  Each entry
+ * is the UTF-8 body text of an article, deflate-compressed, in a file named after the SHA-1 of
+ * the article's web URL; the least recently used ones are evicted once the compressed bodies
+ * take more than the size limit.  Article text compresses to about a third, so the limit holds
+ * several hundred articles.
+ */
+final class ArticleBodyCache {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ArticleBodyCache.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String BODY_SUFFIX = ".body";
+
+    private final DiskLruStore mStore;
+
+    /**
+     * Constructs a new {@link ArticleBodyCache}.
+     *
+     * @param directory where the bodies are stored
+     * @param maxSize   maximum total size of the compressed bodies, in bytes
+     */
+    ArticleBodyCache(File directory, long maxSize) {
+        mStore = new DiskLruStore(directory, BODY_SUFFIX, maxSize);
+    }
+
+    /**
+     * Returns whether the body of the article with the given web URL is stored.
+     */
+    public boolean contains(String webUrl) {
+        return mStore.contains(HttpDiskCache.sha1Hex(webUrl));
+    }
+
+    /**
+     * Returns the stored body of the article with the given web URL, or null if there is none or
+     * it can't be read.
+     */
+    public String get(String webUrl) {
+        String key = HttpDiskCache.sha1Hex(webUrl);
+        File file = mStore.get(key);
+        if (file == null) {
+            return null;
+        }
+        try {
+            return inflate(file);
+        } catch (IOException e) {
+            // Evicted meanwhile, or damaged
+            Log.w(LOG_TAG, "Unable to read the stored body of " + webUrl, e);
+            mStore.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the body of the article with the given web URL.  The entry only becomes visible once
+     * the whole body has been written.
+     */
+    public void put(String webUrl, String body) throws IOException {
+        String key = HttpDiskCache.sha1Hex(webUrl);
+        File tempFile = mStore.createTempFile(key);
+        // A Deflater given to the stream isn't ended by closing it, and holds native memory
+        // until it is
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            OutputStream out = new DeflaterOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)), deflater);
+            try {
+                out.write(body.getBytes(UTF_8));
+            } catch (IOException e) {
+                out.close();
+                tempFile.delete();
+                throw e;
+            }
+            out.close();
+        } finally {
+            deflater.end();
+        }
+        mStore.commit(key, tempFile);
+    }
+
+    private static String inflate(File file) throws IOException {
+        InputStream in = new InflaterInputStream(new FileInputStream(file));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length() * 3);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.android.newsapp;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the body text of articles ahead of the user opening them, so {@link ArticleActivity}
+ * can show an article from local storage, even offline.  Bodies are requested from the Guardian
+ * search endpoint by article ID with "show-fields=bodyText", several articles per request, and
+ * kept compressed in an {@link ArticleBodyCache}.
+ *
+ * Prefetches run one at a time on a background thread, most recent first, so the articles the
+ * user is looking at now are fetched before the ones that were on screen earlier.  Only the
+ * newest few prefetches are kept waiting; older ones have scrolled out of view and are dropped.
+ * An article being opened is loaded on a thread of its own, and cancels the prefetch in flight
+ * so it gets the bandwidth; the bodies that prefetch already stored are kept.
+ *
+ * The methods must be called on the main thread.
+ */
+public final class ArticleBodyLoader {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ArticleBodyLoader.class.getSimpleName();
+
+    /** Name of the body store directory, inside the app's files directory */
+    private static final String BODIES_DIR_NAME = "article_bodies";
+
+    /** Maximum total size of the compressed bodies */
+    private static final long MAX_DISK_BYTES = 4 * 1024 * 1024;
+
+    /** Maximum number of articles whose bodies are asked for in one request */
+    private static final int MAX_BATCH_SIZE = 10;
+
+    /** Maximum number of prefetch requests waiting to run */
+    private static final int MAX_QUEUED_PREFETCHES = 3;
+
+    /**
+     * Receives the body of an article being opened.
+     */
+    public interface OnBodyLoadedListener {
+        /** Called on the main thread with the body, or null if it couldn't be loaded */
+        void onBodyLoaded(String body);
+    }
+
+    private static ArticleBodyLoader sInstance;
+
+    private final ArticleBodyCache mCache;
+
+    /** Web URLs of the articles whose bodies are queued or being downloaded */
+    private final Set<String> mPending = new HashSet<>();
+
+    /** Prefetches waiting to run, newest first */
+    private final LinkedBlockingDeque<Runnable> mPrefetchQueue;
+
+    /** Runs the prefetches, newest first */
+    private final ThreadPoolExecutor mPrefetchExecutor;
+
+    /** Runs the loads of the articles being opened, next to the prefetches */
+    private final ExecutorService mOpenExecutor;
+
+    /** Cancels the prefetch being downloaded, or null if there is none */
+    private volatile CancellationToken mPrefetchCancellation;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Returns the process-wide loader.
+     */
+    public static synchronized ArticleBodyLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArticleBodyLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ArticleBodyLoader(Context context) {
+        // In the files directory rather than the cache one, so the system doesn't clear the
+        // articles saved for reading offline; the size limit keeps it small
+        mCache = new ArticleBodyCache(new File(context.getFilesDir(), BODIES_DIR_NAME),
+                MAX_DISK_BYTES);
+
+        // A deque used as a stack, so the articles asked for last are fetched first
+        mPrefetchQueue = new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(Runnable runnable) {
+                return offerFirst(runnable);
+            }
+        };
+        mPrefetchExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                mPrefetchQueue, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "article-bodies");
+            }
+        });
+        mOpenExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "article-open");
+            }
+        });
+    }
+
+    /**
+     * Downloads the bodies of the given articles that aren't stored or on their way yet.  Those
+     * already stored are only skipped on the loader thread, which keeps the store off the main
+     * thread.
+     */
+    public void prefetch(List<News> articles) {
+        List<String> webUrls = new ArrayList<>();
+        for (News article : articles) {
+            String webUrl = article.getUrl();
+            if (webUrl != null && !mPending.contains(webUrl)) {
+                webUrls.add(webUrl);
+            }
+        }
+        // Queued in reverse, so the first articles of the list are the first fetched
+        for (int end = webUrls.size(); end > 0; end -= MAX_BATCH_SIZE) {
+            final List<String> batch =
+                    new ArrayList<>(webUrls.subList(Math.max(0, end - MAX_BATCH_SIZE), end));
+            mPending.addAll(batch);
+            // Make room by dropping the oldest prefetches, for articles likely out of view by now
+            while (mPrefetchQueue.size() >= MAX_QUEUED_PREFETCHES) {
+                PrefetchTask stale = (PrefetchTask) mPrefetchQueue.pollLast();
+                if (stale == null) {
+                    break;
+                }
+                mPending.removeAll(stale.mWebUrls);
+            }
+            mPrefetchExecutor.execute(new PrefetchTask(batch));
+        }
+    }
+
+    /**
+     * Loads the body of the article with the given web URL, from the store if it is there and
+     * otherwise from the network, and passes it to the listener.
+     */
+    public void load(final String webUrl, final OnBodyLoadedListener listener) {
+        CancellationToken prefetch = mPrefetchCancellation;
+        if (prefetch != null) {
+            prefetch.cancel();
+        }
+        mOpenExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String body = mCache.get(webUrl);
+                if (body == null) {
+                    download(Collections.singletonList(webUrl), new CancellationToken());
+                    body = mCache.get(webUrl);
+                }
+                final String result = body;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onBodyLoaded(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Downloads and stores the bodies of the articles with the given web URLs, until the given
+     * token is cancelled.  Called on the loader threads.
+     */
+    private void download(List<String> webUrls, CancellationToken cancellation) {
+        List<String> ids = new ArrayList<>(webUrls.size());
+        for (String webUrl : webUrls) {
+            if (mCache.contains(webUrl)) {
+                // Stored since it was queued, by a request for the article being opened
+                continue;
+            }
+            // The web URL of an article is the site followed by its ID
+            String path = Uri.parse(webUrl).getPath();
+            if (path != null && path.length() > 1) {
+                ids.add(path.substring(1));
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        String requestUrl = Uri.parse(BuildConfig.GUARDIAN_BASE_URL).buildUpon()
+                .appendQueryParameter("ids", TextUtils.join(",", ids))
+                .appendQueryParameter("page-size", String.valueOf(ids.size()))
+                .appendQueryParameter("show-fields", "bodyText")
+                .appendQueryParameter("api-key", BuildConfig.GUARDIAN_API_KEY)
+                .toString();
+        InputStream body = null;
+        HttpTransport.Response response = null;
+        try {
+            response = QueryUtils.getTransport().get(new URL(requestUrl),
+                    Collections.<String, String>emptyMap(), RequestPolicy.DEFAULT_TIMEOUT_MILLIS,
+                    cancellation);
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Error response code: " + response.getCode());
+            }
+            body = cancellation.wrap(response.getBody());
+            NewsJsonParser.readBodiesFromStream(body, new NewsJsonParser.BodyListener() {
+                @Override
+                public void onBodyParsed(String webUrl, String bodyText) {
+                    try {
+                        mCache.put(webUrl, bodyText);
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Problem storing the body of " + webUrl, e);
+                    }
+                }
+            });
+        } catch (IOException | IllegalStateException e) {
+            if (cancellation.isCancelled()) {
+                Log.d(LOG_TAG, "Cancelled downloading the bodies of " + ids);
+            } else {
+                Log.e(LOG_TAG, "Problem downloading the bodies of " + ids, e);
+            }
+        } finally {
+            try {
+                if (body != null) {
+                    body.close();
+                }
+            } catch (IOException e) {
+                // Nothing left to read from it
+            }
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    // The connection is dropped instead of reused
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads the bodies of a batch of articles, unless an article being opened cancels it.
+     */
+    private final class PrefetchTask implements Runnable {
+
+        private final List<String> mWebUrls;
+
+        PrefetchTask(List<String> webUrls) {
+            mWebUrls = webUrls;
+        }
+
+        @Override
+        public void run() {
+            CancellationToken cancellation = new CancellationToken();
+            mPrefetchCancellation = cancellation;
+            try {
+                download(mWebUrls, cancellation);
+            } finally {
+                mPrefetchCancellation = null;
+                // Also when cancelled, so the bodies not stored yet can be prefetched again
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPending.removeAll(mWebUrls);
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.example.android.newsapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.example.android.newsapp.NewsContract.ArticleEntry;
+import com.example.android.newsapp.NewsContract.ArticleSearchEntry;
+import com.example.android.newsapp.NewsContract.FeedEntry;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Local store of the articles fetched from the Guardian API, so a query result (feed) can be shown
+ * straight from disk before, or without, a network round trip.  Articles are keyed by their web
+ * URL and written only when their content changed.
+ *
+ * Feeds that were not refreshed for {@link #RETENTION_MILLIS} are dropped, and so are the articles
+ * no feed refers to any more once they are that old.  The number of stored articles is capped at
+ * {@link #MAX_ARTICLES}.  These retention policies are applied by {@link #applyRetention}, once
+ * per refresh rather than on every write, since finding the unreferenced articles scans them all.
+ *
+ * A feed can also be written and read a range of positions at a time, so a long list can be kept
+ * here rather than in memory and read back as it is scrolled.
+ *
+ * The titles, sections and authors of the stored articles are also indexed for full-text search,
+ * see {@link #search}.  The index is maintained by the database itself as articles are stored,
+ * changed and evicted.
+ *
+ * All the methods access the database, so they must not be called on the main thread.
+ */
+public final class ArticleStore {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ArticleStore.class.getSimpleName();
+
+    /** How long feeds and unreferenced articles are kept: two weeks */
+    private static final long RETENTION_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    /** Maximum number of stored articles */
+    private static final int MAX_ARTICLES = 1000;
+
+    /** Columns read to build a {@link News} object, in the order used by {@link #readArticle} */
+    private static final String ARTICLE_COLUMNS = "a." + ArticleEntry.COLUMN_SECTION
+            + ", a." + ArticleEntry.COLUMN_TITLE
+            + ", a." + ArticleEntry.COLUMN_DATE
+            + ", a." + ArticleEntry.COLUMN_AUTHOR
+            + ", a." + ArticleEntry.COLUMN_WEB_URL
+            + ", a." + ArticleEntry.COLUMN_THUMBNAIL_URL;
+
+    /**
+     * Updates an article only if one of its fields changed.  Bind arguments can't be null, so
+     * nulls are compared as empty strings.
+     */
+    private static final String WHERE_CHANGED = ArticleEntry.COLUMN_WEB_URL + " = ? AND NOT ("
+            + "IFNULL(" + ArticleEntry.COLUMN_SECTION + ", '') = ? AND "
+            + "IFNULL(" + ArticleEntry.COLUMN_TITLE + ", '') = ? AND "
+            + "IFNULL(" + ArticleEntry.COLUMN_DATE + ", '') = ? AND "
+            + "IFNULL(" + ArticleEntry.COLUMN_AUTHOR + ", '') = ? AND "
+            + "IFNULL(" + ArticleEntry.COLUMN_THUMBNAIL_URL + ", '') = ?)";
+
+    /**
+     * Weight of a match in each column of the search index, in column order: a match in the
+     * title counts more than one in the author, which counts more than one in the section.
+     */
+    private static final double[] SEARCH_COLUMN_WEIGHTS = {3.0, 1.0, 2.0};
+
+    /** BM25 parameters: term frequency saturation, and how much the column length matters */
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+
+    private static ArticleStore sInstance;
+
+    private final NewsDbHelper mDbHelper;
+
+    /**
+     * Returns the process-wide store.
+     */
+    public static synchronized ArticleStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArticleStore(NewsDbHelper.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    private ArticleStore(NewsDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Returns the stored articles of the given feed, in feed order.  The list is empty if the feed
+     * has never been stored (or if the database can't be read).
+     */
+    public List<News> getFeed(String feedKey) {
+        return getFeed(feedKey, 0, -1);
+    }
+
+    /**
+     * Returns at most the given number of the stored articles of the given feed, in feed order,
+     * starting at the given position.  A negative limit returns all of them.
+     */
+    public List<News> getFeed(String feedKey, int position, int limit) {
+        NewsBatch.Builder articles = new NewsBatch.Builder();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            cursor = db.rawQuery("SELECT " + ARTICLE_COLUMNS
+                    + " FROM " + FeedEntry.TABLE_NAME + " f"
+                    + " JOIN " + ArticleEntry.TABLE_NAME + " a"
+                    + " ON a." + ArticleEntry.COLUMN_WEB_URL + " = f." + FeedEntry.COLUMN_WEB_URL
+                    + " WHERE f." + FeedEntry.COLUMN_FEED_KEY + " = ?"
+                    + " AND f." + FeedEntry.COLUMN_POSITION + " >= ?"
+                    + " ORDER BY f." + FeedEntry.COLUMN_POSITION + " LIMIT ?",
+                    new String[]{feedKey, String.valueOf(position), String.valueOf(limit)});
+            while (cursor.moveToNext()) {
+                readArticle(cursor, articles);
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem reading the stored feed", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return articles.build();
+    }
+
+    /**
+     * Returns the web URLs among the given ones that the given feed has before the given
+     * position.  The set is empty if the database can't be read.
+     */
+    public Set<String> findInFeed(String feedKey, int beforePosition, Collection<String> webUrls) {
+        Set<String> found = new HashSet<>();
+        if (webUrls.isEmpty()) {
+            return found;
+        }
+        List<String> args = new ArrayList<>(webUrls.size() + 2);
+        args.add(feedKey);
+        args.add(String.valueOf(beforePosition));
+        StringBuilder placeholders = new StringBuilder();
+        for (String webUrl : webUrls) {
+            placeholders.append(placeholders.length() == 0 ? "?" : ", ?");
+            args.add(webUrl);
+        }
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            cursor = db.rawQuery("SELECT " + FeedEntry.COLUMN_WEB_URL
+                    + " FROM " + FeedEntry.TABLE_NAME
+                    + " WHERE " + FeedEntry.COLUMN_FEED_KEY + " = ?"
+                    + " AND " + FeedEntry.COLUMN_POSITION + " < ?"
+                    + " AND " + FeedEntry.COLUMN_WEB_URL + " IN (" + placeholders + ")",
+                    args.toArray(new String[args.size()]));
+            while (cursor.moveToNext()) {
+                found.add(cursor.getString(0));
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem looking up the stored feed", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the stored articles whose title, section or author contain words starting with
+     * every word of the query, best match first, at most the given number.  Matches are ranked
+     * with BM25 over the three columns, weighted by column, then by publication date.  The list
+     * is empty if the query has no words (or if the database can't be read).
+     */
+    public List<News> search(String query, int limit) {
+        String match = SearchQuery.toMatchExpression(query);
+        if (match == null) {
+            return Collections.emptyList();
+        }
+
+        NewsBatch.Builder matches = new NewsBatch.Builder();
+        final List<Double> scores = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            cursor = db.rawQuery("SELECT " + ARTICLE_COLUMNS
+                    + ", matchinfo(" + ArticleSearchEntry.TABLE_NAME + ", 'pcnalx')"
+                    + " FROM " + ArticleSearchEntry.TABLE_NAME
+                    + " JOIN " + ArticleEntry.TABLE_NAME + " a"
+                    + " ON a." + ArticleEntry._ID + " = " + ArticleSearchEntry.TABLE_NAME
+                    + "." + ArticleSearchEntry.DOCID
+                    + " WHERE " + ArticleSearchEntry.TABLE_NAME + " MATCH ?",
+                    new String[]{match});
+            int matchInfoColumn = cursor.getColumnCount() - 1;
+            while (cursor.moveToNext()) {
+                readArticle(cursor, matches);
+                scores.add(bm25(cursor.getBlob(matchInfoColumn)));
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem searching the stored articles", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        // Sort the positions of the matches by score, then date, and keep the best ones
+        final List<News> articles = matches.build();
+        List<Integer> order = new ArrayList<>(articles.size());
+        for (int i = 0; i < articles.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byScore = Double.compare(scores.get(b), scores.get(a));
+                return byScore != 0 ? byScore
+                        : News.NEWEST_FIRST.compare(articles.get(a), articles.get(b));
+            }
+        });
+        List<News> results = new ArrayList<>(Math.min(limit, order.size()));
+        for (int i = 0; i < order.size() && i < limit; i++) {
+            results.add(articles.get(order.get(i)));
+        }
+        return results;
+    }
+
+    /**
+     * Computes the BM25 score of a match from its FTS4 matchinfo 'pcnalx' blob: the numbers of
+     * phrases, columns and rows, the average and current length of every column, then for every
+     * phrase and column the hits in this row, the hits in all rows and the rows with hits.
+     */
+    private static double bm25(byte[] matchInfo) {
+        ByteBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = info.getInt(0);
+        int columns = info.getInt(4);
+        int rows = info.getInt(8);
+        int averageLengths = 12;
+        int lengths = averageLengths + columns * 4;
+        int hits = lengths + columns * 4;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < SEARCH_COLUMN_WEIGHTS.length; column++) {
+                int hit = hits + (phrase * columns + column) * 3 * 4;
+                int frequency = info.getInt(hit);
+                if (frequency == 0) {
+                    continue;
+                }
+                int rowsWithHits = info.getInt(hit + 8);
+                double idf = Math.log(1 + (rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+                double length = info.getInt(lengths + column * 4);
+                double averageLength = Math.max(1, info.getInt(averageLengths + column * 4));
+                score += SEARCH_COLUMN_WEIGHTS[column] * idf * frequency * (BM25_K1 + 1)
+                        / (frequency + BM25_K1 * (1 - BM25_B + BM25_B * length / averageLength));
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Stores the given articles as the new content of the feed.  Only the articles that are new or
+     * whose content changed are written.
+     */
+    public void saveFeed(String feedKey, List<News> articles) {
+        saveFeed(feedKey, 0, articles);
+    }
+
+    /**
+     * Stores the given articles as the content of the feed from the given position on, keeping
+     * the articles before it.  Otherwise the same as {@link #saveFeed(String, List)}.
+     */
+    public void saveFeed(String feedKey, int position, List<News> articles) {
+        long now = System.currentTimeMillis();
+        SQLiteDatabase db;
+        try {
+            db = mDbHelper.getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem opening the article store", e);
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            for (News article : articles) {
+                upsertArticle(db, article, now);
+            }
+
+            if (position > 0) {
+                // The articles kept are part of the feed just as much as the new ones
+                ContentValues touched = new ContentValues();
+                touched.put(FeedEntry.COLUMN_UPDATED_AT, now);
+                db.update(FeedEntry.TABLE_NAME, touched, FeedEntry.COLUMN_FEED_KEY + " = ? AND "
+                        + FeedEntry.COLUMN_POSITION + " < ?",
+                        new String[]{feedKey, String.valueOf(position)});
+            }
+            db.delete(FeedEntry.TABLE_NAME, FeedEntry.COLUMN_FEED_KEY + " = ? AND "
+                    + FeedEntry.COLUMN_POSITION + " >= ?",
+                    new String[]{feedKey, String.valueOf(position)});
+            ContentValues item = new ContentValues();
+            for (int i = 0; i < articles.size(); i++) {
+                item.put(FeedEntry.COLUMN_FEED_KEY, feedKey);
+                item.put(FeedEntry.COLUMN_POSITION, position + i);
+                item.put(FeedEntry.COLUMN_WEB_URL, articles.get(i).getUrl());
+                item.put(FeedEntry.COLUMN_UPDATED_AT, now);
+                db.insert(FeedEntry.TABLE_NAME, null, item);
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem storing the feed", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Applies the retention policies: drops stale feeds, the old articles no feed refers to, and
+     * the oldest unreferenced articles beyond {@link #MAX_ARTICLES}.
+     */
+    public void applyRetention() {
+        SQLiteDatabase db;
+        try {
+            db = mDbHelper.getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem opening the article store", e);
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            evict(db, System.currentTimeMillis());
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem evicting stored articles", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts the article, or updates it if it is already stored with different content.
+     */
+    private static void upsertArticle(SQLiteDatabase db, News article, long now) {
+        if (article.getUrl() == null) {
+            return;
+        }
+        // Formatted from the time on every call, so only once
+        String date = article.getDate();
+        ContentValues values = new ContentValues();
+        values.put(ArticleEntry.COLUMN_WEB_URL, article.getUrl());
+        values.put(ArticleEntry.COLUMN_SECTION, article.getSection());
+        values.put(ArticleEntry.COLUMN_TITLE, article.getTitle());
+        values.put(ArticleEntry.COLUMN_DATE, date);
+        values.put(ArticleEntry.COLUMN_AUTHOR, article.getAuthor());
+        values.put(ArticleEntry.COLUMN_THUMBNAIL_URL, article.getThumbnailUrl());
+        values.put(ArticleEntry.COLUMN_UPDATED_AT, now);
+
+        int updated = db.update(ArticleEntry.TABLE_NAME, values, WHERE_CHANGED, new String[]{
+                article.getUrl(), nonNull(article.getSection()), nonNull(article.getTitle()),
+                nonNull(date), nonNull(article.getAuthor()),
+                nonNull(article.getThumbnailUrl())});
+        if (updated == 0) {
+            // Either a new article, or an unchanged one which the insert leaves alone
+            db.insertWithOnConflict(ArticleEntry.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Deletes what the retention policies say is no longer kept, see {@link #applyRetention}.
+     */
+    private static void evict(SQLiteDatabase db, long now) {
+        String cutoff = String.valueOf(now - RETENTION_MILLIS);
+        String unreferenced = ArticleEntry.COLUMN_WEB_URL + " NOT IN (SELECT "
+                + FeedEntry.COLUMN_WEB_URL + " FROM " + FeedEntry.TABLE_NAME + ")";
+
+        db.delete(FeedEntry.TABLE_NAME, FeedEntry.COLUMN_UPDATED_AT + " < ?",
+                new String[]{cutoff});
+        db.delete(ArticleEntry.TABLE_NAME,
+                ArticleEntry.COLUMN_UPDATED_AT + " < ? AND " + unreferenced,
+                new String[]{cutoff});
+        db.delete(ArticleEntry.TABLE_NAME, unreferenced + " AND " + ArticleEntry._ID + " IN (SELECT "
+                + ArticleEntry._ID + " FROM " + ArticleEntry.TABLE_NAME
+                + " ORDER BY " + ArticleEntry.COLUMN_DATE + " DESC LIMIT -1 OFFSET " + MAX_ARTICLES + ")",
+                null);
+    }
+
+    /**
+     * Adds the article of the current row, read with {@link #ARTICLE_COLUMNS}, to the batch.
+     */
+    private static void readArticle(Cursor cursor, NewsBatch.Builder batch) {
+        batch.add(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                cursor.getString(3), cursor.getString(4), cursor.getString(5));
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.newsapp;
+
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lets a load be cancelled while it is fetching.  Cancelling runs the actions registered by the
+ * code currently blocked on the network, such as aborting an HTTP call, so the blocked read fails
+ * at once; the code between blocking calls checks {@link #isCancelled} and gives up as soon as it
+ * can.  Work cancelled this way throws an {@link InterruptedIOException}.
+ *
+ * A token can't be reset: every load gets a new one.  Safe to use from any thread.
+ */
+public final class CancellationToken {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CancellationToken.class.getSimpleName();
+
+    private boolean mCancelled;
+
+    /** Actions to run on cancellation; guarded by this */
+    private final List<Runnable> mActions = new ArrayList<>();
+
+    /**
+     * Cancels the work this token was handed to.  Does nothing if it was already cancelled.
+     */
+    public void cancel() {
+        List<Runnable> actions;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            actions = new ArrayList<>(mActions);
+            mActions.clear();
+            // Wake up the threads waiting in sleep()
+            notifyAll();
+        }
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Problem running a cancellation action", e);
+            }
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Throws an {@link InterruptedIOException} if this token has been cancelled.
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (isCancelled()) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    /**
+     * Runs the given action when this token is cancelled, or right away if it already has been.
+     * The action is run on the cancelling thread, so it must not block.
+     */
+    public void register(Runnable action) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Forgets an action given to {@link #register}, once the work it would abort is done.
+     */
+    public synchronized void unregister(Runnable action) {
+        mActions.remove(action);
+    }
+
+    /**
+     * Waits for the given time, or until this token is cancelled.
+     *
+     * @throws InterruptedIOException if the token was cancelled or the thread interrupted
+     */
+    public synchronized void sleep(long millis) throws InterruptedIOException {
+        long deadline = System.nanoTime() + millis * 1000000L;
+        try {
+            long remaining = millis;
+            while (!mCancelled && remaining > 0) {
+                wait(remaining);
+                remaining = (deadline - System.nanoTime()) / 1000000L;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+        throwIfCancelled();
+    }
+
+    /**
+     * Returns the given stream, which fails every read once this token has been cancelled, so a
+     * parse loop reading it stops at its next read.
+     */
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                throwIfCancelled();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                throwIfCancelled();
+                return super.read(buffer, offset, count);
+            }
+        };
+    }
+}
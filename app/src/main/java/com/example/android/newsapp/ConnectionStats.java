@@ -0,0 +1,97 @@
+package com.example.android.newsapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Counts how the requests of an {@link HttpTransport} were spread over connections: how many
+ * connections were opened, how many requests reused an open connection, how many times each
+ * connection has been used, and how many bytes came over the network.  Requests sent by a
+ * transport that can't tell which connection it used are counted apart, as unknown.
+ */
+public final class ConnectionStats {
+
+    private long mRequests;
+    private long mConnectionsOpened;
+    private long mConnectionsReused;
+    private long mConnectionsUnknown;
+    private long mBytesReceived;
+
+    /** Number of requests served by each connection that is still referenced by the client */
+    private final Map<Object, Integer> mUsesPerConnection = new WeakHashMap<>();
+
+    /**
+     * Records a request sent over the given connection.  The first request of a connection counts
+     * as an opened connection, every later one as a reuse.
+     */
+    public synchronized void recordRequest(Object connection) {
+        mRequests++;
+        Integer uses = mUsesPerConnection.get(connection);
+        if (uses == null) {
+            mConnectionsOpened++;
+            mUsesPerConnection.put(connection, 1);
+        } else {
+            mConnectionsReused++;
+            mUsesPerConnection.put(connection, uses + 1);
+        }
+    }
+
+    /**
+     * Records a request for which the transport can't tell which connection was used, so it
+     * counts neither as an opened connection nor as a reuse.
+     */
+    public synchronized void recordRequestOnUnknownConnection() {
+        mRequests++;
+        mConnectionsUnknown++;
+    }
+
+    /**
+     * Records response body bytes read from the network (before decompression when known).
+     */
+    public synchronized void recordBytesReceived(long bytes) {
+        mBytesReceived += bytes;
+    }
+
+    public synchronized long getRequests() {
+        return mRequests;
+    }
+
+    public synchronized long getConnectionsOpened() {
+        return mConnectionsOpened;
+    }
+
+    public synchronized long getConnectionsReused() {
+        return mConnectionsReused;
+    }
+
+    /**
+     * Returns the number of requests for which the transport couldn't tell whether they reused a
+     * connection.
+     */
+    public synchronized long getConnectionsUnknown() {
+        return mConnectionsUnknown;
+    }
+
+    public synchronized long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * Returns the number of requests served by each live connection.
+     */
+    public synchronized List<Integer> getUsesPerConnection() {
+        return new ArrayList<>(mUsesPerConnection.values());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "requests=" + mRequests
+                + ", connectionsOpened=" + mConnectionsOpened
+                + ", connectionsReused=" + mConnectionsReused
+                + ", connectionsUnknown=" + mConnectionsUnknown
+                + ", bytesReceived=" + mBytesReceived
+                + ", usesPerConnection=" + mUsesPerConnection.values();
+    }
+}
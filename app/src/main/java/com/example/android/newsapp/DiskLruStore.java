@@ -0,0 +1,186 @@
+package com.example.android.newsapp;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded directory of files, one per key, of which the least recently used ones are
+ * deleted once their total size grows past the limit.  This is the bookkeeping shared by
+ * {@link ThumbnailDiskCache} and {@link ArticleBodyCache}, which decide what goes in the files.
+ *
+ * A file is written to a temporary file first and only becomes visible once it is committed, so
+ * an interrupted write never replaces a good entry.  The LRU order survives restarts through the
+ * modification times of the files.  The index is loaded on first use rather than when the store
+ * is created, so it is read on the thread of the first request instead of the main thread.
+ */
+final class DiskLruStore {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = DiskLruStore.class.getSimpleName();
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+
+    private final String mSuffix;
+
+    private final long mMaxSize;
+
+    /** Size of every entry, keyed by cache key, in least recently used order */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total size of all the entries in mEntries */
+    private long mSize;
+
+    /** Whether mEntries was loaded from the files on disk yet */
+    private boolean mIndexLoaded;
+
+    /**
+     * Constructs a new {@link DiskLruStore}.
+     *
+     * @param directory where the files are stored
+     * @param suffix    file name suffix of the entries, after their key
+     * @param maxSize   maximum total size of the files, in bytes
+     */
+    DiskLruStore(File directory, String suffix, long maxSize) {
+        mDirectory = directory;
+        mSuffix = suffix;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns whether there is an entry for the given key.
+     */
+    public synchronized boolean contains(String key) {
+        ensureIndexLoaded();
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Returns the file of the given key, marked as just used, or null if there is none.
+     */
+    public synchronized File get(String key) {
+        ensureIndexLoaded();
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+        File file = entryFile(key);
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Returns a new temporary file to write an entry of the given key to, before it is passed to
+     * {@link #commit}.  Every write gets its own file, in case the same key is written twice at
+     * the same time.
+     */
+    public File createTempFile(String key) throws IOException {
+        synchronized (this) {
+            // Also creates the directory
+            ensureIndexLoaded();
+        }
+        return File.createTempFile(key, TEMP_SUFFIX, mDirectory);
+    }
+
+    /**
+     * Makes the given temporary file the entry of the given key, replacing any previous one, and
+     * returns its file.  Evicts the least recently used entries if the store is then too big.
+     */
+    public synchronized File commit(String key, File tempFile) throws IOException {
+        ensureIndexLoaded();
+        File file = entryFile(key);
+        Long oldSize = mEntries.remove(key);
+        if (oldSize != null) {
+            mSize -= oldSize;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            file.delete();
+            throw new IOException("Unable to store " + file);
+        }
+        mEntries.put(key, file.length());
+        mSize += file.length();
+        trimToSize();
+        return file;
+    }
+
+    /**
+     * Removes the entry of the given key, for instance because it turned out to be unreadable.
+     */
+    public synchronized void remove(String key) {
+        ensureIndexLoaded();
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+            entryFile(key).delete();
+        }
+    }
+
+    /**
+     * Loads the LRU index on first use.  Called with the lock held.
+     */
+    private void ensureIndexLoaded() {
+        if (!mIndexLoaded) {
+            mIndexLoaded = true;
+            loadIndex();
+        }
+    }
+
+    /**
+     * Rebuilds the LRU index from the files on disk, oldest access first.
+     */
+    private void loadIndex() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create the directory " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Left over from an interrupted write
+                file.delete();
+            } else if (name.endsWith(mSuffix)) {
+                String key = name.substring(0, name.length() - mSuffix.length());
+                mEntries.put(key, file.length());
+                mSize += file.length();
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the store fits in its size limit.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> eldest = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            mSize -= entry.getValue();
+            entryFile(entry.getKey()).delete();
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(mDirectory, key + mSuffix);
+    }
+}
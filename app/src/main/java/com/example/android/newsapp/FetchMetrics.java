@@ -0,0 +1,298 @@
+package com.example.android.newsapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide metrics of the fetch pipeline: latency histograms of every phase from the request
+ * to binding the rows, plus bytes, articles and outcomes per request.  In debug builds, every
+ * finished request is also appended as one line to a CSV file in the app's files directory, which
+ * is rotated once it grows past {@link #MAX_EXPORT_BYTES}.  The current numbers are shown by
+ * {@link MetricsActivity}.
+ *
+ * Recording is cheap enough to stay enabled: a histogram update is a few additions under a lock,
+ * and the file is written on a background thread.
+ */
+public final class FetchMetrics {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = FetchMetrics.class.getSimpleName();
+
+    /** Time until the response headers arrived, including connecting */
+    public static final String REQUEST_HEADERS = "request.headers";
+    /** Time spent getting a connection: DNS, TCP and TLS, or taking one from the pool */
+    public static final String REQUEST_CONNECT = "request.connect";
+    /** Time from sending the request to its response headers */
+    public static final String REQUEST_FIRST_BYTE = "request.first_byte";
+    /** Time spent waiting for the response body */
+    public static final String REQUEST_READ = "request.read";
+    /** Time spent parsing the response body while it was read */
+    public static final String REQUEST_PARSE = "request.parse";
+    /** Time the whole request took, from the cache lookup to the parsed articles */
+    public static final String REQUEST_TOTAL = "request.total";
+    /** Time spent by {@link QueryUtils#extractArticleFromJson} parsing a whole response string */
+    public static final String PARSE_DOM = "parse.dom";
+    /** Time spent by {@link MainActivity#onLoadFinished} handing a result to the list */
+    public static final String UI_DELIVER = "ui.deliver";
+    /** Time spent binding one row */
+    public static final String UI_BIND = "ui.bind";
+    /** Time from creating the main screen to showing the rows of the feed snapshot */
+    public static final String STARTUP_SNAPSHOT = "startup.snapshot";
+    /** Time from creating the main screen to showing the first rows of the loader */
+    public static final String STARTUP_LOADER = "startup.loader";
+
+    /** Name of the export directory, inside the app's files directory */
+    static final String EXPORT_DIR_NAME = "metrics";
+    private static final String EXPORT_FILE_NAME = "fetch-metrics.csv";
+    private static final String EXPORT_HEADER =
+            "time,query,source,code,headers_us,connect_us,ttfb_us,read_us,parse_us,total_us,"
+                    + "decoded_bytes,articles\n";
+
+    /** Size after which the export file is rotated */
+    private static final long MAX_EXPORT_BYTES = 256 * 1024;
+
+    /** Number of rotated export files kept besides the current one */
+    private static final int MAX_ROTATED_FILES = 2;
+
+    private static FetchMetrics sInstance;
+
+    /** Latency histograms, keyed by name, in the order they were first recorded */
+    private final Map<String, Histogram> mHistograms = new LinkedHashMap<>();
+
+    /** Number of requests per source, see {@link RequestTrace} */
+    private final Map<String, Long> mRequestsBySource = new LinkedHashMap<>();
+
+    /** Body bytes read, after undoing any gzip encoding */
+    private long mDecodedBytes;
+    private long mArticles;
+
+    private final File mExportFile;
+
+    /** Whether requests are exported, which only debug builds do */
+    private final boolean mExportEnabled;
+
+    /** Writes the export file, one line at a time */
+    private final ExecutorService mExportExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Returns the process-wide metrics, exported to the app's files directory in debug builds.
+     */
+    public static synchronized FetchMetrics getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getFilesDir(),
+                    EXPORT_DIR_NAME);
+            sInstance = new FetchMetrics(new File(directory, EXPORT_FILE_NAME),
+                    BuildConfig.DEBUG);
+        }
+        return sInstance;
+    }
+
+    private FetchMetrics(File exportFile, boolean exportEnabled) {
+        mExportFile = exportFile;
+        mExportEnabled = exportEnabled;
+    }
+
+    /**
+     * Returns the file the requests are exported to in debug builds.
+     */
+    public File getExportFile() {
+        return mExportFile;
+    }
+
+    /**
+     * Records a latency in the histogram of the given name.
+     */
+    public void recordLatency(String name, long micros) {
+        if (micros < 0) {
+            return;
+        }
+        Histogram histogram;
+        synchronized (mHistograms) {
+            histogram = mHistograms.get(name);
+            if (histogram == null) {
+                histogram = new Histogram();
+                mHistograms.put(name, histogram);
+            }
+        }
+        histogram.add(micros);
+    }
+
+    /**
+     * Records a finished request, and appends it to the export file in debug builds.
+     */
+    public void record(final RequestTrace trace) {
+        recordLatency(REQUEST_HEADERS, trace.getHeadersMicros());
+        recordLatency(REQUEST_CONNECT, trace.getConnectMicros());
+        recordLatency(REQUEST_FIRST_BYTE, trace.getFirstByteMicros());
+        recordLatency(REQUEST_READ, trace.getReadMicros());
+        recordLatency(REQUEST_PARSE, trace.getParseMicros());
+        recordLatency(REQUEST_TOTAL, trace.getTotalMicros());
+        synchronized (this) {
+            Long requests = mRequestsBySource.get(trace.getSource());
+            mRequestsBySource.put(trace.getSource(), requests == null ? 1 : requests + 1);
+            mDecodedBytes += trace.getDecodedBytes();
+            mArticles += trace.getArticles();
+        }
+        if (!mExportEnabled) {
+            return;
+        }
+
+        final String line = System.currentTimeMillis()
+                + "," + trace.getKey()
+                + "," + trace.getSource()
+                + "," + trace.getResponseCode()
+                + "," + trace.getHeadersMicros()
+                + "," + trace.getConnectMicros()
+                + "," + trace.getFirstByteMicros()
+                + "," + trace.getReadMicros()
+                + "," + trace.getParseMicros()
+                + "," + trace.getTotalMicros()
+                + "," + trace.getDecodedBytes()
+                + "," + trace.getArticles()
+                + "\n";
+        mExportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                export(line);
+            }
+        });
+    }
+
+    /**
+     * Returns a human readable summary of everything recorded so far.
+     */
+    public String dump() {
+        StringBuilder summary = new StringBuilder();
+        synchronized (this) {
+            summary.append("requests: ").append(mRequestsBySource).append('\n');
+            summary.append("decoded bytes: ").append(mDecodedBytes).append('\n');
+            summary.append("articles: ").append(mArticles).append('\n');
+        }
+        summary.append("transport: ").append(QueryUtils.getTransport().getStats()).append('\n');
+        summary.append("policy: ").append(QueryUtils.getRequestPolicy()).append('\n');
+        summary.append("network: ").append(QueryUtils.getNetworkPolicy()).append("\n\n");
+        synchronized (mHistograms) {
+            for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+                summary.append(entry.getKey()).append('\n')
+                        .append("  ").append(entry.getValue()).append('\n');
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Appends a line to the export file, rotating it first if it is full.  Only called on the
+     * export thread.
+     */
+    private void export(String line) {
+        File directory = mExportFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create " + directory);
+            return;
+        }
+        if (mExportFile.length() > MAX_EXPORT_BYTES) {
+            rotate();
+        }
+        boolean isNew = !mExportFile.exists();
+        Writer writer = null;
+        try {
+            writer = new FileWriter(mExportFile, true);
+            if (isNew) {
+                writer.write(EXPORT_HEADER);
+            }
+            writer.write(line);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem exporting the metrics", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the metrics file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shifts the export files: the current one becomes ".1", ".1" becomes ".2" and so on, and the
+     * oldest one is deleted.
+     */
+    private void rotate() {
+        File oldest = new File(mExportFile.getPath() + "." + MAX_ROTATED_FILES);
+        if (oldest.exists() && !oldest.delete()) {
+            Log.e(LOG_TAG, "Could not delete " + oldest);
+        }
+        for (int i = MAX_ROTATED_FILES - 1; i >= 0; i--) {
+            File from = i == 0 ? mExportFile : new File(mExportFile.getPath() + "." + i);
+            if (from.exists() && !from.renameTo(new File(mExportFile.getPath() + "." + (i + 1)))) {
+                Log.e(LOG_TAG, "Could not rotate " + from);
+            }
+        }
+    }
+
+    /**
+     * A latency histogram with power-of-two buckets of microseconds: bucket 0 holds latencies
+     * under 1 us and bucket b latencies from 2^(b-1) up to 2^b us.  Percentiles are reported as
+     * the upper bound of their bucket, so they are within a factor of two.
+     */
+    static final class Histogram {
+
+        private static final int BUCKETS = 40;
+
+        private final long[] mCounts = new long[BUCKETS];
+        private long mCount;
+        private long mSumMicros;
+        private long mMaxMicros;
+
+        synchronized void add(long micros) {
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            mCounts[bucket]++;
+            mCount++;
+            mSumMicros += micros;
+            mMaxMicros = Math.max(mMaxMicros, micros);
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile (0 to 1).
+         */
+        synchronized long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * mCount);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += mCounts[bucket];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(1L << bucket, mMaxMicros);
+                }
+            }
+            return mMaxMicros;
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (mCount == 0) {
+                return "n=0";
+            }
+            return "n=" + mCount
+                    + " avg=" + millis(mSumMicros / mCount)
+                    + " p50=" + millis(percentile(0.5))
+                    + " p90=" + millis(percentile(0.9))
+                    + " p99=" + millis(percentile(0.99))
+                    + " max=" + millis(mMaxMicros);
+        }
+
+        private static String millis(long micros) {
+            return String.format(Locale.US, "%.2fms", micros / 1000.0);
+        }
+    }
+}
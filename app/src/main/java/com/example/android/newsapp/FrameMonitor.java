@@ -0,0 +1,525 @@
+package com.example.android.newsapp;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide frame metrics of the main thread: the duration of every frame, the number of slow
+ * and frozen frames, and the stalls of the main thread.  Frames and stalls are attributed to the
+ * resumed activity and to the list events that happened during them, so a scroll regression
+ * shows up as slow "MainActivity scroll+bind" frames rather than in a single average.
+ *
+ * A frame lasts from one vsync the main thread handled to the next: the monitor asks the
+ * {@link Choreographer} for every frame while an activity is resumed, so a frame that took longer
+ * than the display period is one whose work, or whatever ran on the main thread before it, made
+ * it miss at least one vsync.  Stalls are found by a watchdog thread that pings the main thread,
+ * and come with the stack the main thread was stuck in.
+ *
+ * Asking for every frame keeps the display pipeline awake, so the monitor is only installed in
+ * debug builds, where it can also show the numbers in an overlay and dump them to a file.  Events
+ * can be marked in any build; they cost an OR when the monitor isn't running.  Apart from
+ * {@link #mark}, the methods must be called on the main thread.
+ */
+public final class FrameMonitor {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = FrameMonitor.class.getSimpleName();
+
+    /** The loader delivered a result to the list */
+    public static final int EVENT_LOAD_FINISHED = 1;
+    /** The list scrolled */
+    public static final int EVENT_SCROLL = 1 << 1;
+    /** A row of the list was bound */
+    public static final int EVENT_BIND = 1 << 2;
+
+    /** Names of the events, by bit */
+    private static final String[] EVENT_NAMES = {"load", "scroll", "bind"};
+
+    /** A frame taking longer than this is frozen, as in the Android vitals */
+    private static final long FROZEN_FRAME_NANOS = 700 * 1000 * 1000L;
+
+    /** The main thread not answering a ping for this long is a stall */
+    private static final long STALL_THRESHOLD_MILLIS = 200;
+
+    /** Number of stalls whose stack is kept for the dump */
+    private static final int MAX_KEPT_STALLS = 20;
+
+    /** Number of stack frames kept of every stall */
+    private static final int MAX_STALL_STACK_DEPTH = 16;
+
+    /** How often the overlay is updated */
+    private static final long OVERLAY_UPDATE_NANOS = 500 * 1000 * 1000L;
+
+    private static final String DUMP_FILE_NAME = "frame-metrics.txt";
+
+    private static FrameMonitor sInstance;
+
+    /** Frame statistics of every activity that was monitored, by event mask */
+    private final Map<String, FrameStats[]> mStats = new LinkedHashMap<>();
+
+    /** Recent stalls, oldest first, guarded by itself */
+    private final ArrayDeque<Stall> mStalls = new ArrayDeque<>();
+
+    /** Number of stalls since the process started, guarded by mStalls */
+    private long mStallCount;
+
+    /** Events marked since the last frame, read by the watchdog thread */
+    private volatile int mEvents;
+
+    /** Name of the resumed activity, or null if none is being monitored */
+    private volatile String mActivityName;
+
+    /** Statistics of the resumed activity, by event mask */
+    private FrameStats[] mActivityStats;
+
+    /** Time of the last frame, or 0 before the first frame after resuming */
+    private long mLastFrameNanos;
+
+    /** Duration of a frame at the refresh rate of the display */
+    private long mFramePeriodNanos;
+
+    private FrameCallback mFrameCallback;
+
+    private Watchdog mWatchdog;
+
+    /** Overlay of the resumed activity, or null if it isn't shown */
+    private TextView mOverlayView;
+
+    private boolean mOverlayEnabled;
+
+    /** Frames and slow frames since the overlay was last updated */
+    private long mOverlayStartNanos;
+    private int mOverlayFrames;
+    private int mOverlaySlowFrames;
+
+    private final File mDumpFile;
+
+    /** Writes the dump file */
+    private final ExecutorService mDumpExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Returns the process-wide monitor, which dumps to the app's files directory.
+     */
+    public static synchronized FrameMonitor getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getFilesDir(),
+                    FetchMetrics.EXPORT_DIR_NAME);
+            sInstance = new FrameMonitor(new File(directory, DUMP_FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private FrameMonitor(File dumpFile) {
+        mDumpFile = dumpFile;
+    }
+
+    /**
+     * Starts monitoring every activity of the app from now on, including the one being created.
+     * Does nothing before Jelly Bean, which has no {@link Choreographer}.
+     */
+    public void install(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN || mFrameCallback != null) {
+            return;
+        }
+        WindowManager windowManager =
+                (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        mFramePeriodNanos = (long) (1000 * 1000 * 1000L / (refreshRate > 0 ? refreshRate : 60));
+        mFrameCallback = new FrameCallback();
+
+        Application application = (Application) context.getApplicationContext();
+        application.registerActivityLifecycleCallbacks(
+                new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityResumed(Activity activity) {
+                start(activity);
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+                stop();
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+
+    /**
+     * Records that the given events, a combination of the EVENT constants, happened in the
+     * current frame.  May be called on any thread, but the list events all happen on the main one.
+     */
+    public void mark(int events) {
+        mEvents |= events;
+    }
+
+    /**
+     * Shows or hides the overlay with the frame rate and the slow frames of the resumed activity.
+     */
+    public void setOverlayEnabled(Activity activity, boolean enabled) {
+        mOverlayEnabled = enabled;
+        if (enabled && mOverlayView == null && mActivityName != null) {
+            showOverlay(activity);
+        } else if (!enabled) {
+            hideOverlay();
+        }
+    }
+
+    public boolean isOverlayEnabled() {
+        return mOverlayEnabled;
+    }
+
+    /**
+     * Returns the file {@link #dumpToFile} writes to.
+     */
+    public File getDumpFile() {
+        return mDumpFile;
+    }
+
+    private void start(Activity activity) {
+        mActivityName = activity.getClass().getSimpleName();
+        mActivityStats = mStats.get(mActivityName);
+        if (mActivityStats == null) {
+            mActivityStats = new FrameStats[1 << EVENT_NAMES.length];
+            mStats.put(mActivityName, mActivityStats);
+        }
+        mLastFrameNanos = 0;
+        mEvents = 0;
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        mWatchdog = new Watchdog();
+        mWatchdog.start();
+        if (mOverlayEnabled) {
+            showOverlay(activity);
+        }
+    }
+
+    private void stop() {
+        mActivityName = null;
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        if (mWatchdog != null) {
+            mWatchdog.interrupt();
+            mWatchdog = null;
+        }
+        hideOverlay();
+    }
+
+    private final class FrameCallback implements Choreographer.FrameCallback {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mLastFrameNanos != 0) {
+                recordFrame(frameTimeNanos - mLastFrameNanos, frameTimeNanos);
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    private void recordFrame(long durationNanos, long frameTimeNanos) {
+        int events = mEvents;
+        mEvents = 0;
+        FrameStats stats = mActivityStats[events];
+        if (stats == null) {
+            stats = new FrameStats();
+            mActivityStats[events] = stats;
+        }
+        // Up to half a period late still makes the vsync, vsyncs themselves being a bit jittery
+        boolean slow = durationNanos > mFramePeriodNanos * 3 / 2;
+        stats.add(durationNanos, slow);
+
+        if (mOverlayView != null) {
+            mOverlayFrames++;
+            if (slow) {
+                mOverlaySlowFrames++;
+            }
+            long elapsedNanos = frameTimeNanos - mOverlayStartNanos;
+            if (elapsedNanos >= OVERLAY_UPDATE_NANOS) {
+                updateOverlay(elapsedNanos);
+            }
+        }
+    }
+
+    private void showOverlay(Activity activity) {
+        mOverlayView = new TextView(activity);
+        mOverlayView.setBackgroundColor(Color.argb(160, 0, 0, 0));
+        mOverlayView.setTextColor(Color.WHITE);
+        mOverlayView.setTextSize(12);
+        mOverlayView.setSingleLine(true);
+        // As wide as the screen and one line high, so updating the text doesn't lay out the
+        // window again, which would add to the frames being measured.  It isn't clickable, so
+        // touches go through to the views under it.
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                Gravity.BOTTOM);
+        ((ViewGroup) activity.getWindow().getDecorView()).addView(mOverlayView, params);
+        mOverlayStartNanos = System.nanoTime();
+        mOverlayFrames = 0;
+        mOverlaySlowFrames = 0;
+    }
+
+    private void hideOverlay() {
+        if (mOverlayView != null) {
+            ((ViewGroup) mOverlayView.getParent()).removeView(mOverlayView);
+            mOverlayView = null;
+        }
+    }
+
+    private void updateOverlay(long elapsedNanos) {
+        long frozen = 0;
+        for (FrameStats stats : mActivityStats) {
+            if (stats != null) {
+                frozen += stats.mFrozenFrames;
+            }
+        }
+        long stalls;
+        synchronized (mStalls) {
+            stalls = mStallCount;
+        }
+        mOverlayView.setText(String.format(Locale.US, "%.0f fps  slow %d  frozen %d  stalls %d",
+                mOverlayFrames * 1e9 / elapsedNanos, mOverlaySlowFrames, frozen, stalls));
+        mOverlayStartNanos += elapsedNanos;
+        mOverlayFrames = 0;
+        mOverlaySlowFrames = 0;
+    }
+
+    /**
+     * Pings the main thread every {@link #STALL_THRESHOLD_MILLIS}, and records a stall when a ping
+     * isn't answered in time, with the stack of the main thread at that moment.
+     */
+    private final class Watchdog extends Thread {
+
+        /** When the main thread last answered a ping, in uptime */
+        private volatile long mAnsweredAt;
+
+        private final Runnable mPing = new Runnable() {
+            @Override
+            public void run() {
+                mAnsweredAt = SystemClock.uptimeMillis();
+            }
+        };
+
+        Watchdog() {
+            super("frame-watchdog");
+        }
+
+        @Override
+        public void run() {
+            Thread mainThread = Looper.getMainLooper().getThread();
+            try {
+                while (!isInterrupted()) {
+                    long pingedAt = SystemClock.uptimeMillis();
+                    mAnsweredAt = 0;
+                    mMainHandler.post(mPing);
+                    Thread.sleep(STALL_THRESHOLD_MILLIS);
+                    if (mAnsweredAt != 0) {
+                        continue;
+                    }
+                    // Taken now, while the main thread is still stuck
+                    StackTraceElement[] stack = mainThread.getStackTrace();
+                    String activityName = mActivityName;
+                    int events = mEvents;
+                    while (mAnsweredAt == 0) {
+                        Thread.sleep(STALL_THRESHOLD_MILLIS / 4);
+                    }
+                    recordStall(new Stall(System.currentTimeMillis(), mAnsweredAt - pingedAt,
+                            activityName, events, stack));
+                }
+            } catch (InterruptedException e) {
+                // The activity was paused
+            }
+        }
+    }
+
+    private void recordStall(Stall stall) {
+        Log.w(LOG_TAG, "Main thread stalled for " + stall.mDurationMillis + "ms in "
+                + stall.mActivityName + " " + eventNames(stall.mEvents));
+        synchronized (mStalls) {
+            mStallCount++;
+            if (mStalls.size() == MAX_KEPT_STALLS) {
+                mStalls.removeFirst();
+            }
+            mStalls.addLast(stall);
+        }
+    }
+
+    /**
+     * Returns a human readable summary of the frames and stalls recorded so far.
+     */
+    public String dump() {
+        StringBuilder summary = new StringBuilder();
+        if (mFrameCallback == null) {
+            return summary.append("frames: not monitored\n").toString();
+        }
+        summary.append(String.format(Locale.US, "frames: period=%.2fms\n",
+                mFramePeriodNanos / 1e6));
+        for (Map.Entry<String, FrameStats[]> entry : mStats.entrySet()) {
+            FrameStats[] byEvents = entry.getValue();
+            for (int events = 0; events < byEvents.length; events++) {
+                if (byEvents[events] != null) {
+                    summary.append(entry.getKey()).append(' ').append(eventNames(events))
+                            .append('\n')
+                            .append("  ").append(byEvents[events]).append('\n');
+                }
+            }
+        }
+        synchronized (mStalls) {
+            summary.append("\nstalls: ").append(mStallCount).append('\n');
+            for (Stall stall : mStalls) {
+                summary.append(stall);
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes the {@link #dump} to {@link #getDumpFile}, replacing the previous dump, on a
+     * background thread.
+     */
+    public void dumpToFile() {
+        final String summary = new Date() + "\n\n" + dump();
+        mDumpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File directory = mDumpFile.getParentFile();
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    Log.e(LOG_TAG, "Could not create " + directory);
+                    return;
+                }
+                Writer writer = null;
+                try {
+                    writer = new FileWriter(mDumpFile);
+                    writer.write(summary);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem dumping the frame metrics", e);
+                } finally {
+                    if (writer != null) {
+                        try {
+                            writer.close();
+                        } catch (IOException e) {
+                            Log.e(LOG_TAG, "Problem closing the frame metrics file", e);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the names of the given events, joined with '+', or "idle" if there are none.
+     */
+    private static String eventNames(int events) {
+        if (events == 0) {
+            return "idle";
+        }
+        StringBuilder names = new StringBuilder();
+        for (int bit = 0; bit < EVENT_NAMES.length; bit++) {
+            if ((events & (1 << bit)) != 0) {
+                if (names.length() > 0) {
+                    names.append('+');
+                }
+                names.append(EVENT_NAMES[bit]);
+            }
+        }
+        return names.toString();
+    }
+
+    /**
+     * The frames of an activity during which the same events happened.  Only used on the main
+     * thread, apart from the histogram.
+     */
+    private static final class FrameStats {
+        private final FetchMetrics.Histogram mDurations = new FetchMetrics.Histogram();
+        private long mSlowFrames;
+        private long mFrozenFrames;
+
+        void add(long durationNanos, boolean slow) {
+            mDurations.add(durationNanos / 1000);
+            if (slow) {
+                mSlowFrames++;
+            }
+            if (durationNanos > FROZEN_FRAME_NANOS) {
+                mFrozenFrames++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mDurations + " slow=" + mSlowFrames + " frozen=" + mFrozenFrames;
+        }
+    }
+
+    /**
+     * A stall of the main thread, with where it was stuck.
+     */
+    private static final class Stall {
+        private final long mTime;
+        private final long mDurationMillis;
+        private final String mActivityName;
+        private final int mEvents;
+        private final StackTraceElement[] mStack;
+
+        Stall(long time, long durationMillis, String activityName, int events,
+              StackTraceElement[] stack) {
+            mTime = time;
+            mDurationMillis = durationMillis;
+            mActivityName = activityName;
+            mEvents = events;
+            mStack = stack;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder()
+                    .append(new Date(mTime)).append(' ').append(mDurationMillis).append("ms in ")
+                    .append(mActivityName).append(' ').append(eventNames(mEvents)).append('\n');
+            for (int i = 0; i < mStack.length && i < MAX_STALL_STACK_DEPTH; i++) {
+                text.append("    at ").append(mStack[i]).append('\n');
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package com.example.android.newsapp;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A size-bounded on-disk cache of Guardian responses, used by {@link QueryUtils} to make
+ * conditional GET requests.  Each entry is a raw response body plus its validators
+ * ("ETag"/"Last-Modified") and freshness ("Cache-Control: max-age").  Entries are keyed by the
+ * normalized request URL, ignoring the "api-key" parameter, and the least recently used ones are
+ * evicted once the cache grows past its size limit.
+ *
+ * The parsed articles of recently used entries are also kept in memory, so a "304 Not Modified"
+ * response can be answered without parsing the body again.
+ */
+public final class HttpDiskCache {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = HttpDiskCache.class.getSimpleName();
+
+    /** Name of the cache directory, inside the app's cache directory */
+    private static final String CACHE_DIR_NAME = "http";
+
+    /** Maximum total size of the cached response bodies */
+    private static final long MAX_SIZE_BYTES = 5 * 1024 * 1024;
+
+    /** Maximum number of parsed responses kept in memory */
+    private static final int MAX_PARSED_ENTRIES = 8;
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "last-modified";
+    private static final String META_EXPIRES_AT = "expires-at";
+
+    private static HttpDiskCache sInstance;
+
+    private final File mDirectory;
+
+    private final long mMaxSize;
+
+    /** Body size of every entry, keyed by cache key, in least recently used order */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total size of all the entries in mEntries */
+    private long mSize;
+
+    /** Whether mEntries was loaded from the files on disk yet */
+    private boolean mIndexLoaded;
+
+    /** Parsed articles of recently used entries */
+    private final LruCache<String, List<News>> mParsed = new LruCache<>(MAX_PARSED_ENTRIES);
+
+    /**
+     * Returns the process-wide cache, stored in the app's cache directory.
+     */
+    public static synchronized HttpDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR_NAME);
+            sInstance = new HttpDiskCache(directory, MAX_SIZE_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link HttpDiskCache}.
+     *
+     * @param directory where the entries are stored
+     * @param maxSize   maximum total size of the stored bodies, in bytes
+     */
+    HttpDiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Loads the LRU index on first use, so it is read on the thread of the first request rather
+     * than the one that created the cache, usually the main thread.  Called with the lock held.
+     */
+    private void ensureIndexLoaded() {
+        if (!mIndexLoaded) {
+            mIndexLoaded = true;
+            loadIndex();
+        }
+    }
+
+    /**
+     * Rebuilds the LRU index from the files on disk, oldest access first.
+     */
+    private void loadIndex() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create the cache directory " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Left over from an interrupted download
+                file.delete();
+            } else if (name.endsWith(BODY_SUFFIX)) {
+                String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+                mEntries.put(key, file.length());
+                mSize += file.length();
+            }
+        }
+    }
+
+    /**
+     * Returns the cache key of the given request URL.  The query parameters are sorted and the
+     * "api-key" parameter is dropped, so the same query always maps to the same entry.
+     */
+    public static String keyFor(String requestUrl) {
+        String base = requestUrl;
+        List<String> params = new ArrayList<>();
+        int queryStart = requestUrl.indexOf('?');
+        if (queryStart >= 0) {
+            base = requestUrl.substring(0, queryStart);
+            for (String param : requestUrl.substring(queryStart + 1).split("&")) {
+                if (!param.isEmpty() && !param.startsWith("api-key=")) {
+                    params.add(param);
+                }
+            }
+        }
+        Collections.sort(params);
+
+        StringBuilder normalized = new StringBuilder(base.toLowerCase());
+        for (int i = 0; i < params.size(); i++) {
+            normalized.append(i == 0 ? '?' : '&').append(params.get(i));
+        }
+        return sha1Hex(normalized.toString());
+    }
+
+    /**
+     * Returns the SHA-1 hash of the given string as hex, which makes a valid file name.
+     */
+    static String sha1Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // SHA-1 and UTF-8 are always available on Android
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns the entry stored for the given key, or null if there is none.
+     */
+    public synchronized Entry get(String key) {
+        ensureIndexLoaded();
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+        Properties meta = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metaFile(key));
+            meta.load(in);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cache metadata", e);
+            remove(key);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+        bodyFile(key).setLastModified(System.currentTimeMillis());
+        return new Entry(key,
+                meta.getProperty(META_ETAG),
+                meta.getProperty(META_LAST_MODIFIED),
+                parseLong(meta.getProperty(META_EXPIRES_AT)));
+    }
+
+    /**
+     * Returns the parsed articles of the given entry if they are still in memory, or null.
+     */
+    public List<News> getParsed(Entry entry) {
+        return mParsed.get(entry.mKey);
+    }
+
+    /**
+     * Remembers the parsed articles of the given entry.
+     */
+    public void putParsed(Entry entry, List<News> articles) {
+        mParsed.put(entry.mKey, Collections.unmodifiableList(articles));
+    }
+
+    /**
+     * Opens the stored response body of the given entry.  The file is opened with the lock held,
+     * so an eviction can't delete it between the lookup and the open; once open, it stays
+     * readable even if it is evicted.
+     *
+     * @throws FileNotFoundException if the entry is gone, in which case it is no longer in the
+     *                               cache and doesn't need to be removed
+     */
+    public synchronized InputStream openBody(Entry entry) throws IOException {
+        ensureIndexLoaded();
+        if (!mEntries.containsKey(entry.mKey)) {
+            throw new FileNotFoundException("Evicted from the cache: " + entry.mKey);
+        }
+        try {
+            return new FileInputStream(bodyFile(entry.mKey));
+        } catch (FileNotFoundException e) {
+            // Deleted behind the cache's back
+            remove(entry.mKey);
+            throw e;
+        }
+    }
+
+    /**
+     * Updates the validators and freshness of an entry after the server answered a conditional
+     * request with "304 Not Modified".  Headers missing from the 304 response keep their old value.
+     */
+    public synchronized Entry refresh(Entry entry, String eTag, String lastModified,
+                                      String cacheControl) {
+        Entry refreshed = new Entry(entry.mKey,
+                eTag != null ? eTag : entry.mETag,
+                lastModified != null ? lastModified : entry.mLastModified,
+                expiresAt(cacheControl));
+        writeMeta(refreshed);
+        return refreshed;
+    }
+
+    /**
+     * Starts storing a new response for the given key.  Returns null if the response must not be
+     * cached ("Cache-Control: no-store").
+     */
+    public Editor edit(String key, String eTag, String lastModified, String cacheControl) {
+        if (cacheControl != null && cacheControl.contains("no-store")) {
+            return null;
+        }
+        synchronized (this) {
+            // Also creates the directory
+            ensureIndexLoaded();
+        }
+        try {
+            return new Editor(new Entry(key, eTag, lastModified, expiresAt(cacheControl)));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem creating the cache entry", e);
+            return null;
+        }
+    }
+
+    /**
+     * Removes an entry, for instance because its body turned out to be unreadable.
+     */
+    public void remove(Entry entry) {
+        remove(entry.mKey);
+    }
+
+    private synchronized void commit(Entry entry, File tempFile, List<News> articles) {
+        ensureIndexLoaded();
+        File body = bodyFile(entry.mKey);
+        Long oldSize = mEntries.remove(entry.mKey);
+        if (oldSize != null) {
+            mSize -= oldSize;
+        }
+        if (!tempFile.renameTo(body) || !writeMeta(entry)) {
+            tempFile.delete();
+            remove(entry.mKey);
+            return;
+        }
+        mEntries.put(entry.mKey, body.length());
+        mSize += body.length();
+        mParsed.put(entry.mKey, Collections.unmodifiableList(articles));
+        trimToSize();
+    }
+
+    private boolean writeMeta(Entry entry) {
+        Properties meta = new Properties();
+        if (entry.mETag != null) {
+            meta.setProperty(META_ETAG, entry.mETag);
+        }
+        if (entry.mLastModified != null) {
+            meta.setProperty(META_LAST_MODIFIED, entry.mLastModified);
+        }
+        meta.setProperty(META_EXPIRES_AT, String.valueOf(entry.mExpiresAt));
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(metaFile(entry.mKey));
+            meta.store(out, null);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the cache metadata", e);
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits in its size limit.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> eldest = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            mSize -= entry.getValue();
+            deleteFiles(entry.getKey());
+        }
+    }
+
+    private synchronized void remove(String key) {
+        ensureIndexLoaded();
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        deleteFiles(key);
+    }
+
+    private void deleteFiles(String key) {
+        bodyFile(key).delete();
+        metaFile(key).delete();
+        mParsed.remove(key);
+    }
+
+    private File bodyFile(String key) {
+        return new File(mDirectory, key + BODY_SUFFIX);
+    }
+
+    private File metaFile(String key) {
+        return new File(mDirectory, key + META_SUFFIX);
+    }
+
+    /**
+     * Returns the time until which a response with the given "Cache-Control" header is fresh, or
+     * 0 if it always has to be revalidated.
+     */
+    private static long expiresAt(String cacheControl) {
+        if (cacheControl == null || cacheControl.contains("no-cache")) {
+            return 0;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith("max-age=")) {
+                long maxAgeSeconds = parseLong(directive.substring("max-age=".length()));
+                return maxAgeSeconds > 0 ? System.currentTimeMillis() + maxAgeSeconds * 1000 : 0;
+            }
+        }
+        return 0;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A cached response: its key, validators and freshness.
+     */
+    public static final class Entry {
+        private final String mKey;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mExpiresAt;
+
+        private Entry(String key, String eTag, String lastModified, long expiresAt) {
+            mKey = key;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mExpiresAt = expiresAt;
+        }
+
+        /** Returns the "ETag" of the cached response, or null */
+        public String getETag() {
+            return mETag;
+        }
+
+        /** Returns the "Last-Modified" date of the cached response, or null */
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        /** Returns true if the response can be used without revalidating it */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < mExpiresAt;
+        }
+    }
+
+    /**
+     * Writes a response body to the cache while it is being read.  The entry only becomes
+     * visible once {@link #commit(List)} is called, so an interrupted download never replaces a
+     * good entry.
+     */
+    public final class Editor {
+        private final Entry mEntry;
+        private final File mTempFile;
+        private final OutputStream mOut;
+        private InputStream mTee;
+
+        private Editor(Entry entry) throws IOException {
+            mEntry = entry;
+            // Every download gets its own temporary file, in case the same URL is fetched twice
+            // at the same time
+            mTempFile = File.createTempFile(entry.mKey, TEMP_SUFFIX, mDirectory);
+            mOut = new BufferedOutputStream(new FileOutputStream(mTempFile));
+        }
+
+        /**
+         * Returns a stream that reads from the given one and copies everything read to the cache.
+         */
+        public InputStream tee(InputStream in) {
+            mTee = new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        mOut.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0) {
+                        mOut.write(buffer, offset, read);
+                    }
+                    return read;
+                }
+            };
+            return mTee;
+        }
+
+        /**
+         * Copies whatever the parser left unread, then stores the body and the parsed articles.
+         */
+        public void commit(List<News> articles) {
+            try {
+                if (mTee != null) {
+                    byte[] buffer = new byte[4096];
+                    while (mTee.read(buffer, 0, buffer.length) != -1) {
+                        // Keep copying until the end of the body
+                    }
+                }
+                mOut.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem writing the cache entry", e);
+                abort();
+                return;
+            }
+            HttpDiskCache.this.commit(mEntry, mTempFile, articles);
+        }
+
+        /**
+         * Throws away the partially written body.
+         */
+        public void abort() {
+            closeQuietly(mOut);
+            mTempFile.delete();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.android.newsapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Performs the HTTP GET requests made by {@link QueryUtils}.  Implementations are expected to
+ * reuse connections between requests and to accept compressed responses.
+ */
+public interface HttpTransport {
+
+    /**
+     * Sends a GET request for the given URL with the given extra request headers.  The returned
+     * response must be closed, which hands its connection back for reuse.
+     */
+    Response get(URL url, Map<String, String> headers) throws IOException;
+
+    /**
+     * Like {@link #get(URL, Map)}, but with the given connect and read timeout instead of the
+     * transport's defaults.  Cancelling the token aborts the request, and makes any read of the
+     * response body that is blocked or still to come fail.
+     */
+    Response get(URL url, Map<String, String> headers, int timeoutMillis,
+            CancellationToken cancellation) throws IOException;
+
+    /**
+     * Returns the connection statistics of this transport.
+     */
+    ConnectionStats getStats();
+
+    /**
+     * An HTTP response whose body has not been read yet.
+     */
+    interface Response extends Closeable {
+
+        /** Returns the HTTP status code */
+        int getCode() throws IOException;
+
+        /** Returns the value of the given response header, or null */
+        String getHeader(String name);
+
+        /** Returns the (decompressed) response body */
+        InputStream getBody() throws IOException;
+
+        /**
+         * Returns the time spent getting a connection for the request: the DNS lookup, TCP and
+         * TLS handshakes of a new connection, or taking one from the pool.  Returns -1 if the
+         * transport can't tell.
+         */
+        long getConnectMicros();
+
+        /**
+         * Returns the time from sending the request to the first byte of the response, once the
+         * headers have arrived, or -1 if the transport can't tell.
+         */
+        long getFirstByteMicros();
+    }
+}
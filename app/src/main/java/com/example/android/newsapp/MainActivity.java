@@ -1,37 +1,56 @@
 package com.example.android.newsapp;
 
+import android.app.ActivityManager;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
-import android.content.Context;
 import android.content.Loader;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
+import android.support.v4.app.ActivityManagerCompat;
+import android.support.v4.widget.TextViewCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
-import java.net.URI;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 public class MainActivity extends AppCompatActivity
-        implements LoaderCallbacks<List<News>>{
+        implements LoaderCallbacks<List<NewsRow>>{
 
     public static final String LOG_TAG = MainActivity.class.getName();
 
-    /** URL for the news data from the Guardian data set */
-    private static final String GUARDIAN_REQUEST_URL = "https://content.guardianapis.com/search?";
+    /** URL for the news data from the Guardian data set, or from a stand-in set by the build */
+    private static final String GUARDIAN_REQUEST_URL = BuildConfig.GUARDIAN_BASE_URL;
+
+    /** Query term of the default feed, when the user is not searching */
+    private static final String DEFAULT_QUERY = "alaska";
+
+    /** Key of the current search, in the saved instance state and in the loader arguments */
+    private static final String STATE_SEARCH_QUERY = "search_query";
+
+    /** Number of articles kept in memory, the rest of the list is read back as it is scrolled */
+    private static final int WINDOW_SIZE = 200;
+
+    /** Number of articles kept in memory on a device with little of it */
+    private static final int LOW_RAM_WINDOW_SIZE = 90;
 
     /** Adapter for the list of news articles*/
     private NewsAdapter mAdapter;
@@ -42,73 +61,233 @@ public class MainActivity extends AppCompatActivity
      */
     private static final int NEWS_LOADER_ID = 1;
 
+    /** Downloads article bodies for the reader view ahead of time */
+    private ArticleBodyLoader mBodyLoader;
+
+    /** Decides the page size, prefetch distance and article fields for the current network */
+    private NetworkPolicy mNetworkPolicy;
+
     private TextView mEmptyStateTextView;
 
+    /** Words the user is searching for, or null while showing the default feed */
+    private String mSearchQuery;
+
+    /** Records how long the list takes to take in each result */
+    private FetchMetrics mMetrics;
+
+    /** Attributes the frames of the list to what it was doing */
+    private FrameMonitor mFrames;
+
+    /** When onCreate started, to time how long the first rows take to show up */
+    private long mCreateNanos;
+
+    /** True on a cold start, until the loader first delivers rows */
+    private boolean mAwaitingFirstRows;
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
+        mCreateNanos = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView newsListView = findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView newsListView = findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        newsListView.setLayoutManager(layoutManager);
 
         mEmptyStateTextView = findViewById(R.id.empty_view);
-        newsListView.setEmptyView(mEmptyStateTextView);
 
-        //Create a new adapter that takes a list of news articles as input
-        mAdapter = new NewsAdapter(this, new ArrayList<News>());
+        mMetrics = FetchMetrics.getInstance(this);
+        mFrames = FrameMonitor.getInstance(this);
+        if (BuildConfig.DEBUG) {
+            // Watches the frames of every activity from here on
+            mFrames.install(this);
+        }
+        mNetworkPolicy = NetworkPolicy.getInstance(this);
 
-        //Set the adapter on the {@link ListView} so the list can be populated in the user interface
-        newsListView.setAdapter(mAdapter);
+        mBodyLoader = ArticleBodyLoader.getInstance(this);
 
-        // Set an item click listener on the ListView, which sends an intent to a web browser
-        // to open a website with more information about the selected article.
-        newsListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        //Create a new adapter for the list of news articles.  Clicking an article opens it in the
+        // reader view, from its body downloaded ahead of time when possible.
+        mAdapter = new NewsAdapter(new NewsAdapter.OnArticleClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                //Find the current article that was clicked on
-                News currentArticle = mAdapter.getItem(position);
+            public void onArticleClick(News currentArticle) {
+                startActivity(ArticleActivity.newIntent(MainActivity.this, currentArticle));
+            }
+        }, ThumbnailLoader.getInstance(this), mMetrics, mFrames);
 
-                //Convert the String URL into an URI object (to pass into the Intent constructor)
-                Uri newsUri = Uri.parse(currentArticle.getUrl());
+        //Set the adapter on the {@link RecyclerView} so the list can be populated in the user interface
+        newsListView.setAdapter(mAdapter);
 
-                //Create a new intent to view the news URI;
-                Intent websiteIntent = new Intent(Intent.ACTION_VIEW, newsUri);
+        // Prefetch the next page in the background when the user gets close to the end of the list,
+        // which is sooner on a fast network, and read back the rows the loader dropped when the
+        // user gets close to the start of it
+        newsListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    prefetchBodies(layoutManager);
+                }
+            }
 
-                // Send the intent to launch a new activity
-                startActivity(websiteIntent);
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dx == 0 && dy == 0) {
+                    // A layout rather than a scroll, such as the first rows being shown
+                    prefetchBodies(layoutManager);
+                } else {
+                    mFrames.mark(FrameMonitor.EVENT_SCROLL);
+                }
+                int totalItemCount = mAdapter.getItemCount();
+                Loader<List<NewsRow>> loader = getLoaderManager().getLoader(NEWS_LOADER_ID);
+                if (totalItemCount == 0 || loader == null) {
+                    return;
+                }
+                int prefetchDistance = mNetworkPolicy.getPrefetchDistance();
+                int firstVisible = layoutManager.findFirstVisibleItemPosition();
+                if (layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - prefetchDistance) {
+                    ((NewsLoader) loader).loadNextPage();
+                } else if (dy < 0 && firstVisible != RecyclerView.NO_POSITION
+                        && firstVisible <= prefetchDistance) {
+                    ((NewsLoader) loader).loadPreviousRows();
+                }
             }
         });
 
-        //get a reference to the ConnectivityManager to check state of network connectivity
-        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        //Get a reference to the LoaderManager, in order to interact with loaders.
+        LoaderManager loaderManager = getLoaderManager();
+
+        // Initialize the loader, even without a network connection: the loader shows the stored
+        // articles first and only then goes to the network.  Pass in the int ID constant defined
+        // above and pass in null for the bundle.  Pass in this activity for the LoaderCallbacks
+        // parameter (which is valid because this activity implements the LoaderCallbacks interface).
+        if (savedInstanceState != null) {
+            mSearchQuery = savedInstanceState.getString(STATE_SEARCH_QUERY);
+        }
+        // On a cold start, show the feed as it was last loaded until the loader has something
+        mAwaitingFirstRows = loaderManager.getLoader(NEWS_LOADER_ID) == null;
+        if (mAwaitingFirstRows && mSearchQuery == null) {
+            showSnapshot();
+        }
+        loaderManager.initLoader(NEWS_LOADER_ID, searchArgs(), this);
+    }
+
+    /**
+     * Shows the rows of the feed snapshot, if there is one of the current feed.  This runs before
+     * the first frame: the snapshot is a small memory-mapped file, and its rows are prepared
+     * without precomputing the title layouts.
+     */
+    private void showSnapshot() {
+        List<News> articles;
+        try {
+            articles = FeedSnapshot.read(NewsLoader.getSnapshotFile(this),
+                    NewsLoader.snapshotKey(buildRequestUrl(null), getSections()));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the feed snapshot", e);
+            return;
+        }
+        if (articles == null || articles.isEmpty()) {
+            return;
+        }
+        mAdapter.submitList(new NewsRowPreparer(null, getBucketHeaders()).prepare(articles));
+        findViewById(R.id.loading_indicator).setVisibility(View.GONE);
 
-        //Get details on the currently active default data network
-        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        long micros = (System.nanoTime() - mCreateNanos) / 1000;
+        mMetrics.recordLatency(FetchMetrics.STARTUP_SNAPSHOT, micros);
+        Log.i(LOG_TAG, "Showed " + articles.size() + " snapshot rows after " + micros + " us");
+    }
 
-        // If there is a network connection, fetch data
-        if (networkInfo != null && networkInfo.isConnected()) {
-            //Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
+    }
 
-            // Initialize the loader.  Pass in the int ID constant defined above and pass in null
-            // for the bundle.  Pass in this activity for the LoaderCallbacks parameter (which is
-            // valid because this activity implements the LoaderCallbacks interface).
-            loaderManager.initLoader(NEWS_LOADER_ID, null, this);
-        } else {
-            // Otherwise, display error.  First, hide loading indicator so error message will be
-            // visible.
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.GONE);
+    /**
+     * Returns the loader arguments for the current search.
+     */
+    private Bundle searchArgs() {
+        Bundle args = new Bundle();
+        args.putString(STATE_SEARCH_QUERY, mSearchQuery);
+        return args;
+    }
 
-            //Update empty state with no connection error message
-            mEmptyStateTextView.setText(R.string.no_internet);
+    /**
+     * Shows the results of the given search, or the default feed if it is null.
+     */
+    private void search(String query) {
+        if (query != null && query.trim().isEmpty()) {
+            query = null;
         }
+        if (query == null ? mSearchQuery == null : query.equals(mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
+        getLoaderManager().restartLoader(NEWS_LOADER_ID, searchArgs(), this);
     }
 
     @Override
-    public Loader<List<News>> onCreateLoader(int i, Bundle bundle) {
+    public Loader<List<NewsRow>> onCreateLoader(int i, Bundle bundle) {
+
+        String searchQuery = bundle != null ? bundle.getString(STATE_SEARCH_QUERY) : null;
+
+        // The loader precomputes the title layouts with the text metrics of a row's title view
+        View rowTemplate = LayoutInflater.from(this).inflate(R.layout.list_view, null);
+        TextView titleTemplate = rowTemplate.findViewById(R.id.title);
+        NewsRowPreparer rowPreparer =
+                new NewsRowPreparer(TextViewCompat.getTextMetricsParams(titleTemplate),
+                        getBucketHeaders());
+
+        //Create a new loader for the given URL, which queries each of the sections.  Pages are
+        // smaller on a slow network, so the first rows show up sooner.
+        return new NewsLoader(this, buildRequestUrl(searchQuery), getSections(),
+                mNetworkPolicy.getPageSize(), getWindowSize(), searchQuery, rowPreparer);
+    }
+
+    /**
+     * Returns the headers the rows are grouped under by publication day, or null when the list
+     * isn't ordered by date, where the groups would be split up all over the list.
+     */
+    private CharSequence[] getBucketHeaders() {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        String orderBy = sharedPreferences.getString(
+                getString(R.string.settings_order_by_key),
+                getString(R.string.settings_order_by_default));
+        return getString(R.string.settings_order_by_newest_value).equals(orderBy)
+                ? getResources().getTextArray(R.array.time_bucket_headers) : null;
+    }
+
+    /**
+     * Returns the number of articles the loader keeps in memory, which is less on a device with
+     * little memory.
+     */
+    private int getWindowSize() {
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        return ActivityManagerCompat.isLowRamDevice(activityManager)
+                ? LOW_RAM_WINDOW_SIZE : WINDOW_SIZE;
+    }
+
+    /**
+     * Downloads the bodies of the visible articles and of the next few, so they open offline and
+     * without waiting.  Done when the list comes to rest rather than while it scrolls, so the
+     * rows flung past aren't downloaded.
+     */
+    private void prefetchBodies(LinearLayoutManager layoutManager) {
+        int firstVisible = layoutManager.findFirstVisibleItemPosition();
+        if (firstVisible == RecyclerView.NO_POSITION || !mNetworkPolicy.shouldPrefetchBodies()) {
+            return;
+        }
+        int end = layoutManager.findLastVisibleItemPosition() + 1
+                + mNetworkPolicy.getBodyPrefetchCount();
+        mBodyLoader.prefetch(mAdapter.getArticles(firstVisible, end));
+    }
 
+    /**
+     * Returns the request URL of the given search, or of the default feed if it is null, with the
+     * current settings.
+     */
+    private String buildRequestUrl(String searchQuery) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
 
         // getString retrieves a String value from the preferences.  The second parameter is the
@@ -117,12 +296,6 @@ public class MainActivity extends AppCompatActivity
                 getString(R.string.settings_order_by_key),
                 getString(R.string.settings_order_by_default));
 
-        //getString retrieves a String value from the preferences.  The second parameter is the
-        // default value for this preference.
-        String sections = sharedPreferences.getString(
-                getString(R.string.settings_sections_key),
-                getString(R.string.settings_sections_default));
-
         //parse breaks apart the URI string that's passed into its parameter
         Uri baseUri = Uri.parse(GUARDIAN_REQUEST_URL);
 
@@ -130,45 +303,63 @@ public class MainActivity extends AppCompatActivity
         Uri.Builder uriBuilder = baseUri.buildUpon();
 
         // Append query parameter and its value.
-        uriBuilder.appendQueryParameter("q", "alaska");
+        uriBuilder.appendQueryParameter("q", searchQuery != null ? searchQuery : DEFAULT_QUERY);
         uriBuilder.appendQueryParameter("order-by", orderBy);
-        uriBuilder.appendQueryParameter("sectionId", sections);
-        uriBuilder.appendQueryParameter("show-tags", "contributor");
-        uriBuilder.appendQueryParameter("api-key", "b83df4b5-4b2d-4cd3-8023-c837f69bd643");
-
-        //Create a new loader for the given URL
-        return new NewsLoader(this, uriBuilder.toString());
+        // Only ask for the byline as the author: the contributor tags carry a biography, links
+        // and names the app never shows.  The thumbnail is shown next to the title, except on a
+        // slow network where it isn't even asked for.
+        uriBuilder.appendQueryParameter("show-fields", mNetworkPolicy.getFields());
+        uriBuilder.appendQueryParameter("api-key", BuildConfig.GUARDIAN_API_KEY);
+        return uriBuilder.toString();
     }
 
-    @Override
-    public void onLoadFinished(Loader<List<News>> loader, List<News> articles) {
-
-        //Clear the adapter of previous news data
-        mAdapter.clear();
+    /**
+     * Returns the IDs of the sections selected in the settings.
+     */
+    private List<String> getSections() {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
 
-        //get a reference to the ConnectivityManager to check state of network connectivity
-        ConnectivityManager connMgr = (ConnectivityManager) this.getSystemService(Context.CONNECTIVITY_SERVICE);
+        //getStringSet retrieves the set of selected sections from the preferences.  The second
+        // parameter is the default value for this preference.
+        Set<String> sections = sharedPreferences.getStringSet(
+                getString(R.string.settings_sections_key),
+                new HashSet<>(Arrays.asList(
+                        getResources().getStringArray(R.array.settings_sections_default_values))));
+        return new ArrayList<>(sections);
+    }
 
-        //Get details on the currently active default data network
-        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+    @Override
+    public void onLoadFinished(Loader<List<NewsRow>> loader, List<NewsRow> articles) {
+        long start = System.nanoTime();
+        mFrames.mark(FrameMonitor.EVENT_LOAD_FINISHED);
 
         //Hide loading indicator
         View loadingIndicator = findViewById(R.id.loading_indicator);
         loadingIndicator.setVisibility(View.GONE);
 
-        //Set empty state text to display "No news found."
-        mEmptyStateTextView.setText(R.string.no_news);
-
-        // If there is a valid list of (@link News} articles, then add them to the adapter's data
-        // set.  This will trigger the ListView to update.
-
-        if(networkInfo == null) {
-            mEmptyStateTextView.setText(R.string.no_internet);
-        } else if (articles != null && !articles.isEmpty()) {
-            mAdapter.addAll(articles);
+        // If there is a valid list of (@link News} articles, then hand them to the adapter, which
+        // works out on a background thread which rows changed.  This will update the RecyclerView.
+        if (articles != null && !articles.isEmpty()) {
+            mAdapter.submitList(articles);
+            mEmptyStateTextView.setVisibility(View.GONE);
+            if (mAwaitingFirstRows) {
+                mAwaitingFirstRows = false;
+                mMetrics.recordLatency(FetchMetrics.STARTUP_LOADER,
+                        (System.nanoTime() - mCreateNanos) / 1000);
+            }
         } else {
-            mEmptyStateTextView.setText(R.string.no_news);
+            mAdapter.submitList(null);
+            mEmptyStateTextView.setVisibility(View.VISIBLE);
+            if (!mNetworkPolicy.isConnected()) {
+                //Nothing stored and no connection to fetch anything with
+                mEmptyStateTextView.setText(R.string.no_internet);
+            } else {
+                //Set empty state text to display "No news found."
+                mEmptyStateTextView.setText(R.string.no_news);
+            }
         }
+
+        mMetrics.recordLatency(FetchMetrics.UI_DELIVER, (System.nanoTime() - start) / 1000);
     }
 
     /**
@@ -178,9 +369,9 @@ public class MainActivity extends AppCompatActivity
      * @param loader The Loader that is being reset.
      */
     @Override
-    public void onLoaderReset(Loader<List<News>> loader) {
+    public void onLoaderReset(Loader<List<NewsRow>> loader) {
         //Clears out out existing data.
-        mAdapter.clear();
+        mAdapter.submitList(null);
     }
 
     @Override
@@ -188,6 +379,45 @@ public class MainActivity extends AppCompatActivity
     public boolean onCreateOptionsMenu(Menu menu) {
         //Inflate the Options menu we specified in the XML.
         getMenuInflater().inflate(R.menu.main, menu);
+        // The metrics screen is only meant for debug builds
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_frame_overlay).setVisible(BuildConfig.DEBUG)
+                .setChecked(mFrames.isOverlayEnabled());
+        menu.findItem(R.id.action_dump_frames).setVisible(BuildConfig.DEBUG);
+
+        // Searching shows the matching stored articles at once; closing the search goes back to
+        // the default feed
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (mSearchQuery != null) {
+            searchItem.expandActionView();
+            searchView.setQuery(mSearchQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                return false;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                search(null);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -199,6 +429,21 @@ public class MainActivity extends AppCompatActivity
             startActivity(settingsIntent);
             return true;
         }
+        if (id == R.id.action_metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        }
+        if (id == R.id.action_frame_overlay) {
+            item.setChecked(!item.isChecked());
+            mFrames.setOverlayEnabled(this, item.isChecked());
+            return true;
+        }
+        if (id == R.id.action_dump_frames) {
+            mFrames.dumpToFile();
+            Toast.makeText(this, getString(R.string.frames_dumped, mFrames.getDumpFile().getPath()),
+                    Toast.LENGTH_LONG).show();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 }
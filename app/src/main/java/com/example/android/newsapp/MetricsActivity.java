@@ -0,0 +1,33 @@
+package com.example.android.newsapp;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.TextView;
+
+/**
+ * Debug screen showing the {@link FetchMetrics} and the {@link FrameMonitor} numbers recorded so
+ * far, and where they are exported.
+ * Its menu item is only shown in debug builds.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Show the latest numbers every time the screen comes back
+        FetchMetrics metrics = FetchMetrics.getInstance(this);
+
+        TextView summaryView = findViewById(R.id.metrics_summary);
+        summaryView.setText(metrics.dump() + '\n' + FrameMonitor.getInstance(this).dump());
+
+        TextView exportFileView = findViewById(R.id.metrics_export_file);
+        exportFileView.setText(getString(R.string.metrics_export_file,
+                metrics.getExportFile().getPath()));
+    }
+}
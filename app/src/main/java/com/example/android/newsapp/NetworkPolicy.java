@@ -0,0 +1,330 @@
+package com.example.android.newsapp;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.telephony.TelephonyManager;
+import android.text.format.DateUtils;
+
+import java.util.Locale;
+
+/**
+ * Adapts what the app fetches to the network it is on.  The network is rated from the throughput
+ * of the responses {@link QueryUtils} actually downloaded on it, or, before there are any, from
+ * what the platform says about the connection.  Together with whether the network is metered,
+ * the rating decides:
+ *
+ * - the page size: small pages on a poor network, so the first rows show up sooner;
+ * - how far ahead of the end of the list the next page is prefetched;
+ * - the article fields asked for: no thumbnails on a poor network;
+ * - how long a loaded feed is shown before it is refreshed.
+ *
+ * What the platform says about the network is read once and kept, since the list asks for the
+ * prefetch distance on every scrolled frame and each ConnectivityManager query is a binder call.
+ * From Android 7.0 a default network callback keeps it up to date; before that it is read again
+ * by {@link #refresh} whenever a page is requested.
+ *
+ * Safe to use from any thread.
+ */
+public final class NetworkPolicy {
+
+    /** Ratings of the network */
+    public static final int QUALITY_POOR = 0;
+    public static final int QUALITY_MODERATE = 1;
+    public static final int QUALITY_GOOD = 2;
+
+    /** Throughput (of decompressed response bodies) under which a network is poor */
+    private static final long POOR_BYTES_PER_SECOND = 32 * 1024;
+
+    /** Throughput from which a network is good */
+    private static final long GOOD_BYTES_PER_SECOND = 256 * 1024;
+
+    /** Smaller responses are ignored, their timing says more about latency than throughput */
+    private static final long MIN_SAMPLE_BYTES = 16 * 1024;
+
+    /** Weight of a new sample in the throughput estimate */
+    private static final double SAMPLE_WEIGHT = 0.3;
+
+    private static final int[] PAGE_SIZES = {10, 20, 30};
+    private static final int[] PREFETCH_DISTANCES = {2, 5, 15};
+
+    /** Number of articles past the visible ones whose bodies are downloaded ahead of time */
+    private static final int[] BODY_PREFETCH_COUNTS = {0, 3, 10};
+
+    private static final String FIELDS = "byline,thumbnail";
+    private static final String POOR_NETWORK_FIELDS = "byline";
+
+    /** How long a feed is shown before being refreshed, on a network that isn't metered */
+    private static final long REFRESH_INTERVAL_MILLIS = QueryResultCache.TTL_MILLIS;
+    private static final long METERED_REFRESH_INTERVAL_MILLIS = 15 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long POOR_NETWORK_REFRESH_INTERVAL_MILLIS =
+            30 * DateUtils.MINUTE_IN_MILLIS;
+
+    private static NetworkPolicy sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+
+    /** Estimated throughput in bytes per second, or -1 before the first sample */
+    private double mBytesPerSecond = -1;
+
+    /** Network the estimate was measured on; it is dropped when the network changes */
+    private String mEstimateNetwork;
+
+    /** What the platform last said about the current network */
+    private volatile NetworkState mState;
+
+    /**
+     * Returns the process-wide policy.
+     */
+    public static synchronized NetworkPolicy getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkPolicy(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NetworkPolicy(Context context) {
+        mConnectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mState = readActiveState();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mConnectivityManager.registerDefaultNetworkCallback(new DefaultNetworkCallback());
+        }
+    }
+
+    /**
+     * Reads the state of the current network again, before a page is requested.  Does nothing
+     * from Android 7.0, where the network callback keeps the state up to date.  Makes binder
+     * calls, so better not called on the main thread.
+     */
+    public void refresh() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            mState = readActiveState();
+        }
+    }
+
+    /**
+     * Records a response body of the given size that took the given time to arrive.  The size is
+     * the decoded one, so for a gzipped body the bandwidth is overestimated by its compression.
+     */
+    public void recordTransfer(long bytes, long micros) {
+        if (bytes < MIN_SAMPLE_BYTES || micros <= 0) {
+            return;
+        }
+        double bytesPerSecond = bytes * 1e6 / micros;
+        String network = mState.mName;
+        synchronized (this) {
+            if (mBytesPerSecond < 0 || !network.equals(mEstimateNetwork)) {
+                mBytesPerSecond = bytesPerSecond;
+                mEstimateNetwork = network;
+            } else {
+                mBytesPerSecond += SAMPLE_WEIGHT * (bytesPerSecond - mBytesPerSecond);
+            }
+        }
+    }
+
+    /**
+     * Returns whether there is a network connection.
+     */
+    public boolean isConnected() {
+        return mState.mConnected;
+    }
+
+    /**
+     * Returns whether the user may pay for the data sent over the current network.
+     */
+    public boolean isMetered() {
+        return mState.mMetered;
+    }
+
+    /**
+     * Returns the rating of the current network, one of the QUALITY constants.
+     */
+    public int getQuality() {
+        double bytesPerSecond;
+        NetworkState state = mState;
+        synchronized (this) {
+            bytesPerSecond = state.mName.equals(mEstimateNetwork) ? mBytesPerSecond : -1;
+        }
+        if (bytesPerSecond < 0) {
+            return state.mPlatformQuality;
+        }
+        if (bytesPerSecond < POOR_BYTES_PER_SECOND) {
+            return QUALITY_POOR;
+        }
+        return bytesPerSecond < GOOD_BYTES_PER_SECOND ? QUALITY_MODERATE : QUALITY_GOOD;
+    }
+
+    /** Returns the number of articles to ask for per page */
+    public int getPageSize() {
+        return PAGE_SIZES[getQuality()];
+    }
+
+    /** Returns how many rows before the end of the list the next page is prefetched */
+    public int getPrefetchDistance() {
+        int quality = getQuality();
+        if (quality == QUALITY_GOOD && isMetered()) {
+            // Don't spend the user's data on pages they may never scroll to
+            quality = QUALITY_MODERATE;
+        }
+        return PREFETCH_DISTANCES[quality];
+    }
+
+    /**
+     * Returns whether the bodies of the visible articles are downloaded ahead of time, so they
+     * open offline.
+     */
+    public boolean shouldPrefetchBodies() {
+        return isConnected() && (getQuality() != QUALITY_POOR || !isMetered());
+    }
+
+    /** Returns how many articles past the visible ones have their bodies downloaded too */
+    public int getBodyPrefetchCount() {
+        int quality = getQuality();
+        if (quality == QUALITY_GOOD && isMetered()) {
+            quality = QUALITY_MODERATE;
+        }
+        return BODY_PREFETCH_COUNTS[quality];
+    }
+
+    /** Returns the value of the "show-fields" parameter of the news requests */
+    public String getFields() {
+        return getQuality() == QUALITY_POOR ? POOR_NETWORK_FIELDS : FIELDS;
+    }
+
+    /** Returns how long a loaded feed is shown before it is refreshed */
+    public long getRefreshIntervalMillis() {
+        if (getQuality() == QUALITY_POOR) {
+            return POOR_NETWORK_REFRESH_INTERVAL_MILLIS;
+        }
+        return isMetered() ? METERED_REFRESH_INTERVAL_MILLIS : REFRESH_INTERVAL_MILLIS;
+    }
+
+    /**
+     * Reads the state of the active network.  Used until Android 7.0, and for the initial state.
+     */
+    private NetworkState readActiveState() {
+        NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+        boolean connected;
+        NetworkCapabilities capabilities = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Network network = mConnectivityManager.getActiveNetwork();
+            capabilities = network != null
+                    ? mConnectivityManager.getNetworkCapabilities(network) : null;
+            connected = capabilities != null
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        } else {
+            connected = info != null && info.isConnected();
+        }
+        return new NetworkState(connected,
+                ConnectivityManagerCompat.isActiveNetworkMetered(mConnectivityManager),
+                networkName(info), platformQuality(capabilities, info));
+    }
+
+    /**
+     * Rates a network from what the platform knows about the connection, before any response
+     * was timed on it.  The capabilities are only known from Android 6.0, and may be null.
+     */
+    private static int platformQuality(NetworkCapabilities capabilities, NetworkInfo info) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            if (capabilities == null) {
+                return QUALITY_MODERATE;
+            }
+            // The link bandwidth is what the radio could do at best, so only half of it counts
+            long bytesPerSecond = capabilities.getLinkDownstreamBandwidthKbps() * 1000L / 8 / 2;
+            if (bytesPerSecond > 0) {
+                if (bytesPerSecond < POOR_BYTES_PER_SECOND) {
+                    return QUALITY_POOR;
+                }
+                return bytesPerSecond < GOOD_BYTES_PER_SECOND ? QUALITY_MODERATE : QUALITY_GOOD;
+            }
+        }
+        if (info == null) {
+            return QUALITY_MODERATE;
+        }
+        switch (info.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+            case ConnectivityManager.TYPE_ETHERNET:
+                return QUALITY_GOOD;
+            case ConnectivityManager.TYPE_MOBILE:
+                return isSecondGeneration(info.getSubtype()) ? QUALITY_POOR : QUALITY_MODERATE;
+            default:
+                return QUALITY_MODERATE;
+        }
+    }
+
+    private static boolean isSecondGeneration(int networkType) {
+        switch (networkType) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns a name for the given network, which changes when the device switches between
+     * networks of different kinds.
+     */
+    private static String networkName(NetworkInfo info) {
+        if (info == null) {
+            return "none";
+        }
+        return info.getType() + ":" + info.getSubtype();
+    }
+
+    @Override
+    public synchronized String toString() {
+        String[] qualities = {"poor", "moderate", "good"};
+        return "quality=" + qualities[getQuality()]
+                + ", metered=" + isMetered()
+                + ", throughput=" + (mBytesPerSecond < 0 ? "unknown"
+                        : String.format(Locale.US, "%.0fKB/s", mBytesPerSecond / 1024));
+    }
+
+    /**
+     * What the platform said about a network, read at once so the getters make no binder calls.
+     */
+    private static final class NetworkState {
+        final boolean mConnected;
+        final boolean mMetered;
+        final String mName;
+        final int mPlatformQuality;
+
+        NetworkState(boolean connected, boolean metered, String name, int platformQuality) {
+            mConnected = connected;
+            mMetered = metered;
+            mName = name;
+            mPlatformQuality = platformQuality;
+        }
+    }
+
+    /**
+     * Keeps the state up to date with the default network, from Android 7.0.  Called on a
+     * thread of the connectivity service, where the binder calls don't hold up the list.
+     */
+    private final class DefaultNetworkCallback extends ConnectivityManager.NetworkCallback {
+
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            NetworkInfo info = mConnectivityManager.getNetworkInfo(network);
+            mState = new NetworkState(
+                    capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET),
+                    !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED),
+                    networkName(info), platformQuality(capabilities, info));
+        }
+
+        @Override
+        public void onLost(Network network) {
+            mState = new NetworkState(false, false, networkName(null), QUALITY_MODERATE);
+        }
+    }
+}
@@ -1,82 +1,241 @@
 package com.example.android.newsapp;
 
-import android.content.Context;
 import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.support.v4.text.PrecomputedTextCompat;
+import android.support.v4.widget.TextViewCompat;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Date;
-import java.text.SimpleDateFormat;
 
+/**
+ * {@link RecyclerView} adapter for the list of news articles.  New lists are handed to
+ * {@link #submitList}, which diffs them against the current list on a background thread and
+ * dispatches only the resulting inserts, moves, changes and removals, so refreshing a long list
+ * neither rebinds every row nor loses the scroll position.
+ *
+ * The items are {@link NewsRow}s whose texts were formatted by the loader, so binding a row only
+ * sets ready-made texts on the views its holder already looked up.  Thumbnails are loaded in the
+ * background by a {@link ThumbnailLoader}, and a row's pending thumbnail is cancelled when the row
+ * is recycled.
+ */
+public class NewsAdapter extends ListAdapter<NewsRow, NewsAdapter.NewsViewHolder> {
 
-public class NewsAdapter extends ArrayAdapter<News> {
+    /**
+     * Receives the article of a row that was clicked.
+     */
+    public interface OnArticleClickListener {
+        void onArticleClick(News article);
+    }
+
+    /**
+     * Rows are identified by the web URL of their article, or by its other fields if it has none,
+     * and unchanged when all of the article's fields, the formatted date and the header are equal.
+     */
+    private static final DiffUtil.ItemCallback<NewsRow> DIFF_CALLBACK = new DiffUtil.ItemCallback<NewsRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull NewsRow oldRow, @NonNull NewsRow newRow) {
+            String oldUrl = oldRow.getArticle().getUrl();
+            String newUrl = newRow.getArticle().getUrl();
+            if (oldUrl != null || newUrl != null) {
+                return TextUtils.equals(oldUrl, newUrl);
+            }
+            // Like the stable IDs, articles without a web URL go by their other fields
+            return stableIdFor(oldRow.getArticle()) == stableIdFor(newRow.getArticle());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull NewsRow oldRow, @NonNull NewsRow newRow) {
+            return oldRow.getArticle().equals(newRow.getArticle())
+                    && TextUtils.equals(oldRow.getDate(), newRow.getDate())
+                    && TextUtils.equals(oldRow.getHeader(), newRow.getHeader());
+        }
+    };
+
+    private final OnArticleClickListener mListener;
+
+    private final ThumbnailLoader mThumbnails;
+
+    private final FetchMetrics mMetrics;
+
+    private final FrameMonitor mFrames;
 
     /**
      * Constructs the new {@link NewsAdapter}
      *
-     * @param context  of the app
-     * @param articles is the list of articles, which is the data source of the adapter
+     * @param listener is notified when an article is clicked
+     * @param thumbnails loads the thumbnails of the articles
+     * @param metrics records how long binding each row takes, or null
+     * @param frames is told about the frames in which rows are bound, or null
      */
+    public NewsAdapter(OnArticleClickListener listener, ThumbnailLoader thumbnails,
+                       FetchMetrics metrics, FrameMonitor frames) {
+        super(DIFF_CALLBACK);
+        mListener = listener;
+        mThumbnails = thumbnails;
+        mMetrics = metrics;
+        mFrames = frames;
+        setHasStableIds(true);
+    }
 
-    public NewsAdapter(Context context, ArrayList<News> articles) {
-        super(context, 0, articles);
+    /**
+     * Returns the articles of the rows from the start position up to, but not including, the end
+     * position, leaving out the positions past the end of the list.
+     */
+    public List<News> getArticles(int start, int end) {
+        end = Math.min(end, getItemCount());
+        List<News> articles = new ArrayList<>(Math.max(0, end - start));
+        for (int position = Math.max(0, start); position < end; position++) {
+            articles.add(getItem(position).getArticle());
+        }
+        return articles;
     }
 
     /**
-     * Returns a list of item view that displays information about the news article at the given
-     * position in the list of articles
+     * Returns a stable ID for the article at the given position, derived from its web URL, or
+     * from its other fields if it has none.
      */
+    @Override
+    public long getItemId(int position) {
+        return stableIdFor(getItem(position).getArticle());
+    }
 
     @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, then inflate the new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(R.layout.list_view, parent, false);
+    public NewsViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        // Inflate the list item layout, and look up its views once for the life of the holder
+        View listItemView = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_view, parent, false);
+        return new NewsViewHolder(listItemView);
+    }
+
+    /**
+     * Displays the information about the news article at the given position in the list of articles
+     */
+    @Override
+    public void onBindViewHolder(@NonNull NewsViewHolder holder, int position) {
+        long start = System.nanoTime();
+
+        //Find the row at the given position in the list of articles
+        NewsRow currentRow = getItem(position);
+
+        // Display the header of the group of days the row starts, if it starts one
+        CharSequence header = currentRow.getHeader();
+        holder.mHeaderView.setVisibility(header != null ? View.VISIBLE : View.GONE);
+        holder.mHeaderView.setText(header);
+
+        // Display the section name of the current article
+        holder.mSectionView.setText(currentRow.getSection());
+
+        //Display the title of the current article, using its precomputed layout when it was
+        //measured with the same text metrics as this view
+        CharSequence title = currentRow.getTitle();
+        if (title instanceof PrecomputedTextCompat
+                && ((PrecomputedTextCompat) title).getParams().equals(holder.mTitleParams)) {
+            TextViewCompat.setPrecomputedText(holder.mTitleView, (PrecomputedTextCompat) title);
+        } else {
+            holder.mTitleView.setText(title);
         }
 
-        //Find the article at the given position in the list of articles
-        News currentArticle = getItem(position);
-
-        //Find the TextView with the view ID section
-        TextView sectionView = listItemView.findViewById(R.id.section);
-        // get the value for the section and save it as a string
-        String section = currentArticle.getSection();
-        // Display the section name of the current article in the TextView
-        sectionView.setText(section);
-
-        //Find the TextView the the view ID title
-        TextView titleView = listItemView.findViewById(R.id.title);
-        // Get the value for the title and save it as a string
-        String title = currentArticle.getTitle();
-        //Display the title of the current article in the TextView
-        titleView.setText(title);
-
-        //Find the TextView the the view ID date
-        TextView dateView = listItemView.findViewById(R.id.date);
-        // Get the value for the date and save it as a string
-        String date = currentArticle.getDate();
-        //Display the date of the current article in the TextView
-        dateView.setText(date);
-
-        //Find the TextView the the view ID author
-        TextView authorView = listItemView.findViewById(R.id.author);
-        // Get the authors first name
-        String author = currentArticle.getAuthor();
-        // Display the authors full name for the current article in the TextView
-        authorView.setText(author);
-
-        //Return the list item view
-        return listItemView;
+        //Display the relative date of the current article
+        holder.mDateView.setText(currentRow.getDate());
+
+        // Display the authors full name for the current article
+        holder.mAuthorView.setText(currentRow.getAuthor());
+
+        // Display the thumbnail of the current article, if it has one
+        String thumbnailUrl = currentRow.getArticle().getThumbnailUrl();
+        holder.mThumbnailView.setVisibility(thumbnailUrl != null ? View.VISIBLE : View.GONE);
+        mThumbnails.load(thumbnailUrl, holder.mThumbnailView);
+
+        if (mMetrics != null) {
+            mMetrics.recordLatency(FetchMetrics.UI_BIND, (System.nanoTime() - start) / 1000);
+        }
+        if (mFrames != null) {
+            mFrames.mark(FrameMonitor.EVENT_BIND);
+        }
     }
-}
 
+    /**
+     * Stops loading the thumbnail of a row that scrolled out of view, and lets go of its bitmap.
+     */
+    @Override
+    public void onViewRecycled(@NonNull NewsViewHolder holder) {
+        mThumbnails.cancel(holder.mThumbnailView);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the web URL, so that IDs stay stable across reloads and collisions
+     * are practically impossible.  An article without a web URL is hashed by its title, date,
+     * section and author instead, so rows without one don't all share an ID.
+     */
+    private static long stableIdFor(News article) {
+        long hash = 0xcbf29ce484222325L;
+        if (article.getUrl() != null) {
+            hash = hash(hash, article.getUrl());
+        } else {
+            hash = hash(hash, article.getTitle());
+            hash = hash(hash, article.getDate());
+            hash = hash(hash, article.getSection());
+            hash = hash(hash, article.getAuthor());
+        }
+        // Never RecyclerView.NO_ID, which would mean the row has no ID
+        return hash != RecyclerView.NO_ID ? hash : 0;
+    }
+
+    /**
+     * Adds the given string, and a separator after it, to an FNV-1a hash.
+     */
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        // The separator is not a UTF-16 unit, so "ab" + "c" and "a" + "bc" differ
+        hash ^= 0x10000;
+        return hash * 0x100000001b3L;
+    }
+
+    /**
+     * Holds the views of a list item, and forwards clicks on it to the listener.
+     */
+    class NewsViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView mHeaderView;
+        final TextView mSectionView;
+        final TextView mTitleView;
+        final TextView mDateView;
+        final TextView mAuthorView;
+        final ImageView mThumbnailView;
+        final PrecomputedTextCompat.Params mTitleParams;
+
+        NewsViewHolder(View itemView) {
+            super(itemView);
+            mHeaderView = itemView.findViewById(R.id.header);
+            mSectionView = itemView.findViewById(R.id.section);
+            mTitleView = itemView.findViewById(R.id.title);
+            mDateView = itemView.findViewById(R.id.date);
+            mAuthorView = itemView.findViewById(R.id.author);
+            mThumbnailView = itemView.findViewById(R.id.thumbnail);
+            mTitleParams = TextViewCompat.getTextMetricsParams(mTitleView);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mListener != null) {
+                mListener.onArticleClick(getItem(position).getArticle());
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.android.newsapp;
+
+import android.provider.BaseColumns;
+
+/**
+ * API Contract for the local article store.
+ */
+public final class NewsContract {
+
+    /**
+     * Create a private constructor.  This class is only meant to hold constants.
+     */
+    private NewsContract() {
+    }
+
+    /**
+     * Inner class that defines constant values for the articles database table.
+     * Each entry in the table represents a single {@link News} article, keyed by its web URL.
+     */
+    public static final class ArticleEntry implements BaseColumns {
+
+        /** Name of database table for articles */
+        public static final String TABLE_NAME = "articles";
+
+        /**
+         * Unique ID number for the article (only for use in the database table).
+         * Type: INTEGER
+         */
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * URL of the article, which identifies it.
+         * Type: TEXT
+         */
+        public static final String COLUMN_WEB_URL = "web_url";
+
+        /**
+         * Name of the section.
+         * Type: TEXT
+         */
+        public static final String COLUMN_SECTION = "section";
+
+        /**
+         * Title of the article.
+         * Type: TEXT
+         */
+        public static final String COLUMN_TITLE = "title";
+
+        /**
+         * Publication date of the article, as the ISO-8601 string sent by the Guardian (which
+         * sorts in date order).
+         * Type: TEXT
+         */
+        public static final String COLUMN_DATE = "date";
+
+        /**
+         * Name of the author.
+         * Type: TEXT
+         */
+        public static final String COLUMN_AUTHOR = "author";
+
+        /**
+         * URL of the thumbnail image, or null if the article has none.
+         * Type: TEXT
+         */
+        public static final String COLUMN_THUMBNAIL_URL = "thumbnail_url";
+
+        /**
+         * Time the article was stored or its content last changed, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UPDATED_AT = "updated_at";
+    }
+
+    /**
+     * Inner class that defines constant values for the full-text search table.
+     * It is an FTS4 table holding the searchable text of every row of the articles table, under
+     * the same row ID (its "docid"), and is kept up to date by triggers on the articles table.
+     */
+    public static final class ArticleSearchEntry {
+
+        /** Name of database table for the search index */
+        public static final String TABLE_NAME = "articles_fts";
+
+        /**
+         * ID of the article in the articles table.
+         * Type: INTEGER
+         */
+        public static final String DOCID = "docid";
+
+        /**
+         * Title of the article.  The columns must stay in this order, which
+         * {@link ArticleStore#search} weighs them in.
+         * Type: TEXT
+         */
+        public static final String COLUMN_TITLE = "title";
+
+        /**
+         * Name of the section.
+         * Type: TEXT
+         */
+        public static final String COLUMN_SECTION = "section";
+
+        /**
+         * Name of the author.
+         * Type: TEXT
+         */
+        public static final String COLUMN_AUTHOR = "author";
+    }
+
+    /**
+     * Inner class that defines constant values for the feeds database table.
+     * Each entry in the table places an article at a position of a stored query result (feed).
+     */
+    public static final class FeedEntry implements BaseColumns {
+
+        /** Name of database table for feed items */
+        public static final String TABLE_NAME = "feed_items";
+
+        /**
+         * Key of the query the item belongs to.
+         * Type: TEXT
+         */
+        public static final String COLUMN_FEED_KEY = "feed_key";
+
+        /**
+         * Position of the item in the query result, starting at 0.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_POSITION = "position";
+
+        /**
+         * URL of the article at this position.
+         * Type: TEXT
+         */
+        public static final String COLUMN_WEB_URL = "web_url";
+
+        /**
+         * Time the query result was last stored, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UPDATED_AT = "updated_at";
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.newsapp;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.android.newsapp.NewsContract.ArticleEntry;
+import com.example.android.newsapp.NewsContract.ArticleSearchEntry;
+import com.example.android.newsapp.NewsContract.FeedEntry;
+
+/**
+ * Database helper for the local article store.  Manages database creation and version management.
+ */
+public class NewsDbHelper extends SQLiteOpenHelper {
+
+    /** Name of the database file */
+    private static final String DATABASE_NAME = "news.db";
+
+    /**
+     * Database version.  If you change the database schema, you must increment the database version.
+     */
+    private static final int DATABASE_VERSION = 3;
+
+    private static NewsDbHelper sInstance;
+
+    /**
+     * Returns the process-wide helper, so every loader shares the same connection.
+     */
+    public static synchronized NewsDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NewsDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new instance of {@link NewsDbHelper}.
+     *
+     * @param context of the app
+     */
+    private NewsDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * This is called when the database is created for the first time.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        // Create a String that contains the SQL statement to create the articles table
+        String SQL_CREATE_ARTICLES_TABLE = "CREATE TABLE " + ArticleEntry.TABLE_NAME + " ("
+                + ArticleEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ArticleEntry.COLUMN_WEB_URL + " TEXT NOT NULL UNIQUE, "
+                + ArticleEntry.COLUMN_SECTION + " TEXT, "
+                + ArticleEntry.COLUMN_TITLE + " TEXT, "
+                + ArticleEntry.COLUMN_DATE + " TEXT, "
+                + ArticleEntry.COLUMN_AUTHOR + " TEXT, "
+                + ArticleEntry.COLUMN_THUMBNAIL_URL + " TEXT, "
+                + ArticleEntry.COLUMN_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0);";
+
+        // Create a String that contains the SQL statement to create the feed items table
+        String SQL_CREATE_FEED_ITEMS_TABLE = "CREATE TABLE " + FeedEntry.TABLE_NAME + " ("
+                + FeedEntry.COLUMN_FEED_KEY + " TEXT NOT NULL, "
+                + FeedEntry.COLUMN_POSITION + " INTEGER NOT NULL, "
+                + FeedEntry.COLUMN_WEB_URL + " TEXT NOT NULL, "
+                + FeedEntry.COLUMN_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + FeedEntry.COLUMN_FEED_KEY + ", " + FeedEntry.COLUMN_POSITION + "));";
+
+        // Execute the SQL statements
+        db.execSQL(SQL_CREATE_ARTICLES_TABLE);
+        db.execSQL(SQL_CREATE_FEED_ITEMS_TABLE);
+
+        // Index the columns that are filtered, sorted and joined on
+        db.execSQL("CREATE INDEX articles_section_idx ON " + ArticleEntry.TABLE_NAME
+                + " (" + ArticleEntry.COLUMN_SECTION + ");");
+        db.execSQL("CREATE INDEX articles_date_idx ON " + ArticleEntry.TABLE_NAME
+                + " (" + ArticleEntry.COLUMN_DATE + ");");
+        db.execSQL("CREATE INDEX feed_items_web_url_idx ON " + FeedEntry.TABLE_NAME
+                + " (" + FeedEntry.COLUMN_WEB_URL + ");");
+
+        createSearchIndex(db);
+    }
+
+    /**
+     * Creates the full-text search table and the triggers that keep it in step with the articles
+     * table, then indexes the articles already stored.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        String columns = ArticleSearchEntry.COLUMN_TITLE + ", "
+                + ArticleSearchEntry.COLUMN_SECTION + ", "
+                + ArticleSearchEntry.COLUMN_AUTHOR;
+        String insertNew = "INSERT INTO " + ArticleSearchEntry.TABLE_NAME
+                + " (" + ArticleSearchEntry.DOCID + ", " + columns + ") VALUES (new."
+                + ArticleEntry._ID + ", new." + ArticleEntry.COLUMN_TITLE + ", new."
+                + ArticleEntry.COLUMN_SECTION + ", new." + ArticleEntry.COLUMN_AUTHOR + ");";
+        String deleteOld = "DELETE FROM " + ArticleSearchEntry.TABLE_NAME + " WHERE "
+                + ArticleSearchEntry.DOCID + " = old." + ArticleEntry._ID + ";";
+
+        db.execSQL("CREATE VIRTUAL TABLE " + ArticleSearchEntry.TABLE_NAME
+                + " USING fts4(" + columns + ");");
+
+        db.execSQL("CREATE TRIGGER articles_fts_insert AFTER INSERT ON " + ArticleEntry.TABLE_NAME
+                + " BEGIN " + insertNew + " END;");
+        db.execSQL("CREATE TRIGGER articles_fts_update AFTER UPDATE OF "
+                + ArticleEntry.COLUMN_TITLE + ", " + ArticleEntry.COLUMN_SECTION + ", "
+                + ArticleEntry.COLUMN_AUTHOR + " ON " + ArticleEntry.TABLE_NAME
+                + " BEGIN " + deleteOld + " " + insertNew + " END;");
+        db.execSQL("CREATE TRIGGER articles_fts_delete AFTER DELETE ON " + ArticleEntry.TABLE_NAME
+                + " BEGIN " + deleteOld + " END;");
+
+        db.execSQL("INSERT INTO " + ArticleSearchEntry.TABLE_NAME
+                + " (" + ArticleSearchEntry.DOCID + ", " + columns + ") SELECT "
+                + ArticleEntry._ID + ", " + ArticleEntry.COLUMN_TITLE + ", "
+                + ArticleEntry.COLUMN_SECTION + ", " + ArticleEntry.COLUMN_AUTHOR
+                + " FROM " + ArticleEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * This is called when the database needs to be upgraded.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Version 2 added the thumbnail URL of the articles
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + ArticleEntry.TABLE_NAME + " ADD COLUMN "
+                    + ArticleEntry.COLUMN_THUMBNAIL_URL + " TEXT;");
+        }
+        // Version 3 added the full-text search index
+        if (oldVersion < 3) {
+            createSearchIndex(db);
+        }
+    }
+}
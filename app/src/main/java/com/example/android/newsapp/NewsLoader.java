@@ -2,50 +2,1004 @@ package com.example.android.newsapp;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Loads a list of news articles by using an AsynchTask to perform the network request to the given URL.
+ * While the response is still downloading, partial batches of articles are delivered so the first
+ * rows can be shown early.
+ *
+ * Results are paged with the Guardian "page" and "page-size" parameters.  Every delivered list
+ * contains the pages loaded so far, and {@link #loadNextPage()} appends to it, so the change the
+ * receiver has to apply is a few inserts at the end.  A list keeps the page size it was started
+ * with, even when it is shown again by a loader that asks for another one, so its pages line up.
+ *
+ * Only a window of the list is kept in memory, so deep scrolling doesn't grow the heap: every
+ * article of the list is written to a list feed of the {@link ArticleStore}, and once the list
+ * is longer than the window size, the articles at the other end of it are dropped from the
+ * delivered list.  {@link #loadNextPage()} and {@link #loadPreviousRows()} move the window back
+ * over the list feed as the user scrolls, and only go to the network past the end of it.
+ *
+ * Every page is also kept in the local {@link ArticleStore}.  The stored copy of a page is delivered
+ * right away, then refreshed from the network; articles that did not change keep the instance that
+ * was already delivered, so the list can be updated in place.  Without a network connection the
+ * stored copy is the result.  The page size and the article fields follow the network quality, so
+ * they are left out of the key of a stored first page, which is then found on any network.  The
+ * later pages keep the page size in their key, since which articles they hold depends on it.
+ *
+ * When several sections are selected, each page is requested for every section concurrently, and
+ * the section pages are merged by publication date (newest first) with duplicates removed, so a
+ * load takes about as long as the slowest section.  Every section is paged on its own, so with
+ * "newest" ordering the articles that a later page of another section could come before are held
+ * back and merged into the next page, which keeps the whole list in date order.
+ *
+ * Articles are delivered as display-ready {@link NewsRow}s, prepared on the background thread by
+ * a {@link NewsRowPreparer}.
+ *
+ * Loaded pages are kept in the process-wide {@link QueryResultCache}.  While they are fresh, a
+ * loader for the same query (for example after switching back to an earlier setting) shows them
+ * without any request, and loaders started for a query that is already loading share that load.
+ *
+ * A search is answered from the local full-text index of the {@link ArticleStore} first.  The
+ * network is only asked for the search results beyond those: right away if the index has less
+ * than a page of matches, otherwise once the user scrolls past them.
+ *
+ * With "newest" ordering, refreshing a first page that is already stored only asks for the
+ * articles published since the newest stored one (its high-water mark), with the "from-date"
+ * parameter, and merges those few into the stored page.  The whole page is fetched again on the
+ * first refresh of the process and then every {@link #FULL_SYNC_INTERVAL_MILLIS}, which also picks
+ * up articles that were edited.
+ *
+ * Every first page of the default feed fetched from the network is also written to the
+ * {@link FeedSnapshot} file, which {@link MainActivity} shows on the next cold start while this
+ * loader is still loading.
+ *
+ * Every load has its own {@link CancellationToken}, which is cancelled as soon as the load is
+ * superseded by another one, cancelled, or the loader is reset.  That aborts its requests in
+ * flight, stops parsing their responses, and drops its section requests that haven't started,
+ * so an abandoned load doesn't hold up the next one.  A cancelled load stores and caches nothing.
  */
 
-public class NewsLoader extends AsyncTaskLoader<List<News>> {
+public class NewsLoader extends AsyncTaskLoader<List<NewsRow>> {
 
     // Tag for log messages
     private static final String LOG_TAG = NewsLoader.class.getName();
 
-    // Query URL
+    // Number of newly parsed articles that triggers a partial delivery
+    private static final int PARTIAL_BATCH_SIZE = 10;
+
+    // Maximum number of matches taken from the local search index
+    private static final int MAX_LOCAL_SEARCH_RESULTS = 100;
+
+    // How long first pages are refreshed with deltas before being fetched whole again
+    private static final long FULL_SYNC_INTERVAL_MILLIS = DateUtils.HOUR_IN_MILLIS;
+
+    // Time (elapsed realtime) of the last full fetch of every first page, by feed key
+    private static final Map<String, Long> sLastFullSync = new HashMap<>();
+
+    // Smallest window, in pages, so the rows shown are never the ones being dropped
+    private static final int MIN_WINDOW_PAGES = 3;
+
+    // The window is moved by this fraction of its size at a time
+    private static final int WINDOW_MOVES = 4;
+
+    // How long after a page failed to load scrolling may ask for it again
+    private static final long PAGE_RETRY_DELAY_MILLIS = 2 * DateUtils.SECOND_IN_MILLIS;
+
+    // Maximum number of section requests running at the same time, across all loaders
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    // Name of the feed snapshot file, in the app's files directory
+    private static final String SNAPSHOT_FILE_NAME = "feed.snapshot";
+
+    // Writes the feed snapshots, one at a time and off the loader threads
+    private static final ExecutorService SNAPSHOT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Pool running the per-section requests, bounded by default
+    private static volatile ExecutorService sFetchExecutor =
+            Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS);
+
+    // Query URL, without any section or paging parameters
     private String mUrl;
 
+    // Section IDs to query, or an empty list for all news
+    private final List<String> mSections;
+
+    // Number of articles requested per page, which a list shown from mResultCache keeps
+    private volatile int mPageSize;
+
+    // Words searched for, or null for the default feed
+    private final String mSearchQuery;
+
+    // True if results are ordered newest first, so first pages can be refreshed with deltas
+    private final boolean mDeltaSync;
+
+    // Number of pages served from the local search index before the network pages, 0 or 1
+    private volatile int mLocalPages;
+
+    // Local copy of the loaded pages
+    private final ArticleStore mStore;
+
+    // Recently loaded queries, shared by all loaders
+    private final QueryResultCache mResultCache;
+
+    // Key of this loader's query in mResultCache
+    private final String mQueryKey;
+
+    // Decides how long a loaded first page is shown before it is refreshed
+    private final NetworkPolicy mNetworkPolicy;
+
+    // Maximum age of a cached first page, as of the last time the loader was started
+    private volatile long mMaxAgeMillis = QueryResultCache.TTL_MILLIS;
+
+    // Snapshot of the last first page of the default feed
+    private final File mSnapshotFile;
+
+    // Key of this loader's feed in the snapshot
+    private final String mSnapshotKey;
+
+    // Maximum number of articles delivered at once
+    private final int mWindowSize;
+
+    // Key of the list feed in mStore: every article of the list, in display order, including the
+    // ones that were dropped from the delivered window
+    private final String mListKey;
+
+    // Position in the list feed of the first delivered article
+    private volatile int mWindowStart;
+
+    // Number of articles in the list feed
+    private volatile int mListSize;
+
+    // Direction the current load moves the window over the list feed, -1 back or 1 forward, or 0
+    // if the load is a page load
+    private volatile int mWindowShift;
+
+    // Set once a page of the current load came from the network rather than only from mStore
+    private volatile boolean mFetchedFromNetwork;
+
+    // Set once a section of the current load could not be fetched from the network
+    private volatile boolean mFetchFailed;
+
+    // Time (elapsed realtime) before which a page that failed is not asked for again
+    private volatile long mRetryAtMillis;
+
+    // Handler used to deliver partial results on the main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Bumped on the main thread whenever a load is started or cancelled, so partial results of a
+    // superseded load can be recognised and dropped
+    private volatile int mLoadGeneration;
+
+    // Page requested by the current (or last) load, starting at 1
+    private volatile int mPage = 1;
+
+    // Articles of all the pages before mPage, which the current load appends to
+    private volatile List<News> mPreviousPages = Collections.emptyList();
+
+    // Articles of every section loaded with the pages before mPage but held back from the list,
+    // see mergeSectionPages()
+    private volatile List<List<News>> mHeldBack = Collections.emptyList();
+
+    // Articles held back by the current load
+    private volatile List<List<News>> mLoadHeldBack = Collections.emptyList();
+
+    // False once a page came back short, meaning there is nothing left to load; a page that
+    // failed to load doesn't count, it is asked for again on the next scroll
+    private volatile boolean mHasMorePages = true;
+
+    // Prepares the delivered rows
+    private final NewsRowPreparer mRowPreparer;
+
+    // Last list delivered to the receiver, only touched on the main thread
+    private List<NewsRow> mRows = Collections.emptyList();
+
+    // True while a load is running, only touched on the main thread
+    private boolean mLoading;
+
+    // True while a partial result is being delivered, only touched on the main thread
+    private boolean mDeliveringPartial;
+
+    // Cancels the current (or last) load; replaced on the main thread for every new load
+    private volatile CancellationToken mCancellation = new CancellationToken();
+
+    // True while a new load is replacing the current one, only touched on the main thread
+    private boolean mStartingLoad;
+
     /**
      * Constructs a new {@link NewsLoader}.
      *
      * @param context of the activity
      * @param url to load data from
+     * @param sections IDs of the sections to query; all news if empty or if it contains ""
+     * @param pageSize number of articles to request per page
+     * @param windowSize number of articles to keep in memory, raised to a few pages if smaller
+     * @param searchQuery words the URL searches for, which are looked up in the local search
+     *                    index first, or null for the default feed
+     * @param rowPreparer turns the loaded articles into display-ready rows
      */
-    public NewsLoader(Context context, String url) {
+    public NewsLoader(Context context, String url, List<String> sections, int pageSize,
+                      int windowSize, String searchQuery, NewsRowPreparer rowPreparer) {
         super(context);
         mUrl = url;
+        mSections = normalizeSections(sections);
+        mPageSize = pageSize;
+        mWindowSize = Math.max(windowSize, MIN_WINDOW_PAGES * pageSize);
+        mSearchQuery = searchQuery;
+        mDeltaSync = "newest".equals(Uri.parse(url).getQueryParameter("order-by"));
+        mRowPreparer = rowPreparer;
+        mStore = ArticleStore.getInstance(context);
+        mResultCache = QueryResultCache.getInstance();
+        mQueryKey = QueryResultCache.keyFor(url, mSections);
+        mListKey = "list:" + mQueryKey;
+        mSnapshotKey = mQueryKey;
+        mSnapshotFile = getSnapshotFile(context);
+        mNetworkPolicy = NetworkPolicy.getInstance(context);
+        QueryUtils.setHttpCache(HttpDiskCache.getInstance(context));
+        QueryUtils.setMetrics(FetchMetrics.getInstance(context));
+        QueryUtils.setNetworkPolicy(mNetworkPolicy);
+    }
+
+    /**
+     * Returns the key of the given feed in the feed snapshot, which is its query key, without the
+     * article fields and the page size.  Takes the same arguments as the constructor.
+     */
+    public static String snapshotKey(String url, List<String> sections) {
+        return QueryResultCache.keyFor(url, normalizeSections(sections));
+    }
+
+    /**
+     * Returns the key a page is kept under in the {@link ArticleStore}.  The article fields are
+     * left out, and so is the page size of a first page: a first page stored with any page size
+     * starts with the newest articles.  The articles of a later page depend on the page size.
+     */
+    private static String feedKey(String pageUrl, boolean firstPage) {
+        String feedUrl = firstPage
+                ? QueryResultCache.withoutParameters(pageUrl, "page-size", "show-fields")
+                : QueryResultCache.withoutParameters(pageUrl, "show-fields");
+        return HttpDiskCache.keyFor(feedUrl);
+    }
+
+    /**
+     * Sets the executor the section requests of all the loaders run on.
+     */
+    public static void setFetchExecutor(ExecutorService executor) {
+        sFetchExecutor = executor;
+    }
+
+    /**
+     * Returns the file the first page of the default feed is snapshotted to.
+     */
+    public static File getSnapshotFile(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    private static List<String> normalizeSections(List<String> sections) {
+        return sections.contains("") ? Collections.<String>emptyList() : sections;
     }
 
     @Override
     protected void onStartLoading() {
 
         Log.i(LOG_TAG, "TEST: onStartLoading() called...");
+        // Show the pages that were already loaded again, and keep them while they are fresh,
+        // which is longer on slow or metered networks.  Search results are kept for as long as
+        // the search is.
+        mMaxAgeMillis = mNetworkPolicy.getRefreshIntervalMillis();
+        if (!mRows.isEmpty() && !mLoading) {
+            deliverResult(mRows);
+            if (mSearchQuery != null || mResultCache.getFresh(mQueryKey, mMaxAgeMillis) != null) {
+                return;
+            }
+        }
+        // Start over from the first page, which comes from the result cache if it is fresh
+        mPage = 1;
+        mPreviousPages = Collections.emptyList();
+        mHeldBack = Collections.emptyList();
+        mHasMorePages = true;
+        mRetryAtMillis = 0;
+        mWindowShift = 0;
         forceLoad();
     }
 
+    /**
+     * Starts loading the articles after the last one delivered, unless a load is already running
+     * or the last page has been reached: the next articles of the list feed if the window was
+     * moved back, otherwise the next page.  Must be called on the main thread.
+     */
+    public void loadNextPage() {
+        if (!isStarted() || mLoading || mRows.isEmpty()) {
+            return;
+        }
+        if (mWindowStart + mRows.size() < mListSize) {
+            moveWindow(1);
+            return;
+        }
+        if (!mHasMorePages || SystemClock.elapsedRealtime() < mRetryAtMillis) {
+            return;
+        }
+        mPreviousPages = articlesOf(mRows);
+        mWindowShift = 0;
+        mPage = mPage + 1;
+        forceLoad();
+    }
+
+    /**
+     * Starts reading back the articles before the first one delivered, which were dropped from
+     * the window, unless a load is already running or there are none.  Must be called on the
+     * main thread.
+     */
+    public void loadPreviousRows() {
+        if (!isStarted() || mLoading || mRows.isEmpty() || mWindowStart == 0) {
+            return;
+        }
+        moveWindow(-1);
+    }
+
+    private void moveWindow(int direction) {
+        mPreviousPages = articlesOf(mRows);
+        mWindowShift = direction;
+        forceLoad();
+    }
+
+    private static List<News> articlesOf(List<NewsRow> rows) {
+        List<News> articles = new ArrayList<>(rows.size());
+        for (NewsRow row : rows) {
+            articles.add(row.getArticle());
+        }
+        return articles;
+    }
+
+    @Override
+    protected void onForceLoad() {
+        // The running load, if any, is superseded: stop its work, and give the new load its own
+        // token, which the cancelLoad() done by super.onForceLoad() must not cancel
+        mCancellation.cancel();
+        mCancellation = new CancellationToken();
+        mLoadGeneration++;
+        mLoading = true;
+        mStartingLoad = true;
+        try {
+            super.onForceLoad();
+        } finally {
+            mStartingLoad = false;
+        }
+    }
+
+    @Override
+    protected boolean onCancelLoad() {
+        mLoadGeneration++;
+        if (!mStartingLoad) {
+            mCancellation.cancel();
+        }
+        return super.onCancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        // The loader is being destroyed, nobody will ever see the result of its load
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(List<NewsRow> data) {
+        mLoading = false;
+    }
+
+    @Override
+    public void deliverResult(List<NewsRow> data) {
+        if (!mDeliveringPartial) {
+            mLoading = false;
+        }
+        if (data != null) {
+            mRows = data;
+        }
+        super.deliverResult(data);
+    }
+
     // This is on a background thread.
     @Override
-    public List<News> loadInBackground() {
+    public List<NewsRow> loadInBackground() {
         Log.i(LOG_TAG, "TEST: loadInBackground() called...");
         if (mUrl == null) {
             return null;
         }
 
-        //Perform the network request, parse the response, and extract a list of articles
-        List<News> articles = QueryUtils.fetchNewsData(mUrl);
+        // The first page is loaded only once for all the loaders of this query, and not at all
+        // while its cached result is fresh; the next pages are added to the cached result.
+        // Searches start from the local index, which is faster than any cache lookup.
+        final CancellationToken cancellation = mCancellation;
+        final int page = mPage;
+        if (mWindowShift != 0) {
+            return mRowPreparer.prepare(moveWindowInBackground(mWindowShift, cancellation));
+        }
+        QueryResultCache.Entry result;
+        if (mSearchQuery != null) {
+            result = loadPage(page, cancellation);
+        } else if (page == 1) {
+            result = mResultCache.load(mQueryKey, mMaxAgeMillis,
+                    new Callable<QueryResultCache.Entry>() {
+                        @Override
+                        public QueryResultCache.Entry call() {
+                            QueryResultCache.Entry entry = loadPage(page, cancellation);
+                            if (entry != null && entry.isCacheable()) {
+                                writeSnapshot(entry.getArticles());
+                            }
+                            // Once per refresh of the first page rather than on every write
+                            mStore.applyRetention();
+                            return entry;
+                        }
+                    });
+        } else {
+            result = loadPage(page, cancellation);
+        }
+        if (result == null || cancellation.isCancelled()) {
+            return null;
+        }
+        mPage = result.getPages();
+        mPageSize = result.getPageSize();
+        mHeldBack = result.getHeldBack();
+        mHasMorePages = result.hasMorePages();
+        mRetryAtMillis = mFetchFailed ? SystemClock.elapsedRealtime() + PAGE_RETRY_DELAY_MILLIS : 0;
+        List<News> window = keepWindow(page, result.getArticles());
+        if (mSearchQuery == null && page > 1 && mWindowStart == 0) {
+            // The next pages are added to the cached result for as long as it is the whole list
+            mResultCache.put(mQueryKey, result);
+        }
+        return mRowPreparer.prepare(window);
+    }
+
+    /**
+     * Writes the new articles of a page load to the list feed, and returns the articles to
+     * deliver: the last mWindowSize of them, since the user is at the end of the list.  A first
+     * page starts the list over.
+     */
+    private List<News> keepWindow(int page, List<News> articles) {
+        if (articles == null) {
+            return null;
+        }
+        int start = page == 1 ? 0 : mWindowStart;
+        // The articles start with the previous window, which ends where the list feed ends
+        int stored = page == 1 ? 0 : Math.min(articles.size(), mListSize - start);
+        if (stored < articles.size()) {
+            mStore.saveFeed(mListKey, start + stored, articles.subList(stored, articles.size()));
+        }
+        mListSize = start + articles.size();
+        int dropped = Math.max(0, articles.size() - mWindowSize);
+        mWindowStart = start + dropped;
+        return dropped > 0 ? new ArrayList<>(articles.subList(dropped, articles.size())) : articles;
+    }
+
+    /**
+     * Moves the window over the list feed by a part of its size in the given direction, and
+     * returns the new window: the articles it moves over are read back from the list feed, and
+     * as many are dropped at the other end.  Returns null if the load was cancelled.
+     */
+    private List<News> moveWindowInBackground(int direction, CancellationToken cancellation) {
+        List<News> window = mPreviousPages;
+        int start = mWindowStart;
+        int listSize = mListSize;
+        int move = Math.max(mPageSize, mWindowSize / WINDOW_MOVES);
+        List<News> moved = new ArrayList<>(window.size() + move);
+        int newStart;
+        if (direction < 0) {
+            newStart = Math.max(0, start - move);
+            List<News> before = mStore.getFeed(mListKey, newStart, start - newStart);
+            if (before.size() < start - newStart) {
+                // The list feed can't be read back, so the window is all there is left of it
+                Log.w(LOG_TAG, "Lost the articles before position " + start);
+                mStore.saveFeed(mListKey, window);
+                before = Collections.emptyList();
+                newStart = 0;
+                listSize = window.size();
+            }
+            moved.addAll(before);
+            moved.addAll(window);
+            if (moved.size() > mWindowSize) {
+                moved = new ArrayList<>(moved.subList(0, mWindowSize));
+            }
+        } else {
+            int end = start + window.size();
+            int count = Math.min(move, listSize - end);
+            List<News> after = mStore.getFeed(mListKey, end, count);
+            if (after.size() < count) {
+                Log.w(LOG_TAG, "Lost the articles after position " + end);
+                listSize = end + after.size();
+            }
+            moved.addAll(window);
+            moved.addAll(after);
+            int dropped = Math.max(0, moved.size() - mWindowSize);
+            moved = new ArrayList<>(moved.subList(dropped, moved.size()));
+            newStart = start + dropped;
+        }
+        if (cancellation.isCancelled()) {
+            return null;
+        }
+        mWindowStart = newStart;
+        mListSize = listSize;
+        return moved;
+    }
+
+    /**
+     * Loads the given page and returns it, appended to the previous pages, as a cache entry.
+     * Returns null if the load was cancelled, since whatever it got by then is incomplete.  If
+     * a section of a later page failed, the entry ends before that page, so loading the next
+     * page asks for it again.
+     */
+    private QueryResultCache.Entry loadPage(int page, CancellationToken cancellation) {
+        // Off the main thread, so the network state is read where its binder calls don't matter
+        mNetworkPolicy.refresh();
+        mFetchedFromNetwork = false;
+        mFetchFailed = false;
+        mLoadHeldBack = Collections.emptyList();
+        List<News> articles = loadArticles(cancellation);
+        if (cancellation.isCancelled()) {
+            return null;
+        }
+        // A page that is asked for again goes on from the articles held back before it
+        boolean retry = mFetchFailed && page > 1;
+        return new QueryResultCache.Entry(articles, retry ? mHeldBack : mLoadHeldBack,
+                retry ? page - 1 : page, mPageSize, mHasMorePages, mFetchedFromNetwork);
+    }
+
+    /**
+     * Loads the current page and returns it appended to the previous pages.
+     */
+    private List<News> loadArticles(final CancellationToken cancellation) {
+
+        final int generation = mLoadGeneration;
+        final int page = mPage;
+
+        // A search starts with the matches of the local index, which the network results extend.
+        // When they fill a page, the network is only asked once the user scrolls past them.
+        List<News> basePages = mPreviousPages;
+        if (mSearchQuery != null && page == 1) {
+            long start = System.nanoTime();
+            basePages = mStore.search(mSearchQuery, MAX_LOCAL_SEARCH_RESULTS);
+            Log.d(LOG_TAG, basePages.size() + " local matches in "
+                    + (System.nanoTime() - start) / 1000 + " us");
+            if (basePages.size() >= mPageSize) {
+                mLocalPages = 1;
+                mHasMorePages = true;
+                return basePages;
+            }
+            mLocalPages = 0;
+            if (!basePages.isEmpty()) {
+                deliverPartialResult(generation, basePages);
+            }
+        }
+        final List<News> previousPages = basePages;
+
+        // Show the stored copy of this page right away, while it is refreshed from the network
+        final boolean firstPage = page - mLocalPages == 1;
+        List<String> pageUrls = buildPageUrls(page - mLocalPages);
+        final List<List<News>> stored = new ArrayList<>();
+        for (String pageUrl : pageUrls) {
+            stored.add(mStore.getFeed(feedKey(pageUrl, firstPage)));
+        }
+        final List<News> storedPage = mergeByDate(stored);
+        if (!storedPage.isEmpty()) {
+            deliverPartialResult(generation, appendPage(previousPages, storedPage));
+        }
+
+        List<List<News>> sectionPages;
+        if (pageUrls.size() == 1) {
+            //Perform the network request and parse the response.  When nothing was stored, deliver
+            //a snapshot of the articles parsed so far every PARTIAL_BATCH_SIZE articles
+            final List<News> parsed = new ArrayList<>();
+            QueryUtils.OnArticleParsedListener listener = new QueryUtils.OnArticleParsedListener() {
+                @Override
+                public void onArticleParsed(News article) {
+                    parsed.add(article);
+                    if (storedPage.isEmpty() && parsed.size() % PARTIAL_BATCH_SIZE == 0) {
+                        deliverPartialResult(generation, appendPage(previousPages, parsed));
+                    }
+                }
+            };
+            sectionPages = Collections.singletonList(
+                    fetchPage(pageUrls.get(0), firstPage, stored.get(0), listener, cancellation));
+        } else {
+            sectionPages = fetchPagesConcurrently(pageUrls, firstPage, stored, generation,
+                    previousPages, storedPage.isEmpty(), cancellation);
+        }
+
+        // A short page for every section means the end of the results has been reached.  A section
+        // that failed says nothing about where the results end, so there may be more pages.
+        boolean hasMorePages = mFetchFailed;
+        boolean anyLoaded = false;
+        for (List<News> sectionPage : sectionPages) {
+            if (sectionPage != null) {
+                anyLoaded = true;
+                hasMorePages |= sectionPage.size() >= mPageSize;
+            }
+        }
+        mHasMorePages = hasMorePages;
+
+        List<News> articles = null;
+        if (anyLoaded && sectionPages.size() == 1) {
+            articles = sectionPages.get(0);
+        } else if (anyLoaded) {
+            List<List<News>> previouslyHeldBack =
+                    firstPage ? Collections.<List<News>>emptyList() : mHeldBack;
+            List<List<News>> heldBack = new ArrayList<>(sectionPages.size());
+            articles = mergeSectionPages(previouslyHeldBack, sectionPages,
+                    mDeltaSync ? mPageSize : 0, heldBack);
+            mLoadHeldBack = heldBack;
+        }
+        if (articles != null && page > 1 && mWindowStart > 0) {
+            articles = dropSpilled(articles);
+        }
+        if (previousPages.isEmpty()) {
+            return articles;
+        }
+        return articles != null ? appendPage(previousPages, articles) : previousPages;
+    }
+
+    /**
+     * Returns the previous pages followed by the articles of the new page that are not already in
+     * them.  Pages shift while new articles are published, so the same article can come back on
+     * the next page, and every article must appear only once in the list.
+     */
+    private static List<News> appendPage(List<News> previousPages, List<News> page) {
+        List<News> allPages = new ArrayList<>(previousPages.size() + page.size());
+        allPages.addAll(previousPages);
+        Set<String> seenUrls = new HashSet<>();
+        for (News article : previousPages) {
+            seenUrls.add(article.getUrl());
+        }
+        for (News article : page) {
+            if (seenUrls.add(article.getUrl())) {
+                allPages.add(article);
+            }
+        }
+        return allPages;
+    }
+
+    /**
+     * Returns the URL of the given page for every section to query.
+     */
+    private List<String> buildPageUrls(int page) {
+        List<String> sections = mSections.isEmpty()
+                ? Collections.singletonList("") : mSections;
+        List<String> pageUrls = new ArrayList<>(sections.size());
+        for (String section : sections) {
+            Uri.Builder builder = Uri.parse(mUrl).buildUpon();
+            if (!section.isEmpty()) {
+                builder.appendQueryParameter("sectionId", section);
+            }
+            builder.appendQueryParameter("page", String.valueOf(page))
+                    .appendQueryParameter("page-size", String.valueOf(mPageSize));
+            pageUrls.add(builder.toString());
+        }
+        return pageUrls;
+    }
+
+    /**
+     * Fetches one page from the network and stores it.  Returns the fresh page, the stored copy if
+     * the network is unavailable, or null if there is neither.  A stored first page is refreshed
+     * with only the articles published since its newest one, when that is allowed.  Nothing is
+     * stored once the load is cancelled.
+     */
+    private List<News> fetchPage(String pageUrl, boolean firstPage, List<News> stored,
+                                 QueryUtils.OnArticleParsedListener listener,
+                                 CancellationToken cancellation) {
+        String feedKey = feedKey(pageUrl, firstPage);
+        String highWaterMark = firstPage ? deltaHighWaterMark(feedKey, stored) : null;
+
+        List<News> fresh;
+        if (highWaterMark != null) {
+            String deltaUrl = Uri.parse(pageUrl).buildUpon()
+                    .appendQueryParameter("from-date", highWaterMark)
+                    .build().toString();
+            // Every delta has its own "from-date", so its response is never asked for again
+            fresh = QueryUtils.fetchNewsData(deltaUrl, listener, cancellation, false);
+            if (fresh != null && fresh.size() < mPageSize) {
+                // Only a few new articles: they go on top of the stored page, which keeps its size
+                // so the next pages still line up
+                Log.d(LOG_TAG, fresh.size() + " new articles since " + highWaterMark);
+                List<News> merged = mergeByDate(Arrays.asList(fresh, stored));
+                fresh = new ArrayList<>(merged.subList(0, Math.min(merged.size(), mPageSize)));
+            }
+            // Otherwise there is a full page of new articles, which is the new first page
+        } else {
+            fresh = QueryUtils.fetchNewsData(pageUrl, listener, cancellation);
+            if (fresh != null && firstPage) {
+                synchronized (sLastFullSync) {
+                    sLastFullSync.put(feedKey, SystemClock.elapsedRealtime());
+                }
+            }
+        }
+
+        if (fresh == null || cancellation.isCancelled()) {
+            // The network is unavailable, fall back on the stored copy (if any)
+            if (!cancellation.isCancelled()) {
+                mFetchFailed = true;
+            }
+            return stored.isEmpty() ? null : stored;
+        }
+        mFetchedFromNetwork = true;
+        mStore.saveFeed(feedKey, fresh);
+        return reuseUnchanged(stored, fresh);
+    }
+
+    /**
+     * Returns the publication date of the newest stored article of a first page, as sent by the
+     * Guardian, if the page can be refreshed with only the articles published since.  Returns
+     * null if the whole page must be fetched: when results are not ordered by date, when less
+     * than a page is stored, for instance because it was fetched with a smaller page size, or
+     * when the page is due for a full fetch.
+     */
+    private String deltaHighWaterMark(String feedKey, List<News> stored) {
+        if (!mDeltaSync || stored.isEmpty() || stored.size() < mPageSize) {
+            return null;
+        }
+        synchronized (sLastFullSync) {
+            Long lastFullSync = sLastFullSync.get(feedKey);
+            if (lastFullSync == null
+                    || SystemClock.elapsedRealtime() - lastFullSync > FULL_SYNC_INTERVAL_MILLIS) {
+                return null;
+            }
+        }
+        News newest = null;
+        for (News article : stored) {
+            if (newest == null || News.NEWEST_FIRST.compare(article, newest) < 0) {
+                newest = article;
+            }
+        }
+        return newest.getTimeInMillis() != IsoDates.INVALID ? newest.getDate() : null;
+    }
+
+    /**
+     * Fetches the page of every section at the same time on the fetch executor.  When asked to,
+     * the sections merged so far are delivered every time one of them completes.  Returns the
+     * pages in the order of the URLs, with null for the sections that could not be loaded.
+     * Sections that haven't started by the time the load is cancelled are skipped.
+     */
+    private List<List<News>> fetchPagesConcurrently(List<String> pageUrls,
+            final boolean firstPage, final List<List<News>> stored, int generation,
+            List<News> previousPages, boolean deliverPartials,
+            final CancellationToken cancellation) {
+        CompletionService<Integer> completionService =
+                new ExecutorCompletionService<>(sFetchExecutor);
+        final List<List<News>> sectionPages = new ArrayList<>(pageUrls.size());
+        List<Future<Integer>> futures = new ArrayList<>(pageUrls.size());
+        for (int i = 0; i < pageUrls.size(); i++) {
+            sectionPages.add(null);
+            final int index = i;
+            final String pageUrl = pageUrls.get(i);
+            futures.add(completionService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    if (cancellation.isCancelled()) {
+                        return index;
+                    }
+                    List<News> sectionPage = fetchPage(pageUrl, firstPage, stored.get(index),
+                            null, cancellation);
+                    synchronized (sectionPages) {
+                        sectionPages.set(index, sectionPage);
+                    }
+                    return index;
+                }
+            }));
+        }
+
+        try {
+            for (int done = 0; done < pageUrls.size(); done++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Problem loading a section", e.getCause());
+                    mFetchFailed = true;
+                }
+                if (deliverPartials && done < pageUrls.size() - 1 && !cancellation.isCancelled()) {
+                    List<News> merged;
+                    synchronized (sectionPages) {
+                        merged = mergeByDate(sectionPages);
+                    }
+                    deliverPartialResult(generation, appendPage(previousPages, merged));
+                }
+            }
+        } catch (InterruptedException e) {
+            // The load was cancelled, don't wait for the other sections
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (sectionPages) {
+            return new ArrayList<>(sectionPages);
+        }
+    }
+
+    /**
+     * Returns the articles of a new page that are not already in the list feed before the
+     * window, where appendPage can't see them.
+     */
+    private List<News> dropSpilled(List<News> page) {
+        List<String> webUrls = new ArrayList<>(page.size());
+        for (News article : page) {
+            if (article.getUrl() != null) {
+                webUrls.add(article.getUrl());
+            }
+        }
+        Set<String> spilled = mStore.findInFeed(mListKey, mWindowStart, webUrls);
+        if (spilled.isEmpty()) {
+            return page;
+        }
+        List<News> kept = new ArrayList<>(page.size());
+        for (News article : page) {
+            if (!spilled.contains(article.getUrl())) {
+                kept.add(article);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Merges section pages into one list, newest first, keeping only the first occurrence of every
+     * web URL.  Each section page is already in the order the API returned it, so this is a k-way
+     * merge; with "newest" ordering the result is fully sorted, with "relevance" ordering each
+     * section keeps its own relevance order.  Null pages are skipped.
+     */
+    static List<News> mergeByDate(List<List<News>> sectionPages) {
+        if (sectionPages.size() == 1) {
+            List<News> only = sectionPages.get(0);
+            return only != null ? only : Collections.<News>emptyList();
+        }
+
+        int[] heads = new int[sectionPages.size()];
+        List<News> merged = new ArrayList<>();
+        Set<String> seenUrls = new HashSet<>();
+        while (true) {
+            int newest = -1;
+            for (int i = 0; i < sectionPages.size(); i++) {
+                List<News> sectionPage = sectionPages.get(i);
+                if (sectionPage == null || heads[i] >= sectionPage.size()) {
+                    continue;
+                }
+                if (newest < 0 || News.NEWEST_FIRST.compare(sectionPage.get(heads[i]),
+                        sectionPages.get(newest).get(heads[newest])) < 0) {
+                    newest = i;
+                }
+            }
+            if (newest < 0) {
+                return merged;
+            }
+            News article = sectionPages.get(newest).get(heads[newest]++);
+            if (seenUrls.add(article.getUrl())) {
+                merged.add(article);
+            }
+        }
+    }
+
+    /**
+     * Merges the pages of several sections into the next part of the list, newest first, and
+     * holds back the articles that a later page of another section could still come before.
+     * Every section is paged on its own, so one section's page can reach further back in time
+     * than another's: only the articles at least as new as the last article of every section with
+     * a full page, which may have more pages, are certainly in their place.  The articles held back
+     * by the previous page go in front of the new page of their section.  A section whose page
+     * failed (null) keeps its held back articles, and doesn't hold back the others.
+     *
+     * @param heldBack articles held back by the previous page, by section, or an empty list
+     * @param sectionPages new page of every section, with null for the ones that failed
+     * @param pageSize number of articles of a full page, or 0 to hold nothing back, for results
+     *                 that are not ordered by date
+     * @param stillHeldBack receives the articles held back from this page, by section
+     */
+    static List<News> mergeSectionPages(List<List<News>> heldBack, List<List<News>> sectionPages,
+                                        int pageSize, List<List<News>> stillHeldBack) {
+        List<List<News>> sections = new ArrayList<>(sectionPages.size());
+        long cutoff = IsoDates.INVALID;
+        for (int i = 0; i < sectionPages.size(); i++) {
+            List<News> section = new ArrayList<>();
+            if (i < heldBack.size()) {
+                section.addAll(heldBack.get(i));
+            }
+            List<News> page = sectionPages.get(i);
+            if (page != null) {
+                section.addAll(page);
+                // The next page of this section only has articles older than its last one
+                if (pageSize > 0 && page.size() >= pageSize) {
+                    cutoff = Math.max(cutoff, section.get(section.size() - 1).getTimeInMillis());
+                }
+            }
+            sections.add(section);
+        }
+
+        List<List<News>> placed = new ArrayList<>(sections.size());
+        for (List<News> section : sections) {
+            // Each section is newest first, so the articles placed are the ones before the cutoff
+            int end = 0;
+            while (end < section.size() && section.get(end).getTimeInMillis() >= cutoff) {
+                end++;
+            }
+            placed.add(section.subList(0, end));
+            stillHeldBack.add(new ArrayList<>(section.subList(end, section.size())));
+        }
+        return mergeByDate(placed);
+    }
+
+    /**
+     * Returns the fresh articles, where every article that is unchanged from the stored copy is
+     * replaced with the stored (already delivered) instance.
+     */
+    private static List<News> reuseUnchanged(List<News> stored, List<News> fresh) {
+        if (stored.isEmpty()) {
+            return fresh;
+        }
+        Map<String, News> storedByUrl = new HashMap<>();
+        for (News article : stored) {
+            storedByUrl.put(article.getUrl(), article);
+        }
+        List<News> articles = new ArrayList<>(fresh.size());
+        for (News article : fresh) {
+            News storedArticle = storedByUrl.get(article.getUrl());
+            articles.add(article.equals(storedArticle) ? storedArticle : article);
+        }
         return articles;
     }
+
+    /**
+     * Replaces the feed snapshot with the given first page, in the background.
+     */
+    private void writeSnapshot(final List<News> articles) {
+        final File file = mSnapshotFile;
+        final String key = mSnapshotKey;
+        SNAPSHOT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FeedSnapshot.write(file, key, articles);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem writing the feed snapshot", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Posts a partial result to the main thread.  Posts are queued on the main looper ahead of
+     * the final result, so the final list is always the last one delivered.
+     */
+    private void deliverPartialResult(final int generation, List<News> articles) {
+        final List<NewsRow> rows = mRowPreparer.prepare(articles);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mLoadGeneration && isStarted() && !isAbandoned()) {
+                    mDeliveringPartial = true;
+                    try {
+                        deliverResult(rows);
+                    } finally {
+                        mDeliveringPartial = false;
+                    }
+                }
+            }
+        });
+    }
 }
@@ -0,0 +1,90 @@
+package com.example.android.newsapp;
+
+/**
+ * A display-ready row of the article list: the texts of a {@link News} article, already formatted
+ * (and for the title, already measured) on a background thread by {@link NewsRowPreparer}, so
+ * binding a row only has to set them on its views.
+ */
+public final class NewsRow {
+
+    /** The article shown by this row */
+    private final News mArticle;
+
+    /** Title, truncated and possibly a precomputed text layout */
+    private final CharSequence mTitle;
+
+    /** Publication date, relative to the time the row was prepared */
+    private final CharSequence mDate;
+
+    /** Time the row was prepared, in milliseconds since the epoch */
+    private final long mPreparedAt;
+
+    /** Header of the group of days the row starts, or null if it doesn't start one */
+    private final CharSequence mHeader;
+
+    NewsRow(News article, CharSequence title, CharSequence date, long preparedAt,
+            CharSequence header) {
+        mArticle = article;
+        mTitle = title;
+        mDate = date;
+        mPreparedAt = preparedAt;
+        mHeader = header;
+    }
+
+    /**
+     * Returns a copy of this row with the given header.
+     */
+    NewsRow withHeader(CharSequence header) {
+        return new NewsRow(mArticle, mTitle, mDate, mPreparedAt, header);
+    }
+
+    /**
+     * Returns the article shown by this row.
+     */
+    public News getArticle() {
+        return mArticle;
+    }
+
+    /**
+     * Returns the name of the section.
+     */
+    public CharSequence getSection() {
+        return mArticle.getSection();
+    }
+
+    /**
+     * Returns the display title, which may be a precomputed text.
+     */
+    public CharSequence getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * Returns the relative publication date, such as "5 min. ago".
+     */
+    public CharSequence getDate() {
+        return mDate;
+    }
+
+    /**
+     * Returns the name of the author.
+     */
+    public CharSequence getAuthor() {
+        return mArticle.getAuthor();
+    }
+
+    /**
+     * Returns the header shown above the row, such as "Yesterday", if it is the first row of its
+     * group of days, or null.
+     */
+    public CharSequence getHeader() {
+        return mHeader;
+    }
+
+    /**
+     * Returns the time the row was prepared.
+     */
+    long getPreparedAt() {
+        return mPreparedAt;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.android.newsapp;
+
+import android.support.v4.text.PrecomputedTextCompat;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns {@link News} articles into display-ready {@link NewsRow}s on the loader's background
+ * thread: dates are formatted relative to now, titles are truncated and their text layout is
+ * precomputed.  Rows are cached per article, so articles that stay in the list across deliveries
+ * are only prepared again once their relative date may have changed.  Only the rows of the last
+ * list are kept, so the cache never holds more than the loader's window of the list.
+ *
+ * When asked to, the rows are grouped by {@link TimeBucket}: the first row of every group has the
+ * header of its bucket.  That only makes sense for a list ordered by date.
+ */
+public final class NewsRowPreparer {
+
+    /** Titles longer than this are truncated; a row only shows one line of it anyway */
+    private static final int MAX_TITLE_LENGTH = 100;
+
+    /** How long a prepared row is reused before its relative date is formatted again */
+    private static final long MAX_ROW_AGE_MILLIS = DateUtils.MINUTE_IN_MILLIS;
+
+    /** Text metrics of the title view, or null if titles are not precomputed */
+    private final PrecomputedTextCompat.Params mTitleParams;
+
+    /** Header of every TimeBucket, by ordinal, or null if the rows are not grouped */
+    private final CharSequence[] mBucketHeaders;
+
+    /** Prepared rows of the last list, keyed by article */
+    private Map<News, NewsRow> mRows = new HashMap<>();
+
+    /**
+     * Constructs a new {@link NewsRowPreparer}.
+     *
+     * @param titleParams text metrics of the title view, taken from an inflated row on the main
+     *                    thread, or null to skip precomputing the title layout
+     * @param bucketHeaders header of every {@link TimeBucket}, in the order of its constants, or
+     *                      null to not group the rows
+     */
+    public NewsRowPreparer(PrecomputedTextCompat.Params titleParams,
+                           CharSequence[] bucketHeaders) {
+        mTitleParams = titleParams;
+        mBucketHeaders = bucketHeaders;
+    }
+
+    /**
+     * Returns the rows of the given articles, in the same order.  Must not be called on the main
+     * thread.
+     */
+    public synchronized List<NewsRow> prepare(List<News> articles) {
+        if (articles == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        long startOfToday = mBucketHeaders != null ? TimeBucket.startOfToday(now) : 0;
+        TimeBucket previousBucket = null;
+        List<NewsRow> rows = new ArrayList<>(articles.size());
+        // The rows of articles that left the list are dropped with the old map
+        Map<News, NewsRow> prepared = new HashMap<>(articles.size() * 4 / 3 + 1);
+        for (News article : articles) {
+            NewsRow row = mRows.get(article);
+            if (row == null || now - row.getPreparedAt() > MAX_ROW_AGE_MILLIS) {
+                row = prepareRow(article, now);
+            }
+            if (mBucketHeaders != null) {
+                // Which row starts a group depends on the rows before it, so it is checked on
+                // every list
+                TimeBucket bucket = TimeBucket.of(article.getTimeInMillis(), startOfToday);
+                CharSequence header = bucket != previousBucket
+                        ? mBucketHeaders[bucket.ordinal()] : null;
+                if (!TextUtils.equals(header, row.getHeader())) {
+                    row = row.withHeader(header);
+                }
+                previousBucket = bucket;
+            }
+            prepared.put(article, row);
+            rows.add(row);
+        }
+        mRows = prepared;
+        return rows;
+    }
+
+    private NewsRow prepareRow(News article, long now) {
+        CharSequence title = article.getTitle();
+        if (title == null) {
+            title = "";
+        }
+        if (title.length() > MAX_TITLE_LENGTH) {
+            title = title.subSequence(0, MAX_TITLE_LENGTH - 1) + "\u2026";
+        }
+        if (mTitleParams != null) {
+            title = PrecomputedTextCompat.create(title, mTitleParams);
+        }
+        return new NewsRow(article, title, formatDate(article, now), now, null);
+    }
+
+    /**
+     * Formats the publication date relative to now, or returns it unchanged if it isn't valid.
+     */
+    private static CharSequence formatDate(News article, long now) {
+        long time = article.getTimeInMillis();
+        if (time == IsoDates.INVALID) {
+            return article.getDate() != null ? article.getDate() : "";
+        }
+        return DateUtils.getRelativeTimeSpanString(time, now, DateUtils.MINUTE_IN_MILLIS,
+                DateUtils.FORMAT_ABBREV_RELATIVE);
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.android.newsapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+
+/**
+ * The default {@link HttpTransport}, backed by a single shared {@link OkHttpClient}.  Its
+ * connection pool keeps connections alive between requests, so repeated page and section fetches
+ * skip the TCP and TLS handshakes.  OkHttp asks for gzip responses and decompresses them
+ * transparently, and negotiates HTTP/2 with ALPN where the platform supports it, which lets
+ * concurrent requests to the same host share one connection.
+ */
+public final class OkHttpTransport implements HttpTransport {
+
+    /** Idle connections kept in the pool */
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    /** How long an idle connection is kept in the pool */
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    /** Connect timeout of requests without a timeout of their own */
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+
+    private final ConnectionStats mStats = new ConnectionStats();
+
+    private final OkHttpClient mClient;
+
+    /**
+     * Constructs a new {@link OkHttpTransport} with the same timeouts QueryUtils always used.
+     */
+    public OkHttpTransport() {
+        mClient = new OkHttpClient.Builder()
+                .connectTimeout(DEFAULT_CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(RequestPolicy.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES,
+                        TimeUnit.MINUTES))
+                .eventListenerFactory(new EventListener.Factory() {
+                    @Override
+                    public EventListener create(Call call) {
+                        Object tag = call.request().tag();
+                        return new StatsListener(tag instanceof CallTimes ? (CallTimes) tag
+                                : new CallTimes());
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> headers) throws IOException {
+        return get(mClient, url, headers, null);
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> headers, int timeoutMillis,
+            CancellationToken cancellation) throws IOException {
+        // The derived client shares the connection pool and dispatcher of the shared one
+        OkHttpClient client = mClient.newBuilder()
+                .connectTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+        return get(client, url, headers, cancellation);
+    }
+
+    /**
+     * Sends the request with the given client.  The cancellation token may be null.
+     */
+    private static Response get(OkHttpClient client, URL url, Map<String, String> headers,
+            final CancellationToken cancellation) throws IOException {
+        // The event listener of the call times its phases into the tag
+        final CallTimes times = new CallTimes();
+        Request.Builder request = new Request.Builder().url(url).get().tag(times);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.header(header.getKey(), header.getValue());
+        }
+        final Call call = client.newCall(request.build());
+
+        // Cancelling the call closes its socket, which fails any blocked read
+        final Runnable cancelCall = new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        };
+        if (cancellation != null) {
+            cancellation.register(cancelCall);
+        }
+        final okhttp3.Response response;
+        try {
+            response = call.execute();
+        } catch (IOException e) {
+            if (cancellation != null) {
+                cancellation.unregister(cancelCall);
+            }
+            throw e;
+        }
+
+        return new Response() {
+            @Override
+            public int getCode() {
+                return response.code();
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return response.header(name);
+            }
+
+            @Override
+            public InputStream getBody() {
+                ResponseBody body = response.body();
+                return body != null ? body.byteStream() : null;
+            }
+
+            @Override
+            public long getConnectMicros() {
+                return times.micros(times.mCallStart, times.mConnectionAcquired);
+            }
+
+            @Override
+            public long getFirstByteMicros() {
+                return times.micros(times.mRequestHeadersStart, times.mResponseHeadersStart);
+            }
+
+            @Override
+            public void close() {
+                // Releases the connection back to the pool once the body has been consumed
+                response.close();
+                if (cancellation != null) {
+                    cancellation.unregister(cancelCall);
+                }
+            }
+        };
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * When the phases of a call started, in System.nanoTime(), or 0 if they haven't.  Written by
+     * the thread executing the call and read once its response headers have arrived.
+     */
+    private static final class CallTimes {
+        volatile long mCallStart;
+        volatile long mConnectionAcquired;
+        volatile long mRequestHeadersStart;
+        volatile long mResponseHeadersStart;
+
+        long micros(long start, long end) {
+            return start == 0 || end == 0 ? -1 : (end - start) / 1000;
+        }
+    }
+
+    /**
+     * Feeds the connection statistics and the phase times of a call from OkHttp's call events.
+     */
+    private final class StatsListener extends EventListener {
+
+        private final CallTimes mTimes;
+
+        StatsListener(CallTimes times) {
+            mTimes = times;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            mTimes.mCallStart = System.nanoTime();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            mTimes.mConnectionAcquired = System.nanoTime();
+            mStats.recordRequest(connection);
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            mTimes.mRequestHeadersStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            mTimes.mResponseHeadersStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            mStats.recordBytesReceived(byteCount);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.android.newsapp;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A process-wide, in-memory cache of loaded article lists, keyed by query.  A query is the request
+ * URL built by {@link MainActivity} together with the selected sections, so switching back to an
+ * earlier order or section selection shows its articles again without going to the network.
+ * Results expire after {@link #TTL_MILLIS} by default, or after the maximum age the caller asks
+ * for, and only the most recently used queries are kept.
+ *
+ * Loads are coalesced per query: while one loader is loading a query, any other loader asking for
+ * the same query waits for that load and gets its result, instead of sending the same requests
+ * a second time.
+ */
+public final class QueryResultCache {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = QueryResultCache.class.getSimpleName();
+
+    /** How long a loaded result is shown without being refreshed */
+    static final long TTL_MILLIS = 5 * DateUtils.MINUTE_IN_MILLIS;
+
+    /** Maximum number of queries kept */
+    private static final int MAX_ENTRIES = 16;
+
+    private static final QueryResultCache sInstance = new QueryResultCache();
+
+    /** Loaded results, keyed by query key */
+    private final LruCache<String, Entry> mEntries = new LruCache<>(MAX_ENTRIES);
+
+    /** Loads currently running, keyed by query key; guarded by this */
+    private final Map<String, FutureTask<Entry>> mInFlight = new HashMap<>();
+
+    /**
+     * Returns the process-wide cache.
+     */
+    public static QueryResultCache getInstance() {
+        return sInstance;
+    }
+
+    private QueryResultCache() {
+    }
+
+    /**
+     * Returns the cache key of a query.  The order of the sections doesn't matter, and neither do
+     * the "api-key", "page-size" and "show-fields" parameters of the URL: the last two follow the
+     * network quality rather than what the user asked for, so a query loaded on one network is
+     * still found on another.
+     */
+    public static String keyFor(String url, List<String> sections) {
+        List<String> sortedSections = new ArrayList<>(sections);
+        Collections.sort(sortedSections);
+        Uri.Builder builder = Uri.parse(withoutParameters(url, "page-size", "show-fields"))
+                .buildUpon();
+        for (String section : sortedSections) {
+            builder.appendQueryParameter("sectionId", section);
+        }
+        return HttpDiskCache.keyFor(builder.toString());
+    }
+
+    /**
+     * Returns the given URL without the query parameters of the given names.
+     */
+    static String withoutParameters(String url, String... names) {
+        Uri uri = Uri.parse(url);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        List<String> dropped = Arrays.asList(names);
+        for (String name : uri.getQueryParameterNames()) {
+            if (!dropped.contains(name)) {
+                for (String value : uri.getQueryParameters(name)) {
+                    builder.appendQueryParameter(name, value);
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the result of the given query if it is still fresh, or null.
+     */
+    public Entry getFresh(String key) {
+        return getFresh(key, TTL_MILLIS);
+    }
+
+    /**
+     * Returns the result of the given query if it is younger than the given age, or null.
+     */
+    public synchronized Entry getFresh(String key, long maxAgeMillis) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.isFresh(maxAgeMillis)) {
+            mEntries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Stores the result of a query, replacing any previous one.  Results that did not come from
+     * the network are not stored, so they are refreshed on the next load.
+     */
+    public synchronized void put(String key, Entry entry) {
+        if (entry != null && entry.isCacheable()) {
+            mEntries.put(key, entry);
+        }
+    }
+
+    /**
+     * Returns the fresh result of the given query, running the loader if there is none.  If the
+     * query is already being loaded, waits for that load instead of starting another one.  The
+     * loader runs on the calling thread, and its result is stored before any waiting caller gets
+     * it.  Returns null if the load failed or was cancelled, or if the waiting thread was
+     * interrupted.
+     */
+    public Entry load(String key, Callable<Entry> loader) {
+        return load(key, TTL_MILLIS, loader);
+    }
+
+    /**
+     * Like {@link #load(String, Callable)}, but a stored result is only fresh while it is younger
+     * than the given age.
+     */
+    public Entry load(String key, long maxAgeMillis, Callable<Entry> loader) {
+        FutureTask<Entry> task;
+        boolean leader = false;
+        synchronized (this) {
+            Entry fresh = getFresh(key, maxAgeMillis);
+            if (fresh != null) {
+                return fresh;
+            }
+            task = mInFlight.get(key);
+            if (task == null) {
+                task = new FutureTask<>(loader);
+                mInFlight.put(key, task);
+                leader = true;
+            }
+        }
+
+        if (leader) {
+            try {
+                task.run();
+                put(key, getQuietly(task));
+            } finally {
+                synchronized (this) {
+                    mInFlight.remove(key);
+                }
+            }
+        } else {
+            Log.d(LOG_TAG, "Joining the load already running for " + key);
+        }
+        Entry result = getQuietly(task);
+        if (result == null && !leader && !Thread.currentThread().isInterrupted()) {
+            // The load that was joined got cancelled, so this caller still has to load the query
+            return load(key, maxAgeMillis, loader);
+        }
+        return result;
+    }
+
+    private static Entry getQuietly(FutureTask<Entry> task) {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem loading the query", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * The articles loaded for a query: all the pages loaded so far, in display order.
+     */
+    public static final class Entry {
+
+        private final List<News> mArticles;
+        private final List<List<News>> mHeldBack;
+        private final int mPages;
+        private final int mPageSize;
+        private final boolean mHasMorePages;
+        private final boolean mFromNetwork;
+        private final long mLoadedAt;
+
+        /**
+         * @param articles articles of all the loaded pages, or null if nothing could be loaded
+         * @param heldBack articles of every section that were loaded but aren't in the list
+         *                 yet, since a later page of another section may come before them
+         * @param pages number of pages loaded
+         * @param pageSize number of articles the pages were requested with
+         * @param hasMorePages whether there may be pages after the last one loaded
+         * @param fromNetwork whether the last page came from the network, rather than only from
+         *                    the local store
+         */
+        public Entry(List<News> articles, List<List<News>> heldBack, int pages, int pageSize,
+                     boolean hasMorePages, boolean fromNetwork) {
+            // Kept for as long as the entry, so don't let a few articles keep whole pages
+            mArticles = articles != null
+                    ? Collections.unmodifiableList(NewsBatch.compact(articles)) : null;
+            List<List<News>> compactHeldBack = new ArrayList<>(heldBack.size());
+            for (List<News> section : heldBack) {
+                compactHeldBack.add(NewsBatch.compact(section));
+            }
+            mHeldBack = Collections.unmodifiableList(compactHeldBack);
+            mPages = pages;
+            mPageSize = pageSize;
+            mHasMorePages = hasMorePages;
+            mFromNetwork = fromNetwork;
+            mLoadedAt = SystemClock.elapsedRealtime();
+        }
+
+        /** Returns the articles of all the loaded pages, or null if nothing could be loaded */
+        public List<News> getArticles() {
+            return mArticles;
+        }
+
+        /** Returns the loaded articles of every section that aren't in the list yet */
+        public List<List<News>> getHeldBack() {
+            return mHeldBack;
+        }
+
+        /** Returns the number of pages loaded */
+        public int getPages() {
+            return mPages;
+        }
+
+        /**
+         * Returns the number of articles the pages were requested with, which the next pages
+         * must be requested with too so they line up.
+         */
+        public int getPageSize() {
+            return mPageSize;
+        }
+
+        /** Returns whether there may be pages after the last one loaded */
+        public boolean hasMorePages() {
+            return mHasMorePages;
+        }
+
+        boolean isCacheable() {
+            return mArticles != null && mFromNetwork;
+        }
+
+        boolean isFresh(long maxAgeMillis) {
+            return SystemClock.elapsedRealtime() - mLoadedAt < maxAgeMillis;
+        }
+    }
+}
@@ -1,22 +1,17 @@
 package com.example.android.newsapp;
 
-import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This is a helper method related to requesting and receiving Alaskan news articles from
@@ -29,122 +24,161 @@ public final class QueryUtils {
      */
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /**
+     * Receives each {@link News} article as soon as it has been parsed from the response, so the
+     * caller can show rows before the rest of the body has been downloaded.
+     */
+    public interface OnArticleParsedListener extends NewsJsonParser.ArticleListener {
+    }
+
     /**
      * Query the Guardian dataset and return a list of {@link News} objects
      */
     public static List<News> fetchNewsData(String requestUrl) {
+        return fetchNewsData(requestUrl, null);
+    }
+
+    /**
+     * Query the Guardian dataset and return a list of {@link News} objects.  The response is
+     * parsed straight from the network stream, and every article is handed to the listener (if
+     * there is one) the moment its element of "response.results" is complete.
+     */
+    public static List<News> fetchNewsData(String requestUrl, OnArticleParsedListener listener) {
+        return fetchNewsData(requestUrl, listener, new CancellationToken());
+    }
+
+    /**
+     * Like {@link #fetchNewsData(String, OnArticleParsedListener)}, but cancelling the token aborts
+     * the request and stops the parse, and then returns null.
+     */
+    public static List<News> fetchNewsData(String requestUrl, OnArticleParsedListener listener,
+                                           CancellationToken cancellation) {
+        return fetchNewsData(requestUrl, listener, cancellation, true);
+    }
+
+    /**
+     * Like {@link #fetchNewsData(String, OnArticleParsedListener, CancellationToken)}, but the
+     * response cache is left out when useCache is false: for a one-off request, such as a delta
+     * whose URL is never asked for again, a cache entry would only push out the useful ones.
+     */
+    public static List<News> fetchNewsData(String requestUrl, OnArticleParsedListener listener,
+                                           CancellationToken cancellation, boolean useCache) {
 
-        Log.i(LOG_TAG, "TEST: fetchNewsData() called...");
         //Create URL object
         URL url = createURL(requestUrl);
 
-        //Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        //Perform HTTP request to the URL and parse the JSON response as it arrives
+        List<News> articles = null;
         try {
-            jsonResponse = makeHttpRequest(url);
+            articles = makeHttpRequest(url, listener, cancellation, useCache);
+        } catch (InterruptedIOException e) {
+            Log.d(LOG_TAG, "Request cancelled: " + traceKey(url));
         } catch (IOException e) {
             Log.e(LOG_TAG, "Problem making the HTTP request.", e);
         }
 
-        //Extract relevant fields from the JSON response and create a list of {@link News) articles
-        List<News> articles = extractArticleFromJson(jsonResponse);
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Transport stats: " + sTransport.getStats());
+        }
 
         //Return the list of {@link news} articles
         return articles;
     }
 
     /**
-     * Create a private constructor.  This class in only meant to hold static variables and
-     * methods, which can be accessed directly from the class name QueryUtils (and an object
-     * instance of Query Utils is not needed).
+     * Transport used for all the HTTP requests
      */
-    private QueryUtils() {
-    }
+    private static volatile HttpTransport sTransport = new OkHttpTransport();
 
     /**
-     * Return a list of {@link News} objects that has been build up from parsing a given JSON
-     * response.
-     *
-     * @param newsJSON
-     * @return
+     * Sets the transport used by {@link #fetchNewsData} to make its HTTP requests.
      */
+    public static void setTransport(HttpTransport transport) {
+        sTransport = transport;
+    }
 
-    public static List<News> extractArticleFromJson(String newsJSON) {
-        //If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(newsJSON)) {
-            return null;
-        }
-
-        //Create an empty ArrayList that we can start adding news articles to
-        List<News> news = new ArrayList<>();
-
-        // Try to parse the SAMPLE_JSON_RESPONSE.  If there is a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown, the exception will be
-        // caught, so the app doesn't crash, and and error message will be printed to the logs.
-        try {
-
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(newsJSON);
-
-            // Extract the JSONObject associated with the key called "response, which represents
-            // a list of news articles.
-            JSONObject newsArticles = baseJsonResponse.getJSONObject("response");
-
-            // For a given news article, extract the JSONObject associated with the key called
-            // "results", which represents a list of all results for a given article
-            JSONArray newsResult =  newsArticles.getJSONArray("results");
-
-            // For each result in the newsArray, create an {@link News} object
-            for (int i = 0; i < newsResult.length(); i++) {
-                String author = "No Author";
-
-                // Get a single news article at position i within the list of articles.
-                JSONObject currentNewsArticle = newsResult.getJSONObject(i);
+    /**
+     * Returns the transport used by {@link #fetchNewsData}, for instance to read its statistics.
+     */
+    public static HttpTransport getTransport() {
+        return sTransport;
+    }
 
-                // Extract the value for the key called "sectionName"
-                String section = currentNewsArticle.getString("sectionName");
+    /**
+     * Decides the timeouts, retries and hedged requests of every news request
+     */
+    private static final RequestPolicy sPolicy = new RequestPolicy();
 
-                // Extract the value for the key called "webTitle"
-                String title = currentNewsArticle.getString("webTitle");
+    /**
+     * Returns the policy news requests are sent with, for instance to read its state.
+     */
+    public static RequestPolicy getRequestPolicy() {
+        return sPolicy;
+    }
 
-                // Extract the value for the key called "webPublicationDate"
-                String date = currentNewsArticle.getString("webPublicationDate");
+    /**
+     * Cache of responses used for conditional GET requests, or null if responses are not cached
+     */
+    private static volatile HttpDiskCache sHttpCache;
 
-                // Extract the value for the key called "webURL"
-                String webURL = currentNewsArticle.getString("webUrl");
+    /**
+     * Sets the cache of responses used by {@link #fetchNewsData}.  Pass null to stop caching.
+     */
+    public static void setHttpCache(HttpDiskCache cache) {
+        sHttpCache = cache;
+    }
 
-                // For a given news article, extract the JSONObject associated with the key called
-                // "tags", which represents a list of all tags for a given article.
-                JSONArray authorResults = currentNewsArticle.getJSONArray("tags");
+    /**
+     * Metrics every request is recorded in, or null if requests are not recorded
+     */
+    private static volatile FetchMetrics sMetrics;
 
-                // If there is no author, then display "No Author"
-                if (authorResults == null) {
-                    author = "No Author";
+    /**
+     * Sets the metrics {@link #fetchNewsData} records its requests in.  Pass null to stop
+     * recording.
+     */
+    public static void setMetrics(FetchMetrics metrics) {
+        sMetrics = metrics;
+    }
 
-                    // Else, extract the author's name.
-                } else {
-                    for (int j = 0; j< authorResults.length(); j++) {
-                        // create a new object to display the authors name
-                        JSONObject currentTag = authorResults.getJSONObject(j);
+    /**
+     * Policy the throughput of every downloaded response is reported to, or null
+     */
+    private static volatile NetworkPolicy sNetworkPolicy;
 
-                        // Extract the value for the key called "author"
-                        author = currentTag.getString("webTitle");
-                        Log.v("Author Results", "name: " + author + ", article: " + title);
-                    }
-                }
+    /**
+     * Sets the policy {@link #fetchNewsData} reports the throughput of its responses to.
+     */
+    public static void setNetworkPolicy(NetworkPolicy networkPolicy) {
+        sNetworkPolicy = networkPolicy;
+    }
 
-                News article = new News(section, title, date, author, webURL);
+    /**
+     * Returns the policy set with {@link #setNetworkPolicy}, or null.
+     */
+    public static NetworkPolicy getNetworkPolicy() {
+        return sNetworkPolicy;
+    }
 
-                news.add(article);
-            }
+    /**
+     * Create a private constructor.  This class in only meant to hold static variables and
+     * methods, which can be accessed directly from the class name QueryUtils (and an object
+     * instance of Query Utils is not needed).
+     */
+    private QueryUtils() {
+    }
 
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // the exception will be caught and the error message will be printed to the log.
-            Log.e("QueryUtils", "Problem parsing the news JSON results", e);
+    /**
+     * Return a list of {@link News} objects that has been build up from parsing a given JSON
+     * response.
+     */
+    public static List<News> extractArticleFromJson(String newsJSON) {
+        long start = System.nanoTime();
+        List<News> news = NewsJsonParser.extractArticleFromJson(newsJSON);
+        FetchMetrics metrics = sMetrics;
+        if (metrics != null) {
+            metrics.recordLatency(FetchMetrics.PARSE_DOM, (System.nanoTime() - start) / 1000);
         }
-
-        // Return the list of news articles
         return news;
     }
 
@@ -162,61 +196,210 @@ public final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response
+     * Make an HTTP request to the given URL and return the list of articles parsed from the response.
+     * If a response cache has been set and useCache is true, a fresh cached response is used
+     * without going to the network, and a stale one is revalidated with a conditional GET.  The
+     * request is sent according to the {@link RequestPolicy}, and it is timed and recorded in the
+     * metrics, if they have been set.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
+    private static List<News> makeHttpRequest(URL url, OnArticleParsedListener listener,
+            CancellationToken cancellation, boolean useCache) throws IOException {
         //If the URL is null, then return early
         if (url == null) {
-            return jsonResponse;
+            return null;
+        }
+
+        RequestTrace trace = new RequestTrace(traceKey(url));
+        List<News> articles = null;
+        try {
+            articles = makeHttpRequest(url, listener, cancellation, useCache ? sHttpCache : null,
+                    trace);
+        } finally {
+            FetchMetrics metrics = sMetrics;
+            if (metrics != null) {
+                metrics.record(trace);
+            }
+            NetworkPolicy networkPolicy = sNetworkPolicy;
+            if (networkPolicy != null && RequestTrace.SOURCE_NETWORK.equals(trace.getSource())) {
+                networkPolicy.recordTransfer(trace.getDecodedBytes(), trace.getReadMicros());
+            }
+        }
+        return articles;
+    }
+
+    /**
+     * Does the work of {@link #makeHttpRequest(URL, OnArticleParsedListener, CancellationToken,
+     * boolean)} with the given cache, or none if it is null, marking each phase of the request
+     * on the trace.
+     */
+    private static List<News> makeHttpRequest(URL url, OnArticleParsedListener listener,
+            CancellationToken cancellation, HttpDiskCache cache, RequestTrace trace)
+            throws IOException {
+        List<News> articles = null;
+
+        // Look up the cached response for this query, if there is one
+        String cacheKey = null;
+        HttpDiskCache.Entry cached = null;
+        if (cache != null) {
+            cacheKey = HttpDiskCache.keyFor(url.toString());
+            cached = cache.get(cacheKey);
+            if (cached != null && cached.isFresh()) {
+                articles = readCachedArticles(cache, cached);
+                if (articles != null) {
+                    trace.finish(RequestTrace.SOURCE_CACHE, articles.size());
+                    return articles;
+                }
+                // The entry was unreadable and is gone, so the whole response is fetched again
+                cached = null;
+            }
+        }
+
+        // Ask the server to only send the body if it changed since it was cached
+        Map<String, String> headers = new HashMap<>();
+        if (cached != null) {
+            if (cached.getETag() != null) {
+                headers.put("If-None-Match", cached.getETag());
+            }
+            if (cached.getLastModified() != null) {
+                headers.put("If-Modified-Since", cached.getLastModified());
+            }
         }
 
-        HttpURLConnection urlConnection = null;
+        HttpTransport.Response response = null;
         InputStream inputStream = null;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000);
-            urlConnection.setConnectTimeout(15000);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            // Page fetches are idempotent GETs, so they may be retried and hedged
+            response = sPolicy.get(sTransport, url, headers, cancellation);
 
             //If the request is successful (response code 200), then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            int responseCode = response.getCode();
+            trace.headersReceived(response, responseCode);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                // Time the reads before the cache copies the body, so they only measure the
+                // network.  Once cancelled, every read fails, which stops the parse.
+                inputStream = cancellation.wrap(trace.wrap(response.getBody()));
+
+                // Copy the body into the cache while it is being parsed
+                HttpDiskCache.Editor editor = null;
+                if (cache != null) {
+                    editor = cache.edit(cacheKey,
+                            response.getHeader("ETag"),
+                            response.getHeader("Last-Modified"),
+                            response.getHeader("Cache-Control"));
+                }
+                if (editor != null) {
+                    inputStream = editor.tee(inputStream);
+                }
+
+                // Parsed into a batch, which keeps the page in far fewer objects than a list of
+                // articles would
+                NewsBatch.Builder batch = new NewsBatch.Builder();
+                try {
+                    NewsJsonParser.readArticlesFromStream(inputStream, batch, listener);
+                    articles = batch.build();
+                    if (editor != null) {
+                        editor.commit(articles);
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // A truncated or reset body fails the request.  The listener has already
+                    // shown the articles parsed so far, but they are never returned, cached or
+                    // stored: a short page would replace the good stored copy and look like the
+                    // last page of the results.
+                    if (editor != null) {
+                        editor.abort();
+                    }
+                    if (cancellation.isCancelled()) {
+                        throw new InterruptedIOException("Cancelled");
+                    }
+                    Log.e(LOG_TAG, "Problem parsing the news JSON results", e);
+                    return null;
+                }
+                trace.bodyParsed();
+                trace.finish(RequestTrace.SOURCE_NETWORK, articles.size());
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // Nothing changed, so the cached articles are still current
+                cached = cache.refresh(cached,
+                        response.getHeader("ETag"),
+                        response.getHeader("Last-Modified"),
+                        response.getHeader("Cache-Control"));
+                articles = readCachedArticles(cache, cached);
+                if (articles != null) {
+                    trace.finish(RequestTrace.SOURCE_NOT_MODIFIED, articles.size());
+                }
+                // Otherwise the request fails, and the next one fetches the whole response
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
             }
+        } catch (InterruptedIOException e) {
+            if (cancellation.isCancelled()) {
+                // Nobody wants the articles any more, so don't hand back a partial list
+                trace.finish(RequestTrace.SOURCE_CANCELLED, 0);
+                throw e;
+            }
+            Log.e(LOG_TAG, "Problem retrieving the news JSON results.", e);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Problem retrieving the news JSON results.", e);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
+            // The connection is not disconnected: closing the response hands it back to the
+            // transport so the next request can reuse it
             if (inputStream != null) {
                 // Closing the input stream could throw an IOException, which is why the
                 // makeHttpRequest (URL url) method signature specifies an IOException could be thrown.
                 inputStream.close();
             }
+            if (response != null) {
+                response.close();
+            }
         }
-        return jsonResponse;
+        return articles;
+    }
+
+    /**
+     * Returns the URL in the form it is recorded in the metrics: without the API key or the
+     * user's search terms, and without the commas the export file uses as separators.
+     */
+    private static String traceKey(URL url) {
+        return url.toString()
+                .replaceAll("(?<=[?&])(api-key|q)=[^&]*&?", "")
+                .replaceAll("[?&]$", "")
+                .replace(",", "%2C");
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the whole JSON response from the server
+     * Returns the articles of a cached response.  They are parsed from the stored body only if
+     * they are no longer in memory.  Returns null if the body can't be read in full, in which
+     * case the entry is removed from the cache.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
+    private static List<News> readCachedArticles(HttpDiskCache cache, HttpDiskCache.Entry cached) {
+        List<News> articles = cache.getParsed(cached);
+        if (articles != null) {
+            return articles;
+        }
+
+        NewsBatch.Builder batch = new NewsBatch.Builder();
+        InputStream inputStream = null;
+        try {
+            inputStream = cache.openBody(cached);
+            NewsJsonParser.readArticlesFromStream(inputStream, batch, null);
+            articles = batch.build();
+            cache.putParsed(cached, articles);
+        } catch (FileNotFoundException e) {
+            // Evicted since it was looked up, and maybe stored again since: leave it alone
+            articles = null;
+            Log.d(LOG_TAG, "The cached response is gone: " + e.getMessage());
+        } catch (IOException | IllegalStateException e) {
+            articles = null;
+            Log.e(LOG_TAG, "Problem reading the cached news JSON results", e);
+            cache.remove(cached);
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the cached response", e);
+                }
             }
         }
-        return output.toString();
+        return articles;
     }
-}
\ No newline at end of file
+}
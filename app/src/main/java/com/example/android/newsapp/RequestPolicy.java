@@ -0,0 +1,419 @@
+package com.example.android.newsapp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides how the news requests of {@link QueryUtils} are sent, to keep slow or failing requests
+ * from holding up the list:
+ *
+ * - Timeouts follow the latencies observed so far: a few times the 99th percentile of the time
+ *   until the response headers arrive, within fixed bounds.  Failed attempts count with the
+ *   time they took, and timed out ones with at least their timeout, so a slow or failing server
+ *   raises the percentiles instead of leaving only the fast answers in the window.  Until enough
+ *   requests have been seen, the timeouts are the defaults QueryUtils always used.
+ * - Once the 95th percentile has passed without response headers, a second identical request is
+ *   sent (a hedged request), and whichever answers first is used.  The other one is closed.
+ *   Attempts run on at most {@link #MAX_ATTEMPT_THREADS} threads: when they are all busy, an
+ *   attempt runs on the calling thread instead, and a hedge is not sent at all, so a burst of
+ *   slow requests can't start an unbounded number of threads.
+ * - Network errors, 5xx and 429 responses are retried a few times, after a backoff that doubles
+ *   every time and is randomized ("full jitter") so that clients don't retry in lockstep.
+ * - After {@link #FAILURE_THRESHOLD} failures in a row the circuit opens: requests fail at once,
+ *   without touching the network, for {@link #OPEN_MILLIS}.  Then a single probe request is let
+ *   through, and the circuit closes again if it succeeds.
+ *
+ * Only safe to use for idempotent requests, since a request may be sent more than once.
+ */
+public final class RequestPolicy {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = RequestPolicy.class.getSimpleName();
+
+    /** Timeout used until enough latencies have been observed */
+    static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    /** Bounds of the derived timeouts */
+    private static final int MIN_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_TIMEOUT_MILLIS = 15000;
+
+    /** Derived timeout, as a multiple of the 99th percentile latency */
+    private static final int TIMEOUT_MULTIPLIER = 4;
+
+    /** Shortest wait before a hedged request, so fast responses never get hedged */
+    private static final long MIN_HEDGE_DELAY_MILLIS = 50;
+
+    /** Number of recent latencies the percentiles are computed from */
+    private static final int WINDOW_SIZE = 64;
+
+    /** Number of latencies needed before the percentiles are trusted */
+    private static final int MIN_SAMPLES = 10;
+
+    /** Number of retries after the first attempt */
+    private static final int MAX_RETRIES = 2;
+
+    /** Backoff before the first retry, doubled for every later one */
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 4000;
+
+    /** Number of failures in a row that opens the circuit */
+    private static final int FAILURE_THRESHOLD = 5;
+
+    /** How long the circuit stays open before a probe request is let through */
+    private static final long OPEN_MILLIS = 30000;
+
+    /** Maximum number of attempts running at the same time on their own thread */
+    private static final int MAX_ATTEMPT_THREADS = 4;
+
+    /** How long an idle attempt thread is kept */
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    /** HTTP status code for rate limiting, missing from {@link HttpURLConnection} */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    /**
+     * Sends the attempts, so the caller can wait for whichever answers first.  Rejects an
+     * attempt rather than queueing it when all its threads are busy.
+     */
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(0, MAX_ATTEMPT_THREADS,
+            THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>());
+
+    private final Random mRandom = new Random();
+
+    /** Most recent latencies until the response headers, in milliseconds, as a ring buffer */
+    private final long[] mLatencies = new long[WINDOW_SIZE];
+    private int mLatencyCount;
+    private int mNextLatency;
+
+    private int mState = CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAtNanos;
+    private boolean mProbeInFlight;
+
+    private long mAttempts;
+    private long mHedges;
+    private long mRetries;
+    private long mRejected;
+
+    /**
+     * Sends a GET request with the given transport, retrying, hedging and timing out as
+     * described above, and returns the response once its headers have arrived.  Cancelling the
+     * token aborts every attempt in flight, and the backoff.
+     *
+     * @throws InterruptedIOException if the token was cancelled
+     * @throws IOException if the circuit is open, or if every attempt failed
+     */
+    public HttpTransport.Response get(HttpTransport transport, URL url,
+            Map<String, String> headers, CancellationToken cancellation) throws IOException {
+        IOException failure = null;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            if (attempt > 0) {
+                synchronized (this) {
+                    mRetries++;
+                }
+                cancellation.sleep(backoffMillis(attempt));
+            }
+            cancellation.throwIfCancelled();
+            if (!allowRequest()) {
+                throw failure != null
+                        ? failure : new IOException("Circuit open for " + url.getHost());
+            }
+
+            HttpTransport.Response response = null;
+            try {
+                response = getHedged(transport, url, headers, cancellation);
+            } catch (IOException e) {
+                // Timeouts are interrupted I/O too, but unlike cancellation they are failures
+                boolean cancelled = cancellation.isCancelled()
+                        || (e instanceof InterruptedIOException
+                                && !(e instanceof SocketTimeoutException));
+                if (cancelled) {
+                    // The caller gave up, which says nothing about the server
+                    releaseProbe();
+                    throw e instanceof InterruptedIOException
+                            ? (InterruptedIOException) e : new InterruptedIOException("Cancelled");
+                }
+                Log.w(LOG_TAG, "Attempt " + (attempt + 1) + " failed: " + e);
+                failure = e;
+            }
+
+            if (response != null) {
+                int code = response.getCode();
+                if (!isRetryable(code)) {
+                    recordSuccess();
+                    return response;
+                }
+                if (attempt == MAX_RETRIES) {
+                    // Let the caller see the error response
+                    recordFailure();
+                    return response;
+                }
+                Log.w(LOG_TAG, "Attempt " + (attempt + 1) + " failed: HTTP " + code);
+                response.close();
+            }
+            recordFailure();
+        }
+        throw failure;
+    }
+
+    /**
+     * Sends the request, and sends it a second time if the first attempt takes longer than the
+     * 95th percentile latency.  Returns the response of the attempt whose headers arrive first.
+     */
+    private HttpTransport.Response getHedged(final HttpTransport transport, final URL url,
+            final Map<String, String> headers, final CancellationToken cancellation)
+            throws IOException {
+        final int timeoutMillis = getTimeoutMillis();
+        // Set by the first attempt to get a response, any other attempt closes its own
+        final AtomicBoolean answered = new AtomicBoolean();
+        Callable<HttpTransport.Response> attempt = new Callable<HttpTransport.Response>() {
+            @Override
+            public HttpTransport.Response call() throws IOException {
+                long start = System.nanoTime();
+                HttpTransport.Response response;
+                try {
+                    response = transport.get(url, headers, timeoutMillis, cancellation);
+                    try {
+                        // Wait for the headers, some transports only connect in get()
+                        response.getCode();
+                    } catch (IOException e) {
+                        response.close();
+                        throw e;
+                    }
+                } catch (IOException e) {
+                    recordFailedLatency(e, start, timeoutMillis, cancellation);
+                    throw e;
+                }
+                recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (answered.compareAndSet(false, true)) {
+                    return response;
+                }
+                response.close();
+                return null;
+            }
+        };
+
+        CompletionService<HttpTransport.Response> attempts =
+                new ExecutorCompletionService<>(mExecutor);
+        Future<HttpTransport.Response> first = trySubmit(attempts, attempt);
+        boolean inline = first == null;
+        if (inline) {
+            // Every attempt thread is busy, so this attempt runs here, without a hedge
+            FutureTask<HttpTransport.Response> task = new FutureTask<>(attempt);
+            task.run();
+            first = task;
+        }
+        Future<HttpTransport.Response> hedge = null;
+        int pending = 1;
+        IOException failure = null;
+        try {
+            Future<HttpTransport.Response> done = inline ? first : null;
+            long hedgeDelayMillis = inline ? -1 : getHedgeDelayMillis();
+            if (hedgeDelayMillis >= 0) {
+                done = attempts.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    hedge = trySubmit(attempts, attempt);
+                }
+                if (hedge != null) {
+                    synchronized (this) {
+                        mHedges++;
+                    }
+                    Log.d(LOG_TAG, "Hedging after " + hedgeDelayMillis + " ms: " + url.getPath());
+                    pending++;
+                }
+            }
+            while (pending > 0) {
+                if (done == null) {
+                    done = attempts.take();
+                }
+                pending--;
+                try {
+                    HttpTransport.Response response = done.get();
+                    if (response != null) {
+                        return response;
+                    }
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+                done = null;
+            }
+        } catch (InterruptedException e) {
+            // Any attempt still running closes its response, since nobody will claim it
+            answered.set(true);
+            first.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+            throw new InterruptedIOException("Interrupted while waiting for " + url.getPath());
+        }
+        throw failure;
+    }
+
+    /**
+     * Submits the attempt, or returns null if all the attempt threads are busy.
+     */
+    private static Future<HttpTransport.Response> trySubmit(
+            CompletionService<HttpTransport.Response> attempts,
+            Callable<HttpTransport.Response> attempt) {
+        try {
+            return attempts.submit(attempt);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the timeout for connecting and for every read, derived from the 99th percentile
+     * latency.
+     */
+    public synchronized int getTimeoutMillis() {
+        if (mLatencyCount < MIN_SAMPLES) {
+            return DEFAULT_TIMEOUT_MILLIS;
+        }
+        long timeout = percentile(0.99) * TIMEOUT_MULTIPLIER;
+        return (int) Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, timeout));
+    }
+
+    /**
+     * Returns how long to wait for the response headers before sending a hedged request: the
+     * 95th percentile latency, or -1 if too few latencies have been seen to hedge.
+     */
+    public synchronized long getHedgeDelayMillis() {
+        if (mLatencyCount < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, percentile(0.95));
+    }
+
+    /**
+     * Records the latency of an attempt that failed with the given exception: the time it took,
+     * or its timeout if it timed out sooner.  Cancelled and interrupted attempts, such as a hedge
+     * given up on, are left out since they say nothing about the server.
+     */
+    private void recordFailedLatency(IOException e, long startNanos, int timeoutMillis,
+            CancellationToken cancellation) {
+        boolean timedOut = e instanceof SocketTimeoutException;
+        if (cancellation.isCancelled() || (e instanceof InterruptedIOException && !timedOut)) {
+            return;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        recordLatency(timedOut ? Math.max(millis, timeoutMillis) : millis);
+    }
+
+    private synchronized void recordLatency(long millis) {
+        mLatencies[mNextLatency] = millis;
+        mNextLatency = (mNextLatency + 1) % WINDOW_SIZE;
+        mLatencyCount = Math.min(WINDOW_SIZE, mLatencyCount + 1);
+    }
+
+    /**
+     * Returns the given percentile (0 to 1) of the latencies in the window.
+     */
+    private long percentile(double fraction) {
+        long[] sorted = Arrays.copyOf(mLatencies, mLatencyCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, rank)];
+    }
+
+    /**
+     * Returns a random backoff between zero and the exponential backoff of the given retry.
+     */
+    private long backoffMillis(int retry) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (retry - 1));
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * ceiling);
+        }
+    }
+
+    private static boolean isRetryable(int code) {
+        return code >= HttpURLConnection.HTTP_INTERNAL_ERROR || code == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Returns whether the circuit lets a request through, and moves an open circuit whose delay
+     * is over to half open, letting this request through as its probe.
+     */
+    private synchronized boolean allowRequest() {
+        mAttempts++;
+        long openNanos = System.nanoTime() - mOpenedAtNanos;
+        if (mState == OPEN && openNanos >= TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS)) {
+            Log.i(LOG_TAG, "Circuit half open, probing");
+            mState = HALF_OPEN;
+        }
+        if (mState == CLOSED) {
+            return true;
+        }
+        if (mState == HALF_OPEN && !mProbeInFlight) {
+            mProbeInFlight = true;
+            return true;
+        }
+        mRejected++;
+        return false;
+    }
+
+    private synchronized void recordSuccess() {
+        if (mState != CLOSED) {
+            Log.i(LOG_TAG, "Circuit closed");
+        }
+        mState = CLOSED;
+        mConsecutiveFailures = 0;
+        mProbeInFlight = false;
+    }
+
+    private synchronized void recordFailure() {
+        mConsecutiveFailures++;
+        if (mState == HALF_OPEN || mConsecutiveFailures >= FAILURE_THRESHOLD) {
+            if (mState != OPEN) {
+                Log.w(LOG_TAG, "Circuit open after " + mConsecutiveFailures + " failures");
+            }
+            mState = OPEN;
+            mOpenedAtNanos = System.nanoTime();
+        }
+        mProbeInFlight = false;
+    }
+
+    /**
+     * Lets another probe through if the one in flight was abandoned.
+     */
+    private synchronized void releaseProbe() {
+        mProbeInFlight = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        String state = mState == CLOSED ? "closed" : (mState == OPEN ? "open" : "half-open");
+        return "circuit=" + state
+                + ", attempts=" + mAttempts
+                + ", retries=" + mRetries
+                + ", hedges=" + mHedges
+                + ", rejected=" + mRejected
+                + ", timeoutMs=" + getTimeoutMillis()
+                + ", hedgeDelayMs=" + getHedgeDelayMillis();
+    }
+}
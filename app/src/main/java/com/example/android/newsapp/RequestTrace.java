@@ -0,0 +1,165 @@
+package com.example.android.newsapp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Times the phases of a single news request made by {@link QueryUtils}: waiting for the response
+ * headers, reading the body from the network, and parsing it.  The wait for the headers is further
+ * split, as far as the transport can tell, into getting a connection and the time to first byte.
+ * The body is parsed while it is being read, so the two are told apart by timing the reads of the
+ * stream returned by {@link #wrap}; whatever remains of the body phase is parsing.
+ *
+ * A trace is used by one thread only.  It is handed to {@link FetchMetrics#record} once the
+ * request is finished.
+ */
+public final class RequestTrace {
+
+    /** Where the articles of a request came from */
+    public static final String SOURCE_NETWORK = "network";
+    public static final String SOURCE_NOT_MODIFIED = "not-modified";
+    public static final String SOURCE_CACHE = "cache";
+    public static final String SOURCE_ERROR = "error";
+    public static final String SOURCE_CANCELLED = "cancelled";
+
+    private final String mKey;
+    private final long mStartNanos;
+    private long mHeadersNanos = -1;
+    private long mConnectMicros = -1;
+    private long mFirstByteMicros = -1;
+    private long mBodyStartNanos = -1;
+    private long mBodyEndNanos = -1;
+    private long mReadNanos;
+    private long mBytes;
+    private int mArticles;
+    private int mResponseCode;
+    private String mSource = SOURCE_ERROR;
+    private long mEndNanos = -1;
+
+    /**
+     * Starts timing the request for the given query.
+     *
+     * @param key identifies the query, without any secret parameters
+     */
+    public RequestTrace(String key) {
+        mKey = key;
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the arrival of the response headers, and takes the connect time and time to first
+     * byte the transport measured for the response.
+     */
+    public void headersReceived(HttpTransport.Response response, int responseCode) {
+        mResponseCode = responseCode;
+        mHeadersNanos = System.nanoTime();
+        mConnectMicros = response.getConnectMicros();
+        mFirstByteMicros = response.getFirstByteMicros();
+    }
+
+    /**
+     * Returns the given body stream, counting its bytes and the time spent waiting on its reads.
+     * Marks the start of the body phase.
+     */
+    public InputStream wrap(InputStream body) {
+        mBodyStartNanos = System.nanoTime();
+        return new FilterInputStream(body) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                int b = super.read();
+                mReadNanos += System.nanoTime() - start;
+                if (b >= 0) {
+                    mBytes++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                long start = System.nanoTime();
+                int read = super.read(buffer, offset, count);
+                mReadNanos += System.nanoTime() - start;
+                if (read > 0) {
+                    mBytes += read;
+                }
+                return read;
+            }
+        };
+    }
+
+    /** Marks the end of the body phase, once the body has been parsed */
+    public void bodyParsed() {
+        mBodyEndNanos = System.nanoTime();
+    }
+
+    /** Marks the end of the request */
+    public void finish(String source, int articles) {
+        mSource = source;
+        mArticles = articles;
+        mEndNanos = System.nanoTime();
+    }
+
+    public String getKey() {
+        return mKey;
+    }
+
+    public String getSource() {
+        return mSource;
+    }
+
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * Returns the number of body bytes read, after the transport undid any gzip encoding, so it
+     * is usually more than went over the network.
+     */
+    public long getDecodedBytes() {
+        return mBytes;
+    }
+
+    public int getArticles() {
+        return mArticles;
+    }
+
+    /**
+     * Returns the time until the response headers arrived, or -1 if they never did.  This covers
+     * the cache lookup, retries and hedging too, besides the connect time and time to first byte
+     * of the response that was used.
+     */
+    public long getHeadersMicros() {
+        return mHeadersNanos < 0 ? -1 : (mHeadersNanos - mStartNanos) / 1000;
+    }
+
+    /** Returns the time spent getting a connection for the response, or -1 if unknown */
+    public long getConnectMicros() {
+        return mConnectMicros;
+    }
+
+    /** Returns the time from sending the request to its response headers, or -1 if unknown */
+    public long getFirstByteMicros() {
+        return mFirstByteMicros;
+    }
+
+    /** Returns the time spent waiting for body bytes, or -1 if no body was read */
+    public long getReadMicros() {
+        return mBodyStartNanos < 0 ? -1 : mReadNanos / 1000;
+    }
+
+    /** Returns the time spent parsing the body, apart from waiting for it, or -1 */
+    public long getParseMicros() {
+        if (mBodyStartNanos < 0 || mBodyEndNanos < 0) {
+            return -1;
+        }
+        return Math.max(0, mBodyEndNanos - mBodyStartNanos - mReadNanos) / 1000;
+    }
+
+    /** Returns the time the whole request took */
+    public long getTotalMicros() {
+        long end = mEndNanos < 0 ? System.nanoTime() : mEndNanos;
+        return (end - mStartNanos) / 1000;
+    }
+}
@@ -4,12 +4,14 @@ package com.example.android.newsapp;
 import android.os.Bundle;
 import android.content.SharedPreferences;
 import android.preference.ListPreference;
+import android.preference.MultiSelectListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
 
 import java.util.List;
+import java.util.Set;
 
 public class SettingsActivity extends AppCompatActivity {
 
@@ -39,6 +41,11 @@ public class SettingsActivity extends AppCompatActivity {
         public boolean onPreferenceChange(Preference preference, Object value) {
             //The code in this method takes care of updating the displayed preference summary after
             // it has been changed.
+            if (preference instanceof MultiSelectListPreference) {
+                preference.setSummary(getMultiSelectSummary((MultiSelectListPreference) preference,
+                        (Set<?>) value));
+                return true;
+            }
             String stringValue = value.toString();
             if(preference instanceof ListPreference) {
                 ListPreference listPreference = (ListPreference) preference;
@@ -53,9 +60,33 @@ public class SettingsActivity extends AppCompatActivity {
             return true;
         }
 
+        /**
+         * Returns the labels of the selected values of a multi-select preference, in list order.
+         */
+        private String getMultiSelectSummary(MultiSelectListPreference preference, Set<?> values) {
+            CharSequence[] labels = preference.getEntries();
+            CharSequence[] entryValues = preference.getEntryValues();
+            StringBuilder summary = new StringBuilder();
+            for (int i = 0; i < entryValues.length; i++) {
+                if (values.contains(entryValues[i].toString())) {
+                    if (summary.length() > 0) {
+                        summary.append(", ");
+                    }
+                    summary.append(labels[i]);
+                }
+            }
+            return summary.toString();
+        }
+
         private void bindPreferenceSummaryToValue(Preference preference) {
             preference.setOnPreferenceChangeListener(this);
             SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(preference.getContext());
+            if (preference instanceof MultiSelectListPreference) {
+                Set<String> preferenceValues = preferences.getStringSet(preference.getKey(),
+                        ((MultiSelectListPreference) preference).getValues());
+                onPreferenceChange(preference, preferenceValues);
+                return;
+            }
             String preferenceString = preferences.getString(preference.getKey(), "");
             onPreferenceChange(preference, preferenceString);
         }
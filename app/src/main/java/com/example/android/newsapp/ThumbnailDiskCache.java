@@ -0,0 +1,60 @@
+package com.example.android.newsapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A size-bounded on-disk cache of downloaded thumbnail images, used by {@link ThumbnailLoader}.
+ * Each entry is the image file exactly as it was downloaded, named after the SHA-1 of its URL,
+ * and the least recently used ones are evicted once the cache grows past its size limit.
+ * Thumbnail URLs are immutable, so entries never need to be revalidated.
+ */
+final class ThumbnailDiskCache {
+
+    private static final String IMAGE_SUFFIX = ".img";
+
+    private final DiskLruStore mStore;
+
+    /**
+     * Constructs a new {@link ThumbnailDiskCache}.
+     *
+     * @param directory where the images are stored
+     * @param maxSize   maximum total size of the stored images, in bytes
+     */
+    ThumbnailDiskCache(File directory, long maxSize) {
+        mStore = new DiskLruStore(directory, IMAGE_SUFFIX, maxSize);
+    }
+
+    /**
+     * Returns the stored image of the given URL, or null if there is none.
+     */
+    public File get(String url) {
+        return mStore.get(HttpDiskCache.sha1Hex(url));
+    }
+
+    /**
+     * Stores the image read from the given stream for the given URL, and returns its file.  The
+     * entry only becomes visible once the whole image has been written.
+     */
+    public File put(String url, InputStream in) throws IOException {
+        String key = HttpDiskCache.sha1Hex(url);
+        File tempFile = mStore.createTempFile(key);
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            out.close();
+            tempFile.delete();
+            throw e;
+        }
+        out.close();
+        return mStore.commit(key, tempFile);
+    }
+}
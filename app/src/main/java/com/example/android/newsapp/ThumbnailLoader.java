@@ -0,0 +1,418 @@
+package com.example.android.newsapp;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads article thumbnails into {@link ImageView}s.  Images are downloaded through the
+ * {@link QueryUtils} transport on a small pool of background threads, kept as downloaded in a
+ * {@link ThumbnailDiskCache}, and decoded subsampled to the size of the view, so a thumbnail never
+ * takes more memory than the view can show.
+ *
+ * Decoded bitmaps are kept in a memory cache bounded in bytes, a fraction of the app's heap (a
+ * smaller one on low-RAM devices), which is emptied when the system runs low on memory.  Bitmaps
+ * that are neither cached nor shown any more are decoded into again instead of being garbage
+ * collected.  The most recent requests are served first, and a view's request is cancelled as
+ * soon as the view is given another image or recycled, so fast scrolling doesn't queue up
+ * thumbnails of rows that are long gone.
+ *
+ * All the methods must be called on the main thread.
+ */
+public final class ThumbnailLoader implements ComponentCallbacks2 {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    /** Name of the disk cache directory, inside the app's cache directory */
+    private static final String CACHE_DIR_NAME = "thumbnails";
+
+    /** Maximum total size of the downloaded images */
+    private static final long MAX_DISK_BYTES = 10 * 1024 * 1024;
+
+    /** Share of the app's memory class the memory cache may use */
+    private static final int MEMORY_CACHE_DIVISOR = 8;
+    private static final int LOW_RAM_MEMORY_CACHE_DIVISOR = 16;
+
+    /** Number of images downloaded and decoded at the same time */
+    private static final int MAX_CONCURRENT_LOADS = 2;
+
+    /** Maximum number of released bitmaps kept for decoding into */
+    private static final int MAX_REUSABLE_BITMAPS = 4;
+
+    private static ThumbnailLoader sInstance;
+
+    /** Decoded thumbnails, keyed by URL and size */
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    /** Bitmaps currently in mMemoryCache */
+    private final Set<Bitmap> mCachedBitmaps = new HashSet<>();
+
+    /** Bitmap shown by every view the loader has set one on */
+    private final Map<ImageView, Bitmap> mDisplayed = new WeakHashMap<>();
+
+    /** Latest request of every view */
+    private final Map<ImageView, Request> mRequests = new WeakHashMap<>();
+
+    /** Bitmaps that are neither cached nor shown, which new thumbnails can be decoded into */
+    private final LinkedList<Bitmap> mReusable = new LinkedList<>();
+
+    private final ThumbnailDiskCache mDiskCache;
+
+    /** Runs the downloads and decodes, newest request first */
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Returns the process-wide loader.
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ThumbnailLoader(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean lowRam = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && activityManager.isLowRamDevice();
+        int cacheBytes = activityManager.getMemoryClass() * 1024 * 1024
+                / (lowRam ? LOW_RAM_MEMORY_CACHE_DIVISOR : MEMORY_CACHE_DIVISOR);
+
+        mMemoryCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldBitmap,
+                                        Bitmap newBitmap) {
+                // Entries are only added and removed on the main thread
+                mCachedBitmaps.remove(oldBitmap);
+                releaseIfUnused(oldBitmap);
+            }
+        };
+
+        mDiskCache = new ThumbnailDiskCache(new File(context.getCacheDir(), CACHE_DIR_NAME),
+                MAX_DISK_BYTES);
+
+        // A deque used as a stack, so the rows that were bound last are loaded first
+        LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(Runnable runnable) {
+                return offerFirst(runnable);
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_LOADS, MAX_CONCURRENT_LOADS,
+                0L, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Stay out of the way of the UI thread while scrolling
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "thumbnails");
+            }
+        });
+
+        context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Shows the thumbnail at the given URL in the view, decoded to the view's layout size.  The
+     * view is cleared until the thumbnail is ready.  Passing a null URL just clears the view.
+     */
+    public void load(String url, ImageView view) {
+        int width = view.getLayoutParams().width;
+        int height = view.getLayoutParams().height;
+        String key = url + "@" + width + "x" + height;
+
+        Request current = mRequests.get(view);
+        if (current != null && current.mKey.equals(key) && !current.mCancelled) {
+            // Already shown, or on its way
+            return;
+        }
+        cancel(view);
+        if (url == null) {
+            return;
+        }
+
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            show(view, cached);
+            mRequests.put(view, new Request(view, url, key, width, height));
+            return;
+        }
+
+        Request request = new Request(view, url, key, width, height);
+        mRequests.put(view, request);
+        mExecutor.execute(request);
+    }
+
+    /**
+     * Cancels the view's request, if it is still pending, and clears the view.
+     */
+    public void cancel(ImageView view) {
+        Request request = mRequests.remove(view);
+        if (request != null) {
+            request.mCancelled = true;
+            mExecutor.remove(request);
+        }
+        show(view, null);
+    }
+
+    private void show(ImageView view, Bitmap bitmap) {
+        Bitmap previous = mDisplayed.get(view);
+        if (bitmap != null) {
+            mDisplayed.put(view, bitmap);
+        } else {
+            mDisplayed.remove(view);
+        }
+        view.setImageBitmap(bitmap);
+        if (previous != null && previous != bitmap) {
+            releaseIfUnused(previous);
+        }
+    }
+
+    /**
+     * Makes the bitmap available for decoding into if it is neither cached nor shown any more.
+     */
+    private void releaseIfUnused(Bitmap bitmap) {
+        if (!bitmap.isMutable() || mCachedBitmaps.contains(bitmap)
+                || mDisplayed.containsValue(bitmap)) {
+            return;
+        }
+        synchronized (mReusable) {
+            mReusable.addFirst(bitmap);
+            if (mReusable.size() > MAX_REUSABLE_BITMAPS) {
+                mReusable.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Takes a released bitmap the decoder can decode the image described by the options into, or
+     * returns null if there is none.  Called on the loader threads.
+     */
+    private Bitmap takeReusable(BitmapFactory.Options options) {
+        synchronized (mReusable) {
+            Iterator<Bitmap> candidates = mReusable.iterator();
+            while (candidates.hasNext()) {
+                Bitmap candidate = candidates.next();
+                if (canDecodeInto(candidate, options)) {
+                    candidates.remove();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Before KitKat, a bitmap can only be reused for an image of exactly its size decoded without
+     * subsampling; since then, for any image that fits in its allocation.
+     */
+    private static boolean canDecodeInto(Bitmap candidate, BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            return (long) width * height * 2 <= candidate.getAllocationByteCount();
+        }
+        return options.inSampleSize == 1
+                && candidate.getWidth() == options.outWidth
+                && candidate.getHeight() == options.outHeight
+                && candidate.getConfig() == options.inPreferredConfig;
+    }
+
+    /**
+     * Returns the largest power of two by which the image can be subsampled and still cover the
+     * requested size.
+     */
+    private static int sampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+        if (width <= 0 || height <= 0) {
+            return sampleSize;
+        }
+        while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Decodes the image file subsampled to the requested size, or returns null if it can't be
+     * decoded.  Called on the loader threads.
+     */
+    private Bitmap decode(File file, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, width, height);
+        // Thumbnails are opaque photos, which don't need an alpha channel or 32 bits per pixel
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        options.inBitmap = takeReusable(options);
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // The reused bitmap didn't fit after all
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    /**
+     * Returns the downloaded image of the URL, downloading it first if it isn't stored yet.
+     * Called on the loader threads.
+     */
+    private File download(String url) throws IOException {
+        File file = mDiskCache.get(url);
+        if (file != null) {
+            return file;
+        }
+        HttpTransport.Response response = QueryUtils.getTransport().get(new URL(url),
+                Collections.<String, String>emptyMap());
+        InputStream body = null;
+        try {
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Error response code: " + response.getCode());
+            }
+            body = response.getBody();
+            return mDiskCache.put(url, body);
+        } finally {
+            if (body != null) {
+                body.close();
+            }
+            response.close();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            // The app is in the background and likely to be killed: free everything
+            mMemoryCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        } else {
+            return;
+        }
+        synchronized (mReusable) {
+            mReusable.clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Loads one thumbnail for one view.  Runs on a loader thread, and posts the result back to
+     * the main thread.
+     */
+    private final class Request implements Runnable {
+        private final ImageView mView;
+        private final String mUrl;
+        private final String mKey;
+        private final int mWidth;
+        private final int mHeight;
+        private volatile boolean mCancelled;
+
+        Request(ImageView view, String url, String key, int width, int height) {
+            mView = view;
+            mUrl = url;
+            mKey = key;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            Bitmap bitmap = null;
+            try {
+                File file = download(mUrl);
+                // A cancelled download is still stored, but not decoded
+                if (!mCancelled) {
+                    bitmap = decode(file, mWidth, mHeight);
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem loading the thumbnail " + mUrl, e);
+            }
+            if (bitmap == null) {
+                return;
+            }
+
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Another request may have decoded the same thumbnail meanwhile
+                    Bitmap bitmap = mMemoryCache.get(mKey);
+                    boolean decodedFirst = bitmap == null;
+                    if (decodedFirst) {
+                        bitmap = result;
+                    }
+                    // Show it before caching it, so it can't be released if the cache evicts it
+                    if (!mCancelled && mRequests.get(mView) == Request.this) {
+                        show(mView, bitmap);
+                    }
+                    if (decodedFirst) {
+                        mCachedBitmaps.add(result);
+                        mMemoryCache.put(mKey, result);
+                    } else {
+                        releaseIfUnused(result);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.newsapp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An {@link HttpTransport} backed by the platform {@link HttpURLConnection}.  Connections are
+ * never disconnected; closing a fully read response returns the connection to the platform's
+ * keep-alive pool instead.  Responses are requested gzip-compressed and decompressed here, so the
+ * compressed size can be counted.  There is no HTTP/2 support, which is why
+ * {@link OkHttpTransport} is the default.
+ */
+public final class UrlConnectionTransport implements HttpTransport {
+
+    private final ConnectionStats mStats = new ConnectionStats();
+
+    @Override
+    public Response get(URL url, Map<String, String> headers) throws IOException {
+        return get(url, headers, RequestPolicy.DEFAULT_TIMEOUT_MILLIS, 15000, null);
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> headers, int timeoutMillis,
+            CancellationToken cancellation) throws IOException {
+        return get(url, headers, timeoutMillis, timeoutMillis, cancellation);
+    }
+
+    /**
+     * Sends the request with the given timeouts.  The cancellation token may be null.
+     */
+    private Response get(URL url, Map<String, String> headers, int readTimeoutMillis,
+            int connectTimeoutMillis, final CancellationToken cancellation) throws IOException {
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        // Disconnecting closes the socket, which fails any blocked read; the connection can't be
+        // reused after that, but it is being abandoned anyway
+        final Runnable disconnect = new Runnable() {
+            @Override
+            public void run() {
+                urlConnection.disconnect();
+            }
+        };
+        urlConnection.setReadTimeout(readTimeoutMillis);
+        urlConnection.setConnectTimeout(connectTimeoutMillis);
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (cancellation != null) {
+            cancellation.register(disconnect);
+        }
+        final long connectStart = System.nanoTime();
+        try {
+            urlConnection.connect();
+        } catch (IOException e) {
+            if (cancellation != null) {
+                cancellation.unregister(disconnect);
+            }
+            throw e;
+        }
+
+        // HttpURLConnection doesn't say whether the connection came from the pool
+        mStats.recordRequestOnUnknownConnection();
+        final long connectMicros = (System.nanoTime() - connectStart) / 1000;
+
+        return new Response() {
+            private InputStream mBody;
+
+            private volatile long mFirstByteMicros = -1;
+
+            @Override
+            public int getCode() throws IOException {
+                if (mFirstByteMicros >= 0) {
+                    return urlConnection.getResponseCode();
+                }
+                // The first call sends the request and waits for the response headers
+                long start = System.nanoTime();
+                int code = urlConnection.getResponseCode();
+                mFirstByteMicros = (System.nanoTime() - start) / 1000;
+                return code;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return urlConnection.getHeaderField(name);
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                InputStream in = new CountingInputStream(urlConnection.getInputStream());
+                if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    in = new GZIPInputStream(in);
+                }
+                mBody = in;
+                return in;
+            }
+
+            @Override
+            public long getConnectMicros() {
+                return connectMicros;
+            }
+
+            @Override
+            public long getFirstByteMicros() {
+                return mFirstByteMicros;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (cancellation != null) {
+                    cancellation.unregister(disconnect);
+                }
+                if (mBody != null) {
+                    mBody.close();
+                } else {
+                    discardBody(urlConnection);
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads and closes the body of a response nobody asked for, such as the error body of a
+     * response that wasn't "200 OK".  A connection only goes back to the keep-alive pool once its
+     * body has been read to the end and closed.
+     */
+    private static void discardBody(HttpURLConnection urlConnection) {
+        InputStream body = null;
+        try {
+            body = urlConnection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? urlConnection.getErrorStream() : urlConnection.getInputStream();
+            if (body != null) {
+                byte[] buffer = new byte[4096];
+                while (body.read(buffer) != -1) {
+                    // Error bodies are small, a few hundred bytes from the Guardian
+                }
+            }
+        } catch (IOException e) {
+            // The connection is dropped instead of reused
+        } finally {
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException e) {
+                    // Nothing left to read from it
+                }
+            }
+        }
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Counts the bytes read from the network into the connection statistics.
+     */
+    private final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mStats.recordBytesReceived(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mStats.recordBytesReceived(read);
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.newsapp.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Guardian search responses used as benchmark input, in two shapes: with the contributor tags
+ * the app used to request (show-tags=contributor), or with only the byline it requests now
+ * (show-fields=byline).  A recorded response is read from "fixtures/search-&lt;results&gt;.json"
+ * or "fixtures/search-&lt;results&gt;-byline.json" on the classpath when there is one (record it
+ * with page-size=&lt;results&gt;); otherwise a response with the same shape as a real one is
+ * generated, with a fixed seed so every run parses the same bytes.
+ */
+final class GuardianFixtures {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[][] SECTIONS = {
+            {"us-news", "US news"},
+            {"world", "World news"},
+            {"commentisfree", "Opinion"},
+            {"environment", "Environment"},
+            {"film", "Film"},
+            {"books", "Books"},
+    };
+
+    private static final String[] WORDS = {
+            "alaska", "anchorage", "juneau", "salmon", "glacier", "senator", "oil", "pipeline",
+            "wildfire", "tribe", "climate", "fishery", "arctic", "election", "court", "ruling",
+            "drilling", "refuge", "earthquake", "tsunami", "warning", "village", "caribou",
+    };
+
+    private GuardianFixtures() {
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a search response with the given number of results, with either
+     * the contributor tags or the byline of each result.
+     */
+    static byte[] searchResponse(int results, boolean byline) throws IOException {
+        InputStream recorded = GuardianFixtures.class.getResourceAsStream(
+                "/fixtures/search-" + results + (byline ? "-byline" : "") + ".json");
+        if (recorded != null) {
+            try {
+                return readFully(recorded);
+            } finally {
+                recorded.close();
+            }
+        }
+        return generate(results, byline).getBytes(UTF_8);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String generate(int results, boolean byline) {
+        Random random = new Random(results);
+        StringBuilder json = new StringBuilder(results * 1200);
+        json.append("{\"response\":{\"status\":\"ok\",\"userTier\":\"developer\",\"total\":")
+                .append(results * 37)
+                .append(",\"startIndex\":1,\"pageSize\":").append(results)
+                .append(",\"currentPage\":1,\"pages\":37,\"orderBy\":\"newest\",\"results\":[");
+        for (int i = 0; i < results; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendResult(json, i, random, byline);
+        }
+        json.append("]}}");
+        return json.toString();
+    }
+
+    private static void appendResult(StringBuilder json, int index, Random random,
+            boolean byline) {
+        String[] section = SECTIONS[random.nextInt(SECTIONS.length)];
+        String title = words(random, 6 + random.nextInt(10));
+        String slug = title.toLowerCase().replace(' ', '-');
+        String path = section[0] + "/2018/sep/" + (10 + index % 18) + "/" + slug;
+        String date = String.format("2018-09-%02dT%02d:%02d:%02dZ", 10 + index % 18,
+                random.nextInt(24), random.nextInt(60), random.nextInt(60));
+
+        json.append("{\"id\":\"").append(path)
+                .append("\",\"type\":\"article\",\"sectionId\":\"").append(section[0])
+                .append("\",\"sectionName\":\"").append(section[1])
+                .append("\",\"webPublicationDate\":\"").append(date)
+                .append("\",\"webTitle\":\"").append(title)
+                .append("\",\"webUrl\":\"https://www.theguardian.com/").append(path)
+                .append("\",\"apiUrl\":\"https://content.guardianapis.com/").append(path)
+                .append('"');
+        int contributors = random.nextInt(3);
+        if (byline) {
+            json.append(",\"fields\":{");
+            if (contributors > 0) {
+                json.append("\"byline\":\"");
+                for (int c = 0; c < contributors; c++) {
+                    json.append(c > 0 ? " and " : "")
+                            .append(capitalize(WORDS[random.nextInt(WORDS.length)])).append(' ')
+                            .append(capitalize(WORDS[random.nextInt(WORDS.length)]));
+                }
+                json.append('"');
+            }
+            json.append("},\"isHosted\":false,\"pillarId\":\"pillar/news\",\"pillarName\":\"News\"}");
+            return;
+        }
+        json.append(",\"tags\":[");
+        for (int c = 0; c < contributors; c++) {
+            if (c > 0) {
+                json.append(',');
+            }
+            String first = capitalize(WORDS[random.nextInt(WORDS.length)]);
+            String last = capitalize(WORDS[random.nextInt(WORDS.length)]);
+            String id = "profile/" + first.toLowerCase() + "-" + last.toLowerCase();
+            json.append("{\"id\":\"").append(id)
+                    .append("\",\"type\":\"contributor\",\"webTitle\":\"").append(first).append(' ').append(last)
+                    .append("\",\"webUrl\":\"https://www.theguardian.com/").append(id)
+                    .append("\",\"apiUrl\":\"https://content.guardianapis.com/").append(id)
+                    .append("\",\"references\":[],\"bio\":\"<p>").append(first).append(' ').append(last)
+                    .append(" writes about ").append(words(random, 8))
+                    .append("</p>\",\"firstName\":\"").append(first.toLowerCase())
+                    .append("\",\"lastName\":\"").append(last.toLowerCase()).append("\"}");
+        }
+        json.append("],\"isHosted\":false,\"pillarId\":\"pillar/news\",\"pillarName\":\"News\"}");
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            words.append(i == 0 ? capitalize(word) : word);
+        }
+        return words.toString();
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.newsapp.benchmarks;
+
+import com.example.android.newsapp.News;
+import com.example.android.newsapp.NewsJsonParser;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parse paths of a Guardian search response, for responses of 10 to 1000 results,
+ * with contributor tags or with only a byline per result.
+ *
+ * Besides responses per second, every benchmark counts the articles it parsed, so JMH also
+ * reports articles per second ("articles").  The gc profiler reports "gc.alloc.rate.norm", the
+ * bytes allocated per response; divide it by the number of results for the allocation per
+ * article.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParseBenchmark {
+
+    @Param({"10", "50", "200", "1000"})
+    public int results;
+
+    /** Whether the response has a byline per result, rather than contributor tags */
+    @Param({"false", "true"})
+    public boolean byline;
+
+    private byte[] mResponse;
+
+    /**
+     * Counts the parsed articles, reported by JMH as a throughput next to the primary result.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ArticleCounter {
+        public long articles;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            articles = 0;
+        }
+    }
+
+    @Setup
+    public void loadFixture() throws IOException {
+        mResponse = GuardianFixtures.searchResponse(results, byline);
+    }
+
+    /**
+     * The path used by the app: only the projected values are decoded from the UTF-8 bytes.
+     */
+    @Benchmark
+    public List<News> streaming(ArticleCounter counter) throws IOException {
+        List<News> articles = new ArrayList<>();
+        NewsJsonParser.readArticlesFromStream(new ByteArrayInputStream(mResponse), articles, null);
+        counter.articles += articles.size();
+        return articles;
+    }
+
+    /**
+     * The previous streaming path: every token is decoded by a JsonReader.
+     */
+    @Benchmark
+    public List<News> jsonReader(ArticleCounter counter) throws IOException {
+        List<News> articles = new ArrayList<>();
+        NewsJsonParser.readArticlesWithJsonReader(new ByteArrayInputStream(mResponse), articles,
+                null);
+        counter.articles += articles.size();
+        return articles;
+    }
+
+    /**
+     * The original path: the whole body is read into a String, then parsed into an org.json DOM.
+     */
+    @Benchmark
+    public List<News> stringAndDom(ArticleCounter counter) throws IOException {
+        String json = NewsJsonParser.readFromStream(new ByteArrayInputStream(mResponse));
+        List<News> articles = NewsJsonParser.extractArticleFromJson(json);
+        counter.articles += articles.size();
+        return articles;
+    }
+
+    /**
+     * Reading the body into a String alone, to split the original path's cost.
+     */
+    @Benchmark
+    public String readFromStream() throws IOException {
+        return NewsJsonParser.readFromStream(new ByteArrayInputStream(mResponse));
+    }
+}
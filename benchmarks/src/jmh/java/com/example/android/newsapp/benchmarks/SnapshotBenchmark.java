@@ -0,0 +1,77 @@
+package com.example.android.newsapp.benchmarks;
+
+import com.example.android.newsapp.FeedSnapshot;
+import com.example.android.newsapp.News;
+import com.example.android.newsapp.NewsJsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what cold start costs before the first rows can be drawn: decoding the feed snapshot,
+ * against parsing the same articles from a cached Guardian response (the fastest the loader can
+ * do without the network).  The snapshot is decoded both from memory and from a memory-mapped
+ * file, as the app reads it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotBenchmark {
+
+    private static final String KEY = "benchmark";
+
+    /** Rows in the snapshot; the app shows the first page of every selected section */
+    @Param({"20", "100"})
+    public int results;
+
+    private byte[] mResponse;
+    private byte[] mSnapshot;
+    private File mSnapshotFile;
+
+    @Setup
+    public void writeSnapshot() throws IOException {
+        mResponse = GuardianFixtures.searchResponse(results, true);
+        List<News> articles = new ArrayList<>();
+        NewsJsonParser.readArticlesFromStream(new ByteArrayInputStream(mResponse), articles, null);
+        mSnapshot = FeedSnapshot.encode(KEY, articles);
+        mSnapshotFile = File.createTempFile("feed", ".snapshot");
+        FeedSnapshot.write(mSnapshotFile, KEY, articles);
+    }
+
+    @TearDown
+    public void deleteSnapshot() {
+        mSnapshotFile.delete();
+    }
+
+    @Benchmark
+    public List<News> decodeSnapshot() throws IOException {
+        return FeedSnapshot.decode(ByteBuffer.wrap(mSnapshot), KEY);
+    }
+
+    @Benchmark
+    public List<News> readMappedSnapshot() throws IOException {
+        return FeedSnapshot.read(mSnapshotFile, KEY);
+    }
+
+    @Benchmark
+    public List<News> parseResponse() throws IOException {
+        List<News> articles = new ArrayList<>();
+        NewsJsonParser.readArticlesFromStream(new ByteArrayInputStream(mResponse), articles, null);
+        return articles;
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.newsapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary copy of the last feed that was shown, read at cold start so the previous rows
+ * can be drawn before the loader has even started.  The file is memory-mapped and decoded in one
+ * pass, without any parsing of text formats.
+ *
+ * Layout, with every number a big-endian int or an unsigned LEB128 varint:
+ *
+ *   int     magic "NWSS"
+ *   varint  format version
+ *   string  key of the feed, so a snapshot of another query or other settings is never shown
+ *   varint  number of strings, then every string
+ *   varint  number of articles, then every article as six string references: section, title,
+ *           date, author, web URL and thumbnail URL
+ *
+ * A string is its length in UTF-8 bytes followed by the bytes.  A string reference is the index
+ * of the string in the table plus one, or 0 for null.  Every distinct string is only stored once,
+ * which mostly saves the section and author names repeated over the feed.
+ */
+public final class FeedSnapshot {
+
+    /** "NWSS" */
+    private static final int MAGIC = 0x4E575353;
+
+    /** Bumped whenever the layout changes; snapshots of other versions are ignored */
+    private static final int VERSION = 1;
+
+    /** References per article */
+    private static final int FIELDS = 6;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private FeedSnapshot() {
+    }
+
+    /**
+     * Writes the snapshot of the given feed to the given file, replacing the previous one.  The
+     * file is replaced in one rename, so readers never see a partial snapshot.
+     */
+    public static void write(File file, String key, List<News> articles) throws IOException {
+        byte[] snapshot = encode(key, articles);
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(snapshot);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Returns the articles of the snapshot in the given file, or null if there is no snapshot of
+     * the given feed.
+     *
+     * @throws IOException if the file can't be read or is corrupt
+     */
+    public static List<News> read(File file, String key) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer, key);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the snapshot of the given feed.
+     */
+    public static byte[] encode(String key, List<News> articles) {
+        // Give every distinct string an index, in order of first appearance
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] references = new int[articles.size() * FIELDS];
+        int next = 0;
+        for (News article : articles) {
+            String[] fields = {article.getSection(), article.getTitle(), article.getDate(),
+                    article.getAuthor(), article.getUrl(), article.getThumbnailUrl()};
+            for (String field : fields) {
+                int reference = 0;
+                if (field != null) {
+                    Integer index = indexes.get(field);
+                    if (index == null) {
+                        index = strings.size();
+                        indexes.put(field, index);
+                        strings.add(field);
+                    }
+                    reference = index + 1;
+                }
+                references[next++] = reference;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 + articles.size() * 256);
+        writeInt(out, MAGIC);
+        writeVarint(out, VERSION);
+        writeString(out, key);
+        writeVarint(out, strings.size());
+        for (String string : strings) {
+            writeString(out, string);
+        }
+        writeVarint(out, articles.size());
+        for (int reference : references) {
+            writeVarint(out, reference);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the articles of the given snapshot, or null if it is a snapshot of another feed or
+     * of another format version.
+     *
+     * @throws IOException if the snapshot is corrupt
+     */
+    public static List<News> decode(ByteBuffer buffer, String key) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a feed snapshot");
+            }
+            if (readVarint(buffer) != VERSION) {
+                return null;
+            }
+            byte[] scratch = new byte[256];
+            if (!key.equals(readString(buffer, scratch))) {
+                return null;
+            }
+
+            String[] strings = new String[readCount(buffer)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer, scratch);
+            }
+
+            int count = readCount(buffer);
+            NewsBatch.Builder articles = new NewsBatch.Builder();
+            String[] fields = new String[FIELDS];
+            for (int i = 0; i < count; i++) {
+                for (int field = 0; field < FIELDS; field++) {
+                    int reference = readVarint(buffer);
+                    if (reference < 0 || reference > strings.length) {
+                        throw new IOException("Bad string reference " + reference);
+                    }
+                    fields[field] = reference == 0 ? null : strings[reference - 1];
+                }
+                articles.add(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]);
+            }
+            return articles.build();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated feed snapshot", e);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static int readVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Reads a count, which can't be larger than the rest of the snapshot.
+     */
+    private static int readCount(ByteBuffer buffer) throws IOException {
+        int count = readVarint(buffer);
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IOException("Bad count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads a string, decoding it through the given scratch array unless it is longer.
+     */
+    private static String readString(ByteBuffer buffer, byte[] scratch) throws IOException {
+        int length = readCount(buffer);
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, UTF_8);
+    }
+}
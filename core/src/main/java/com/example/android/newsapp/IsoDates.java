@@ -0,0 +1,225 @@
+package com.example.android.newsapp;
+
+/**
+ * Parses the ISO-8601 timestamps sent by the Guardian API, such as "2018-09-27T08:52:24Z", into
+ * milliseconds since the epoch.  Unlike SimpleDateFormat, parsing is thread-safe and allocates
+ * nothing, which matters because it runs once for every article parsed.
+ *
+ * Besides the "Z" form the Guardian uses, fractional seconds and "+hh:mm"/"-hh:mm" offsets are
+ * accepted too.  Times can be formatted back to the Guardian form, so a timestamp that is
+ * exactly that form of its time doesn't need to be kept next to the time.
+ */
+public final class IsoDates {
+
+    /** Returned when a timestamp can't be parsed */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    /** Largest time zone offset, as in java.time.ZoneOffset */
+    private static final long MAX_OFFSET_MILLIS = 18 * MILLIS_PER_HOUR;
+
+    /** Length of a timestamp in the Guardian form, "yyyy-MM-ddTHH:mm:ssZ" */
+    private static final int FORMATTED_LENGTH = 20;
+
+    /**
+     * Create a private constructor.  This class is only meant to hold static methods.
+     */
+    private IsoDates() {
+    }
+
+    /**
+     * Returns the given timestamp in milliseconds since the epoch, or {@link #INVALID} if it is
+     * null or not a valid "yyyy-MM-ddTHH:mm:ss[.SSS](Z|+hh:mm|-hh:mm)" timestamp.  A date that
+     * doesn't exist, such as February 31st, or an offset beyond 18 hours is invalid rather than
+     * rolled over into some other time.
+     */
+    public static long parseMillis(CharSequence s) {
+        if (s == null || s.length() < 20) {
+            return INVALID;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 60
+                || s.charAt(4) != '-' || s.charAt(7) != '-'
+                || (s.charAt(10) != 'T' && s.charAt(10) != ' ')
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return INVALID;
+        }
+
+        // Optional fraction of a second, of which only milliseconds are kept
+        int pos = 19;
+        int millis = 0;
+        if (s.charAt(pos) == '.') {
+            pos++;
+            int scale = 100;
+            while (pos < s.length() && isDigit(s.charAt(pos))) {
+                millis += (s.charAt(pos) - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+        }
+
+        // Time zone designator
+        if (pos >= s.length()) {
+            return INVALID;
+        }
+        long offsetMillis;
+        char zone = s.charAt(pos);
+        if (zone == 'Z' && pos + 1 == s.length()) {
+            offsetMillis = 0;
+        } else if ((zone == '+' || zone == '-') && pos + 6 == s.length() && s.charAt(pos + 3) == ':') {
+            int offsetHours = digits(s, pos + 1, 2);
+            int offsetMinutes = digits(s, pos + 4, 2);
+            if (offsetHours < 0 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return INVALID;
+            }
+            offsetMillis = offsetHours * MILLIS_PER_HOUR + offsetMinutes * MILLIS_PER_MINUTE;
+            if (offsetMillis > MAX_OFFSET_MILLIS) {
+                return INVALID;
+            }
+            if (zone == '-') {
+                offsetMillis = -offsetMillis;
+            }
+        } else {
+            return INVALID;
+        }
+
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + hour * MILLIS_PER_HOUR
+                + minute * MILLIS_PER_MINUTE
+                + second * MILLIS_PER_SECOND
+                + millis
+                - offsetMillis;
+    }
+
+    /**
+     * Returns the given time as a timestamp in the form the Guardian uses,
+     * "yyyy-MM-ddTHH:mm:ssZ", without the milliseconds.  Years outside 0 to 9999 are not
+     * supported.
+     */
+    public static String format(long millis) {
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        long millisOfDay = millis - days * MILLIS_PER_DAY;
+        long date = civilFromDays(days);
+        char[] chars = new char[FORMATTED_LENGTH];
+        writeDigits(chars, 0, 4, (int) (date / 10000));
+        chars[4] = '-';
+        writeDigits(chars, 5, 2, (int) (date / 100 % 100));
+        chars[7] = '-';
+        writeDigits(chars, 8, 2, (int) (date % 100));
+        chars[10] = 'T';
+        writeDigits(chars, 11, 2, (int) (millisOfDay / MILLIS_PER_HOUR));
+        chars[13] = ':';
+        writeDigits(chars, 14, 2, (int) (millisOfDay / MILLIS_PER_MINUTE % 60));
+        chars[16] = ':';
+        writeDigits(chars, 17, 2, (int) (millisOfDay / MILLIS_PER_SECOND % 60));
+        chars[19] = 'Z';
+        return new String(chars);
+    }
+
+    /**
+     * Returns whether {@link #format} of the given time is exactly the given timestamp, so the
+     * timestamp can be rebuilt from the time.  Allocates nothing.
+     */
+    public static boolean isFormatOf(CharSequence s, long millis) {
+        if (s == null || s.length() != FORMATTED_LENGTH || millis == INVALID
+                || millis % MILLIS_PER_SECOND != 0) {
+            return false;
+        }
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        long millisOfDay = millis - days * MILLIS_PER_DAY;
+        long date = civilFromDays(days);
+        // The separators were checked when the time was parsed from s, except the "T" and "Z"
+        return s.charAt(10) == 'T' && s.charAt(19) == 'Z'
+                && digits(s, 0, 4) == date / 10000
+                && digits(s, 5, 2) == date / 100 % 100
+                && digits(s, 8, 2) == date % 100
+                && digits(s, 11, 2) == millisOfDay / MILLIS_PER_HOUR
+                && digits(s, 14, 2) == millisOfDay / MILLIS_PER_MINUTE % 60
+                && digits(s, 17, 2) == millisOfDay / MILLIS_PER_SECOND % 60;
+    }
+
+    /**
+     * Returns the number of days of the given month of the proleptic Gregorian calendar.
+     */
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * Returns the number of days between 1970-01-01 and the given date of the proleptic
+     * Gregorian calendar (Howard Hinnant's days_from_civil algorithm).
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the date of the proleptic Gregorian calendar the given number of days after
+     * 1970-01-01, as year * 10000 + month * 100 + day (Howard Hinnant's civil_from_days
+     * algorithm).
+     */
+    private static long civilFromDays(long days) {
+        days += 719468;
+        long era = (days >= 0 ? days : days - 146096) / 146097;
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    /** Math.floorDiv, which Android only has from API level 24 */
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return dividend % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    private static void writeDigits(char[] chars, int start, int count, int value) {
+        for (int i = start + count - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Returns the value of the given number of decimal digits starting at start, or -1 if one of
+     * them is not a digit.
+     */
+    private static int digits(CharSequence s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.android.newsapp;
+
+import java.util.Comparator;
+
+/**
+ * an {@link News} object contains information related to a single news article.  It is a view
+ * of one row of a {@link NewsBatch}, which holds the fields of all its articles column-wise; an
+ * article made with a constructor is the only row of columns of its own, which costs more than a
+ * row of a batch, so the app builds its articles through batches.  A view keeps the whole chunk
+ * of rows it belongs to in memory, see {@link NewsBatch#compact}.
+ */
+
+public class News {
+
+    /**
+     * Orders articles from the most to the least recently published; articles without a valid
+     * date come last.
+     */
+    public static final Comparator<News> NEWEST_FIRST = new Comparator<News>() {
+        @Override
+        public int compare(News a, News b) {
+            // IsoDates.INVALID is the smallest long, so undated articles sort last
+            long aTime = a.getTimeInMillis();
+            long bTime = b.getTimeInMillis();
+            return aTime < bTime ? 1 : (aTime > bTime ? -1 : 0);
+        }
+    };
+
+    /**
+     * Columns of the batch the article belongs to
+     */
+    private final NewsBatch.Columns mColumns;
+
+    /**
+     * Row of the article in mColumns
+     */
+    private final int mIndex;
+
+    /**
+     * Constructs a new {@link News} object without a thumbnail.
+     *  @param section   is the name of the section
+     * @param title     is the title for article
+     * @param date      is the date of the article
+     * @param author is the full name of the author
+     * @param webUrl
+     */
+    public News(String section, String title, String date, String author, String webUrl) {
+        this(section, title, date, author, webUrl, null);
+    }
+
+    /**
+     * Constructs a new {@link News} object.
+     *  @param section   is the name of the section
+     * @param title     is the title for article
+     * @param date      is the date of the article
+     * @param author is the full name of the author
+     * @param webUrl
+     * @param thumbnailUrl is the URL of the thumbnail image, or null
+     */
+    public News(String section, String title, String date, String author, String webUrl,
+                String thumbnailUrl) {
+        mColumns = new NewsBatch.Columns(1);
+        mColumns.set(0, section, title, date, author, webUrl, thumbnailUrl);
+        mIndex = 0;
+    }
+
+    /**
+     * Constructs the view of the given row of a batch.
+     */
+    News(NewsBatch.Columns columns, int index) {
+        mColumns = columns;
+        mIndex = index;
+    }
+
+    /**
+     * Returns the columns this article is a row of, which it keeps in memory.
+     */
+    NewsBatch.Columns getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * Adds a copy of this article to the given batch, and returns it.
+     */
+    News copyTo(NewsBatch.Builder builder) {
+        return builder.add(getSection(), getTitle(), mColumns.mDates[mIndex], getTimeInMillis(),
+                getAuthor(), getUrl(), getThumbnailUrl());
+    }
+
+    /**
+     * Returns the name of the section for the article.
+     */
+    public String getSection() {
+        return mColumns.mSections[mIndex];
+    }
+
+    /**
+     * Returns the title for the article.
+     */
+    public String getTitle() {
+        return mColumns.mTitles[mIndex];
+    }
+
+    /**
+     * Returns the date of the article.  A date that can be rebuilt from its time is formatted on
+     * every call, so callers needing it more than once keep it.
+     */
+    public String getDate() {
+        return mColumns.getDate(mIndex);
+    }
+
+    /**
+     * Returns the date of the article in milliseconds since the epoch, or {@link IsoDates#INVALID}
+     * if it has no valid date
+     */
+    public long getTimeInMillis() {
+        return mColumns.mTimesInMillis[mIndex];
+    }
+
+    /**
+     * Returns the first name of the author
+     */
+    public String getAuthor() {
+        return mColumns.mAuthors[mIndex];
+    }
+
+    /**
+     * Returns the URL for the article
+     */
+    public String getUrl() {
+        return mColumns.mWebUrls[mIndex];
+    }
+
+    /**
+     * Returns the URL of the thumbnail image, or null if the article has none
+     */
+    public String getThumbnailUrl() {
+        return mColumns.mThumbnailUrls[mIndex];
+    }
+
+    /**
+     * Two articles are equal when all of their fields are equal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof News)) {
+            return false;
+        }
+        News other = (News) o;
+        return equal(getSection(), other.getSection())
+                && equal(getTitle(), other.getTitle())
+                && mColumns.dateEquals(mIndex, other.mColumns, other.mIndex)
+                && equal(getAuthor(), other.getAuthor())
+                && equal(getUrl(), other.getUrl())
+                && equal(getThumbnailUrl(), other.getThumbnailUrl());
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public int hashCode() {
+        String webUrl = getUrl();
+        return webUrl != null ? webUrl.hashCode() : 0;
+    }
+
+}
@@ -0,0 +1,330 @@
+package com.example.android.newsapp;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of articles, such as a parsed page, stored column-wise: every field of the
+ * articles is kept in an array of its own rather than in an object per article, and the section
+ * and author names, of which a page only has a handful, are deduplicated through a string table
+ * of the batch.  A publication date is only kept as a string when it can't be rebuilt from its
+ * time, which the dates of the Guardian always can.  Every row has a single {@link News} view,
+ * made when the row is added, so reading the batch allocates nothing and the lists made from
+ * it, such as merged or windowed pages, share the views rather than copying any articles.
+ *
+ * The columns and the views are allocated in chunks that are never moved, so an article handed
+ * out while the batch is being built, for instance to show it before the rest of the page is
+ * parsed, stays valid as the batch grows.  The chunks double in size up to {@link #CHUNK_SIZE}
+ * rows, so a small batch doesn't take the room of a large one.
+ *
+ * A view keeps the whole chunk of its row in memory.  A list that picks a few articles out of
+ * many batches, such as the articles held back from merged pages, can so keep far more rows
+ * than it has; {@link #compact} copies such a list into a batch of its own before it is kept
+ * for long.
+ */
+public final class NewsBatch extends AbstractList<News> implements RandomAccess {
+
+    /** Rows of the first chunk of the columns */
+    private static final int FIRST_CHUNK_SIZE = 8;
+
+    /** Rows of every chunk once they stop growing */
+    private static final int CHUNK_SIZE = 64;
+
+    /** Rows in the growing chunks, 8 + 16 + 32 */
+    private static final int GROWING_ROWS = CHUNK_SIZE - FIRST_CHUNK_SIZE;
+
+    /** Number of growing chunks */
+    private static final int GROWING_CHUNKS =
+            Integer.numberOfTrailingZeros(CHUNK_SIZE / FIRST_CHUNK_SIZE);
+
+    /** Views of the rows, chunk by chunk */
+    private final News[][] mChunks;
+
+    private final int mSize;
+
+    private NewsBatch(News[][] chunks, int size) {
+        mChunks = chunks;
+        mSize = size;
+    }
+
+    @Override
+    public News get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+        if (index >= GROWING_ROWS) {
+            int offset = index - GROWING_ROWS;
+            return mChunks[GROWING_CHUNKS + offset / CHUNK_SIZE][offset % CHUNK_SIZE];
+        }
+        // Chunk k starts at FIRST_CHUNK_SIZE * (2^k - 1)
+        int chunk = 31 - Integer.numberOfLeadingZeros(index / FIRST_CHUNK_SIZE + 1);
+        return mChunks[chunk][index - FIRST_CHUNK_SIZE * ((1 << chunk) - 1)];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the given articles, or a copy of them in a new batch if the chunks their views keep
+     * in memory hold more than twice the rows the copy would.  The copy has views of its own,
+     * which are equal to the given articles.
+     */
+    public static List<News> compact(List<News> articles) {
+        Map<Columns, Columns> chunks = new IdentityHashMap<>();
+        long keptRows = 0;
+        for (News article : articles) {
+            Columns columns = article.getColumns();
+            if (chunks.put(columns, columns) == null) {
+                keptRows += columns.mTitles.length;
+            }
+        }
+        if (keptRows <= 2L * capacityFor(articles.size())) {
+            return articles;
+        }
+        Builder builder = new Builder();
+        for (News article : articles) {
+            article.copyTo(builder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of rows of the chunks of a batch of the given size.
+     */
+    static int capacityFor(int size) {
+        int capacity = 0;
+        int chunkSize = FIRST_CHUNK_SIZE;
+        while (capacity < size) {
+            capacity += chunkSize;
+            chunkSize = Math.min(chunkSize * 2, CHUNK_SIZE);
+        }
+        return capacity;
+    }
+
+    /**
+     * Adds articles to a batch, one at a time.  Not thread-safe, but the articles it returns may
+     * be handed to other threads.
+     */
+    public static final class Builder {
+
+        private final List<News[]> mChunks = new ArrayList<>();
+
+        private int mSize;
+
+        /** Columns and views of the last chunk, and the number of its rows in use */
+        private Columns mColumns;
+        private News[] mViews;
+        private int mRow;
+
+        private final StringTable mNames = new StringTable();
+
+        /**
+         * Adds an article to the batch and returns it.
+         */
+        public News add(String section, String title, String date, String author, String webUrl,
+                        String thumbnailUrl) {
+            long timeInMillis = IsoDates.parseMillis(date);
+            return add(section, title, keptDate(date, timeInMillis), timeInMillis, author, webUrl,
+                    thumbnailUrl);
+        }
+
+        /**
+         * Adds an article whose date has already been parsed, and returns it.  The date string
+         * is null if it is the {@link IsoDates#format} of the time, or if there is no date.
+         */
+        News add(String section, String title, String date, long timeInMillis, String author,
+                 String webUrl, String thumbnailUrl) {
+            if (mColumns == null || mRow == mColumns.mTitles.length) {
+                int capacity = mColumns == null ? FIRST_CHUNK_SIZE
+                        : Math.min(mColumns.mTitles.length * 2, CHUNK_SIZE);
+                mColumns = new Columns(capacity);
+                mViews = new News[capacity];
+                mChunks.add(mViews);
+                mRow = 0;
+            }
+            int row = mRow++;
+            mColumns.set(row, mNames.intern(section), title, date, timeInMillis,
+                    mNames.intern(author), webUrl, thumbnailUrl);
+            News article = new News(mColumns, row);
+            mViews[row] = article;
+            mSize++;
+            return article;
+        }
+
+        /**
+         * Returns the name of the batch made of the given characters, so a section or author
+         * name already in the batch is neither stored nor even allocated again.
+         */
+        String intern(char[] chars, int length) {
+            return mNames.intern(chars, length);
+        }
+
+        /** Returns the number of articles added so far */
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Returns the batch of the articles added so far.  More articles can be added to the
+         * builder afterwards, without changing the returned batch.
+         */
+        public NewsBatch build() {
+            return new NewsBatch(mChunks.toArray(new News[mChunks.size()][]), mSize);
+        }
+    }
+
+    /**
+     * The fields of a number of rows, one array per field.
+     */
+    static final class Columns {
+        final String[] mSections;
+        final String[] mTitles;
+        /** Dates {@link IsoDates#format} of their time doesn't give back, null for the others */
+        final String[] mDates;
+        final long[] mTimesInMillis;
+        final String[] mAuthors;
+        final String[] mWebUrls;
+        final String[] mThumbnailUrls;
+
+        Columns(int capacity) {
+            mSections = new String[capacity];
+            mTitles = new String[capacity];
+            mDates = new String[capacity];
+            mTimesInMillis = new long[capacity];
+            mAuthors = new String[capacity];
+            mWebUrls = new String[capacity];
+            mThumbnailUrls = new String[capacity];
+        }
+
+        void set(int row, String section, String title, String date, String author,
+                 String webUrl, String thumbnailUrl) {
+            long timeInMillis = IsoDates.parseMillis(date);
+            set(row, section, title, keptDate(date, timeInMillis), timeInMillis, author, webUrl,
+                    thumbnailUrl);
+        }
+
+        void set(int row, String section, String title, String date, long timeInMillis,
+                 String author, String webUrl, String thumbnailUrl) {
+            mSections[row] = section;
+            mTitles[row] = title;
+            mDates[row] = date;
+            mTimesInMillis[row] = timeInMillis;
+            mAuthors[row] = author;
+            mWebUrls[row] = webUrl;
+            mThumbnailUrls[row] = thumbnailUrl;
+        }
+
+        String getDate(int row) {
+            String date = mDates[row];
+            if (date != null || mTimesInMillis[row] == IsoDates.INVALID) {
+                return date;
+            }
+            return IsoDates.format(mTimesInMillis[row]);
+        }
+
+        /**
+         * Returns whether the date of the given row equals the date of the given row of other,
+         * without formatting either of them.
+         */
+        boolean dateEquals(int row, Columns other, int otherRow) {
+            // A kept date can't be the formatted time of any other row, or it wouldn't be kept
+            String date = mDates[row];
+            String otherDate = other.mDates[otherRow];
+            return date != null ? date.equals(otherDate)
+                    : otherDate == null && mTimesInMillis[row] == other.mTimesInMillis[otherRow];
+        }
+    }
+
+    /**
+     * Returns the given date if it has to be kept next to its time, or null if it can be rebuilt
+     * from the time.
+     */
+    static String keptDate(String date, long timeInMillis) {
+        return IsoDates.isFormatOf(date, timeInMillis) ? null : date;
+    }
+
+    /**
+     * A set of strings with open addressing, which finds a string from its characters without
+     * allocating it.
+     */
+    private static final class StringTable {
+
+        private String[] mSlots = new String[16];
+
+        private int mCount;
+
+        String intern(String value) {
+            if (value == null) {
+                return null;
+            }
+            int hash = value.hashCode();
+            int mask = mSlots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                String candidate = mSlots[slot];
+                if (candidate == null) {
+                    return insert(slot, value);
+                }
+                if (candidate.hashCode() == hash && candidate.equals(value)) {
+                    return candidate;
+                }
+            }
+        }
+
+        String intern(char[] chars, int length) {
+            // The same hash as String.hashCode, so both kinds of lookup find the same strings
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            int mask = mSlots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                String candidate = mSlots[slot];
+                if (candidate == null) {
+                    return insert(slot, new String(chars, 0, length));
+                }
+                if (candidate.hashCode() == hash && contentEquals(candidate, chars, length)) {
+                    return candidate;
+                }
+            }
+        }
+
+        private String insert(int slot, String value) {
+            mSlots[slot] = value;
+            mCount++;
+            // At most half full, so probes stay short
+            if (mCount * 2 > mSlots.length) {
+                String[] slots = mSlots;
+                mSlots = new String[slots.length * 2];
+                int mask = mSlots.length - 1;
+                for (String string : slots) {
+                    if (string != null) {
+                        int free = string.hashCode() & mask;
+                        while (mSlots[free] != null) {
+                            free = (free + 1) & mask;
+                        }
+                        mSlots[free] = string;
+                    }
+                }
+            }
+            return value;
+        }
+
+        private static boolean contentEquals(String string, char[] chars, int length) {
+            if (string.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (string.charAt(i) != chars[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.example.android.newsapp;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses Guardian API search responses into {@link News} articles.  This class has no Android
+ * dependencies, so the parsing core can be run and benchmarked on a plain JVM; org.json is
+ * provided by the Android platform in the app and must be supplied by the JVM user.
+ */
+public final class NewsJsonParser {
+
+    /**
+     * Logger for parse problems, which Android forwards to logcat
+     */
+    private static final Logger LOGGER = Logger.getLogger(NewsJsonParser.class.getSimpleName());
+
+    /**
+     * Author name used when an article has no contributor tag or byline
+     */
+    static final String NO_AUTHOR = "No Author";
+
+    /**
+     * Receives each {@link News} article as soon as it has been parsed from the response.
+     */
+    public interface ArticleListener {
+        void onArticleParsed(News article);
+    }
+
+    /**
+     * Receives the body of each article of a response requested with "show-fields=bodyText".
+     */
+    public interface BodyListener {
+        void onBodyParsed(String webUrl, String bodyText);
+    }
+
+    /**
+     * Create a private constructor.  This class is only meant to hold static methods.
+     */
+    private NewsJsonParser() {
+    }
+
+    /**
+     * Return a list of {@link News} objects that has been build up from parsing a given JSON
+     * response.
+     *
+     * @param newsJSON
+     * @return
+     */
+
+    public static List<News> extractArticleFromJson(String newsJSON) {
+        //If the JSON string is empty or null, then return early.
+        if (newsJSON == null || newsJSON.isEmpty()) {
+            return null;
+        }
+
+        //Create an empty batch that we can start adding news articles to
+        NewsBatch.Builder news = new NewsBatch.Builder();
+
+        // Try to parse the SAMPLE_JSON_RESPONSE.  If there is a problem with the way the JSON
+        // is formatted, a JSONException exception object will be thrown, the exception will be
+        // caught, so the app doesn't crash, and and error message will be printed to the logs.
+        try {
+
+            // Create a JSONObject from the JSON response string
+            JSONObject baseJsonResponse = new JSONObject(newsJSON);
+
+            // Extract the JSONObject associated with the key called "response, which represents
+            // a list of news articles.
+            JSONObject newsArticles = baseJsonResponse.getJSONObject("response");
+
+            // For a given news article, extract the JSONObject associated with the key called
+            // "results", which represents a list of all results for a given article
+            JSONArray newsResult =  newsArticles.getJSONArray("results");
+
+            // For each result in the newsArray, create an {@link News} object
+            for (int i = 0; i < newsResult.length(); i++) {
+                String author = NO_AUTHOR;
+
+                // Get a single news article at position i within the list of articles.
+                JSONObject currentNewsArticle = newsResult.getJSONObject(i);
+
+                // Extract the value for the key called "sectionName"
+                String section = currentNewsArticle.getString("sectionName");
+
+                // Extract the value for the key called "webTitle"
+                String title = currentNewsArticle.getString("webTitle");
+
+                // Extract the value for the key called "webPublicationDate"
+                String date = currentNewsArticle.getString("webPublicationDate");
+
+                // Extract the value for the key called "webURL"
+                String webURL = currentNewsArticle.getString("webUrl");
+
+                // For a given news article, extract the JSONObject associated with the key called
+                // "tags", which represents a list of all tags for a given article.  Only requests
+                // made with "show-tags" have it.
+                JSONArray authorResults = currentNewsArticle.optJSONArray("tags");
+
+                // Without contributor tags, fall back on the byline, if it was requested with
+                // "show-fields".  The thumbnail also comes from there.
+                JSONObject fields = currentNewsArticle.optJSONObject("fields");
+                String thumbnail = null;
+                if (fields != null) {
+                    author = fields.optString("byline", author);
+                    thumbnail = fields.optString("thumbnail", null);
+                }
+
+                // If there are contributor tags, extract the author's name.  Otherwise keep the
+                // byline, or display NO_AUTHOR
+                if (authorResults != null) {
+                    for (int j = 0; j< authorResults.length(); j++) {
+                        // create a new object to display the authors name
+                        JSONObject currentTag = authorResults.getJSONObject(j);
+
+                        // Extract the value for the key called "author"
+                        author = currentTag.getString("webTitle");
+                        if (LOGGER.isLoggable(Level.FINEST)) {
+                            LOGGER.finest("Author Results name: " + author + ", article: " + title);
+                        }
+                    }
+                }
+
+                news.add(section, title, date, author, webURL, thumbnail);
+            }
+
+        } catch (JSONException e) {
+            // If an error is thrown when executing any of the above statements in the "try" block,
+            // the exception will be caught and the error message will be printed to the log.
+            LOGGER.log(Level.SEVERE, "Problem parsing the news JSON results", e);
+        }
+
+        // Return the list of news articles
+        return news.build();
+    }
+
+    /**
+     * Convert the {@link InputStream} into a String which contains the whole JSON response from
+     * the server, unchanged.  The body is decoded in blocks rather than line by line.
+     */
+    public static String readFromStream(InputStream inputStream) throws IOException {
+        StringBuilder output = new StringBuilder();
+        if (inputStream != null) {
+            Reader reader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                output.append(buffer, 0, read);
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * Extract the articles of a Guardian JSON response straight from the UTF-8 bytes of the
+     * {@link InputStream}, and add them to the given list.  Only the fields a {@link News} keeps
+     * are decoded; everything else is skipped without being decoded or allocated.  Neither the
+     * whole body nor a DOM of it is ever held in memory, and each article is passed to the
+     * listener as soon as it is complete.  Malformed JSON is reported by throwing an IOException,
+     * in which case the list holds the articles parsed up to that point.
+     */
+    public static void readArticlesFromStream(InputStream inputStream, List<News> news,
+            ArticleListener listener) throws IOException {
+        Utf8ArticleScanner.readArticles(inputStream, news, listener);
+    }
+
+    /**
+     * Like {@link #readArticlesFromStream(InputStream, List, ArticleListener)}, but adds the
+     * articles to the given {@link NewsBatch}, which keeps them column-wise and with every section
+     * and author name only once.  Keeping the built batch rather than a list of its articles is
+     * what retains the least memory per article.
+     */
+    public static void readArticlesFromStream(InputStream inputStream, NewsBatch.Builder batch,
+            ArticleListener listener) throws IOException {
+        Utf8ArticleScanner.readArticles(inputStream, batch, listener);
+    }
+
+    /**
+     * Parse the Guardian JSON response token by token with a {@link JsonReader}, and add the
+     * articles to the given list.  This decodes the whole body to characters and every member
+     * name to a String; {@link #readArticlesFromStream} does the same job on the bytes, and this
+     * is kept to compare against.  JsonReader reports malformed JSON by throwing an IOException
+     * or an IllegalStateException, in which case the list holds the articles parsed up to that
+     * point.
+     */
+    public static void readArticlesWithJsonReader(InputStream inputStream, List<News> news,
+            ArticleListener listener) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        NewsBatch.Builder batch = new NewsBatch.Builder();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            // Only the "response" object is of interest, skip everything else
+            if (!reader.nextName().equals("response")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("results")) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    News article = readArticle(reader, batch);
+                    news.add(article);
+                    if (listener != null) {
+                        listener.onArticleParsed(article);
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Parse a Guardian JSON response requested with "show-fields=bodyText", and pass the web URL
+     * and the body text of each of its articles to the listener.  Articles without a body are
+     * skipped.  Malformed JSON is reported by throwing an IOException or an
+     * IllegalStateException, after the bodies parsed up to that point were passed on.
+     */
+    public static void readBodiesFromStream(InputStream inputStream, BodyListener listener)
+            throws IOException {
+        JsonReader reader =
+                new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("response")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("results")) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readBody(reader, listener);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the web URL and the body text of a single element of "response.results".
+     */
+    private static void readBody(JsonReader reader, BodyListener listener) throws IOException {
+        String webURL = null;
+        String bodyText = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("webUrl")) {
+                webURL = nextStringOrNull(reader);
+            } else if (name.equals("fields") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                bodyText = readMember(reader, "bodyText");
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (webURL != null && bodyText != null) {
+            listener.onBodyParsed(webURL, bodyText);
+        }
+    }
+
+    /**
+     * Read a single element of "response.results" into a {@link News} object of the batch.
+     */
+    private static News readArticle(JsonReader reader, NewsBatch.Builder batch)
+            throws IOException {
+        String section = null;
+        String title = null;
+        String date = null;
+        String webURL = null;
+        String tagAuthor = null;
+        String byline = null;
+        String thumbnail = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("sectionName")) {
+                section = nextStringOrNull(reader);
+            } else if (name.equals("webTitle")) {
+                title = nextStringOrNull(reader);
+            } else if (name.equals("webPublicationDate")) {
+                date = nextStringOrNull(reader);
+            } else if (name.equals("webUrl")) {
+                webURL = nextStringOrNull(reader);
+            } else if (name.equals("tags") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                // As with the org.json path, the last contributor tag wins
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String tagTitle = readMember(reader, "webTitle");
+                    if (tagTitle != null) {
+                        tagAuthor = tagTitle;
+                    }
+                }
+                reader.endArray();
+            } else if (name.equals("fields") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (field.equals("byline")) {
+                        byline = nextStringOrNull(reader);
+                    } else if (field.equals("thumbnail")) {
+                        thumbnail = nextStringOrNull(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        String author = tagAuthor != null ? tagAuthor : byline != null ? byline : NO_AUTHOR;
+        return batch.add(section, title, date, author, webURL, thumbnail);
+    }
+
+    /**
+     * Read a single object, such as a tag, and return the given member, or null if it has none.
+     */
+    private static String readMember(JsonReader reader, String member) throws IOException {
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(member)) {
+                value = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+
+    /**
+     * Returns the next string value, or null if the value is a JSON null.
+     */
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.android.newsapp;
+
+import java.util.Locale;
+
+/**
+ * Turns what the user typed in the search box into a full-text search expression for the local
+ * article index of the app.  This has no Android dependencies, so it can be tested on a plain JVM.
+ */
+public final class SearchQuery {
+
+    /** Maximum number of words of a search query that are matched */
+    static final int MAX_TERMS = 8;
+
+    /**
+     * Create a private constructor.  This class is only meant to hold static methods.
+     */
+    private SearchQuery() {
+    }
+
+    /**
+     * Turns a user query into an FTS expression matching every word as a prefix, or returns null
+     * if the query has no words.  Only letters and digits are kept, and words are lower-cased so
+     * they can't be taken for FTS operators.
+     */
+    public static String toMatchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        int terms = 0;
+        int i = 0;
+        while (i < query.length() && terms < MAX_TERMS) {
+            while (i < query.length() && !Character.isLetterOrDigit(query.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                if (terms > 0) {
+                    match.append(' ');
+                }
+                match.append(query.substring(start, i).toLowerCase(Locale.ROOT)).append('*');
+                terms++;
+            }
+        }
+        return terms > 0 ? match.toString() : null;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.android.newsapp;
+
+import java.util.Calendar;
+
+/**
+ * Groups of publication times, relative to the current day in the device's time zone, used to
+ * group articles under headers such as "Today" or "Yesterday".
+ */
+public enum TimeBucket {
+    TODAY,
+    YESTERDAY,
+    THIS_WEEK,
+    OLDER,
+    UNKNOWN;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Returns the bucket of the given time.  Times after the current day, which a clock that is
+     * behind can make of a fresh article, count as today.
+     *
+     * @param timeInMillis publication time, or {@link IsoDates#INVALID}
+     * @param startOfToday start of the current day, from {@link #startOfToday}, which is worked
+     *                     out once for a whole list
+     */
+    public static TimeBucket of(long timeInMillis, long startOfToday) {
+        if (timeInMillis == IsoDates.INVALID) {
+            return UNKNOWN;
+        }
+        // Days are counted as 24 hours, which is off by an hour around DST changes
+        if (timeInMillis >= startOfToday) {
+            return TODAY;
+        } else if (timeInMillis >= startOfToday - MILLIS_PER_DAY) {
+            return YESTERDAY;
+        } else if (timeInMillis >= startOfToday - 6 * MILLIS_PER_DAY) {
+            return THIS_WEEK;
+        }
+        return OLDER;
+    }
+
+    /**
+     * Returns the local midnight that started the day of the given time.
+     */
+    public static long startOfToday(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,558 @@
+package com.example.android.newsapp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Extracts {@link News} articles from a Guardian search response by scanning its UTF-8 bytes
+ * directly.  Only the projected values are decoded: "sectionName", "webTitle",
+ * "webPublicationDate" and "webUrl" of each result, the "webTitle" of its contributor tags, and
+ * its "fields.byline" and "fields.thumbnail".  Every other value, however deeply nested, is
+ * skipped by scanning for its end, without decoding or allocating anything.  Member names are
+ * compared as bytes, in a reusable buffer.  The articles are added to a {@link NewsBatch}, and
+ * section and author names are looked up in the batch's string table straight from the decoded
+ * characters, so a name the page already had is not allocated again.
+ *
+ * A scanner is not thread-safe; {@link #readArticles} uses a new one for every response.  Names
+ * written with escape sequences never match a projected name, which the Guardian API never does.
+ */
+final class Utf8ArticleScanner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Longest member name that is compared; longer names never match a projected name */
+    private static final int MAX_NAME_LENGTH = 32;
+
+    private static final byte[] RESPONSE = utf8("response");
+    private static final byte[] RESULTS = utf8("results");
+    private static final byte[] SECTION_NAME = utf8("sectionName");
+    private static final byte[] WEB_TITLE = utf8("webTitle");
+    private static final byte[] WEB_PUBLICATION_DATE = utf8("webPublicationDate");
+    private static final byte[] WEB_URL = utf8("webUrl");
+    private static final byte[] TAGS = utf8("tags");
+    private static final byte[] FIELDS = utf8("fields");
+    private static final byte[] BYLINE = utf8("byline");
+    private static final byte[] THUMBNAIL = utf8("thumbnail");
+
+    private final InputStream mIn;
+    private final NewsBatch.Builder mBatch;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /** Position of the next byte in mBuffer, and end of the valid bytes */
+    private int mPos;
+    private int mLimit;
+
+    /** Number of bytes of the stream that were before mBuffer, for error messages */
+    private long mBufferOffset;
+
+    /** Bytes of the last member name read, and their number (-1 if it can never match) */
+    private final byte[] mName = new byte[MAX_NAME_LENGTH];
+    private int mNameLength;
+
+    /** Decoded characters of the string value being read */
+    private char[] mChars = new char[128];
+
+    /** The decoded characters, read without being copied into a String */
+    private final DecodedChars mDecoded = new DecodedChars();
+
+    private Utf8ArticleScanner(InputStream in, NewsBatch.Builder batch) {
+        mIn = in;
+        mBatch = batch;
+    }
+
+    /**
+     * Scans the response and adds its articles to the given batch, passing each one to the
+     * listener as soon as it is complete.  Malformed or truncated JSON, and invalid UTF-8 in a
+     * decoded value, are reported with an IOException, in which case the batch holds the
+     * articles scanned up to that point.
+     */
+    static void readArticles(InputStream in, NewsBatch.Builder batch,
+            NewsJsonParser.ArticleListener listener) throws IOException {
+        new Utf8ArticleScanner(in, batch).readResponse(null, listener);
+    }
+
+    /**
+     * Like {@link #readArticles(InputStream, NewsBatch.Builder, NewsJsonParser.ArticleListener)},
+     * but also adds the articles to the given list.
+     */
+    static void readArticles(InputStream in, List<News> news,
+            NewsJsonParser.ArticleListener listener) throws IOException {
+        new Utf8ArticleScanner(in, new NewsBatch.Builder()).readResponse(news, listener);
+    }
+
+    private void readResponse(List<News> news, NewsJsonParser.ArticleListener listener)
+            throws IOException {
+        expect('{');
+        while (nextMember()) {
+            // Only the "response" object is of interest, skip everything else
+            if (!nameIs(RESPONSE)) {
+                skipValue();
+                continue;
+            }
+            expect('{');
+            while (nextMember()) {
+                if (!nameIs(RESULTS)) {
+                    skipValue();
+                    continue;
+                }
+                expect('[');
+                while (nextElement()) {
+                    News article = readArticle();
+                    if (news != null) {
+                        news.add(article);
+                    }
+                    if (listener != null) {
+                        listener.onArticleParsed(article);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a single element of "response.results".  As with the other parse paths, the last
+     * contributor tag is the author, then the byline, then "No Author".
+     */
+    private News readArticle() throws IOException {
+        String section = null;
+        String title = null;
+        String date = null;
+        long timeInMillis = IsoDates.INVALID;
+        String webURL = null;
+        String tagAuthor = null;
+        String byline = null;
+        String thumbnail = null;
+
+        expect('{');
+        while (nextMember()) {
+            if (nameIs(SECTION_NAME)) {
+                section = readNameOrNull();
+            } else if (nameIs(WEB_TITLE)) {
+                title = readStringOrNull();
+            } else if (nameIs(WEB_PUBLICATION_DATE)) {
+                date = null;
+                timeInMillis = IsoDates.INVALID;
+                if (peek() == '"') {
+                    mPos++;
+                    mDecoded.mLength = decodeString();
+                    timeInMillis = IsoDates.parseMillis(mDecoded);
+                    // Only a date that can't be rebuilt from its time is allocated
+                    date = IsoDates.isFormatOf(mDecoded, timeInMillis) ? null
+                            : mDecoded.toString();
+                } else {
+                    skipValue();
+                }
+            } else if (nameIs(WEB_URL)) {
+                webURL = readStringOrNull();
+            } else if (nameIs(TAGS) && peek() == '[') {
+                expect('[');
+                while (nextElement()) {
+                    String tagTitle = readProjectedName(WEB_TITLE);
+                    if (tagTitle != null) {
+                        tagAuthor = tagTitle;
+                    }
+                }
+            } else if (nameIs(FIELDS) && peek() == '{') {
+                expect('{');
+                while (nextMember()) {
+                    if (nameIs(BYLINE)) {
+                        byline = readNameOrNull();
+                    } else if (nameIs(THUMBNAIL)) {
+                        thumbnail = readStringOrNull();
+                    } else {
+                        skipValue();
+                    }
+                }
+            } else {
+                skipValue();
+            }
+        }
+
+        String author = tagAuthor != null ? tagAuthor
+                : byline != null ? byline : NewsJsonParser.NO_AUTHOR;
+        return mBatch.add(section, title, date, timeInMillis, author, webURL, thumbnail);
+    }
+
+    /**
+     * Reads an object and returns the string value of the given member, a name of the batch, or
+     * null if it has none.  Skips a value that is not an object.
+     */
+    private String readProjectedName(byte[] name) throws IOException {
+        if (peek() != '{') {
+            skipValue();
+            return null;
+        }
+        String value = null;
+        expect('{');
+        while (nextMember()) {
+            if (nameIs(name)) {
+                value = readNameOrNull();
+            } else {
+                skipValue();
+            }
+        }
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------
+    // Structure
+
+    /**
+     * Moves to the next member of the current object and reads its name and the colon after it.
+     * Returns false, having consumed the closing brace, when the object has no more members.
+     */
+    private boolean nextMember() throws IOException {
+        int c = nextNonWhitespace();
+        if (c == '}') {
+            return false;
+        }
+        if (c == ',') {
+            c = nextNonWhitespace();
+        }
+        if (c != '"') {
+            throw syntaxError("Expected a member name");
+        }
+        readName();
+        expect(':');
+        return true;
+    }
+
+    /**
+     * Moves to the next element of the current array.  Returns false, having consumed the closing
+     * bracket, when the array has no more elements.
+     */
+    private boolean nextElement() throws IOException {
+        int c = peek();
+        if (c == ']') {
+            mPos++;
+            return false;
+        }
+        if (c == ',') {
+            mPos++;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the bytes of a member name into mName, up to and including its closing quote.
+     */
+    private void readName() throws IOException {
+        int length = 0;
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                mNameLength = length;
+                return;
+            }
+            if (b == '\\') {
+                // An escaped name never matches, but its escaped quote must not end it
+                read();
+                length = -1;
+            } else if (length >= 0) {
+                if (length < MAX_NAME_LENGTH) {
+                    mName[length++] = (byte) b;
+                } else {
+                    length = -1;
+                }
+            }
+        }
+    }
+
+    private boolean nameIs(byte[] name) {
+        if (mNameLength != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (mName[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips the next value, whatever it is, without decoding it.
+     */
+    private void skipValue() throws IOException {
+        int c = nextNonWhitespace();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            // Skip to the matching bracket; brackets inside strings don't count
+            int depth = 1;
+            while (depth > 0) {
+                int b = read();
+                if (b == '"') {
+                    skipString();
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            // A number, true, false or null: skip to the end of the literal
+            skipLiteral();
+        }
+    }
+
+    /**
+     * Skips the rest of a string, whose opening quote has been read.
+     */
+    private void skipString() throws IOException {
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                throw new EOFException("Unterminated string at byte " + position());
+            }
+            byte b = mBuffer[mPos++];
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                // The escaped character can't end the string; "\\u" digits are skipped as bytes
+                read();
+            }
+        }
+    }
+
+    private void skipLiteral() throws IOException {
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                return;
+            }
+            byte b = mBuffer[mPos];
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\n'
+                    || b == '\r') {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------
+    // Values
+
+    /**
+     * Reads a string value, or returns null for any other value (which is skipped).
+     */
+    private String readStringOrNull() throws IOException {
+        if (peek() != '"') {
+            skipValue();
+            return null;
+        }
+        mPos++;
+        return readString();
+    }
+
+    /**
+     * Like {@link #readStringOrNull}, but returns the name of the batch with the same characters.
+     */
+    private String readNameOrNull() throws IOException {
+        if (peek() != '"') {
+            skipValue();
+            return null;
+        }
+        mPos++;
+        int length = decodeString();
+        return mBatch.intern(mChars, length);
+    }
+
+    /**
+     * Decodes the rest of a string whose opening quote has been read.
+     */
+    private String readString() throws IOException {
+        // Decoding may replace mChars with a larger array
+        int length = decodeString();
+        return new String(mChars, 0, length);
+    }
+
+    /**
+     * Decodes the rest of a string whose opening quote has been read into mChars, and returns
+     * the number of characters.
+     */
+    private int decodeString() throws IOException {
+        int length = 0;
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                return length;
+            }
+            if (length + 2 > mChars.length) {
+                char[] chars = new char[mChars.length * 2];
+                System.arraycopy(mChars, 0, chars, 0, length);
+                mChars = chars;
+            }
+            if (b == '\\') {
+                mChars[length++] = readEscape();
+            } else if (b < 0x80) {
+                mChars[length++] = (char) b;
+            } else if ((b & 0xe0) == 0xc0) {
+                int c = ((b & 0x1f) << 6) | continuation();
+                if (c < 0x80) {
+                    throw syntaxError("Invalid UTF-8");
+                }
+                mChars[length++] = (char) c;
+            } else if ((b & 0xf0) == 0xe0) {
+                int high = continuation();
+                int c = ((b & 0x0f) << 12) | (high << 6) | continuation();
+                // Overlong forms and surrogates, which UTF-8 must not encode
+                if (c < 0x800 || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+                    throw syntaxError("Invalid UTF-8");
+                }
+                mChars[length++] = (char) c;
+            } else if ((b & 0xf8) == 0xf0) {
+                int b2 = continuation();
+                int b3 = continuation();
+                int codePoint = ((b & 0x07) << 18) | (b2 << 12) | (b3 << 6) | continuation();
+                if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT
+                        || codePoint > Character.MAX_CODE_POINT) {
+                    throw syntaxError("Invalid UTF-8");
+                }
+                length += Character.toChars(codePoint, mChars, length);
+            } else {
+                throw syntaxError("Invalid UTF-8");
+            }
+        }
+    }
+
+    /**
+     * Reads the payload bits of a UTF-8 continuation byte.
+     */
+    private int continuation() throws IOException {
+        int b = read();
+        if ((b & 0xc0) != 0x80) {
+            throw syntaxError("Invalid UTF-8");
+        }
+        return b & 0x3f;
+    }
+
+    /**
+     * Decodes an escape sequence whose backslash has been read.
+     */
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                // '"', '\\' and '/' stand for themselves
+                return (char) c;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------
+    // Bytes
+
+    private void expect(char expected) throws IOException {
+        if (nextNonWhitespace() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    /**
+     * Returns the next byte that is not whitespace, without consuming it.
+     */
+    private int peek() throws IOException {
+        int c = nextNonWhitespace();
+        mPos--;
+        return c;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int b = read();
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return b;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            throw new EOFException("End of input at byte " + position());
+        }
+        return mBuffer[mPos++] & 0xff;
+    }
+
+    /**
+     * Refills the buffer, keeping the last byte read in front of it so {@link #peek} can always
+     * step back one byte.  Returns false at the end of the stream.
+     */
+    private boolean fill() throws IOException {
+        int keep = mLimit > 0 ? 1 : 0;
+        if (keep > 0) {
+            mBuffer[0] = mBuffer[mLimit - 1];
+        }
+        mBufferOffset += mLimit - keep;
+        mPos = keep;
+        mLimit = keep;
+        int read = mIn.read(mBuffer, keep, mBuffer.length - keep);
+        if (read <= 0) {
+            return false;
+        }
+        mLimit += read;
+        return true;
+    }
+
+    private long position() {
+        return mBufferOffset + mPos;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at byte " + position());
+    }
+
+    private static byte[] utf8(String name) {
+        return name.getBytes(UTF_8);
+    }
+
+    /**
+     * The first mLength characters of mChars, as the last {@link #decodeString} left them.
+     */
+    private final class DecodedChars implements CharSequence {
+        int mLength;
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return mChars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(mChars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mChars, 0, mLength);
+        }
+    }
+}
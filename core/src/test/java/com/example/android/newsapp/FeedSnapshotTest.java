@@ -0,0 +1,125 @@
+package com.example.android.newsapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of {@link FeedSnapshot}.
+ */
+public class FeedSnapshotTest {
+
+    private static final String KEY = "politics|newest|10";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void decode_roundTrip() throws IOException {
+        List<News> articles = articles();
+        List<News> decoded = FeedSnapshot.decode(
+                ByteBuffer.wrap(FeedSnapshot.encode(KEY, articles)), KEY);
+        assertSameArticles(articles, decoded);
+    }
+
+    @Test
+    public void decode_emptyFeed() throws IOException {
+        List<News> decoded = FeedSnapshot.decode(
+                ByteBuffer.wrap(FeedSnapshot.encode(KEY, new ArrayList<News>())), KEY);
+        assertEquals(0, decoded.size());
+    }
+
+    @Test
+    public void encode_storesRepeatedStringsOnce() {
+        News article = new News("Politics", "Title", "2018-09-27T08:52:24Z", "Jane Doe",
+                "https://www.theguardian.com/a");
+        int one = FeedSnapshot.encode(KEY, Arrays.asList(article)).length;
+        int many = FeedSnapshot.encode(KEY, Arrays.asList(article, article, article)).length;
+        // Every further copy only takes its six one-byte references
+        assertEquals(one + 2 * 6, many);
+    }
+
+    @Test
+    public void decode_otherKeyOrVersion() throws IOException {
+        byte[] snapshot = FeedSnapshot.encode(KEY, articles());
+        assertNull(FeedSnapshot.decode(ByteBuffer.wrap(snapshot), "sport|newest|10"));
+
+        // The version follows the four bytes of the magic
+        snapshot[4]++;
+        assertNull(FeedSnapshot.decode(ByteBuffer.wrap(snapshot), KEY));
+    }
+
+    @Test
+    public void decode_rejectsCorruptSnapshots() {
+        byte[] snapshot = FeedSnapshot.encode(KEY, articles());
+        byte[] badMagic = snapshot.clone();
+        badMagic[0] = 'X';
+        assertCorrupt(badMagic);
+
+        // The last byte is the thumbnail reference of the last article
+        byte[] badReference = snapshot.clone();
+        badReference[badReference.length - 1] = 0x7F;
+        assertCorrupt(badReference);
+
+        for (int length = 0; length < snapshot.length; length++) {
+            assertCorrupt(Arrays.copyOf(snapshot, length));
+        }
+    }
+
+    @Test
+    public void read_writtenFile() throws IOException {
+        File file = new File(mFolder.getRoot(), "feed.snapshot");
+        assertNull(FeedSnapshot.read(file, KEY));
+
+        List<News> articles = articles();
+        FeedSnapshot.write(file, KEY, articles);
+        assertSameArticles(articles, FeedSnapshot.read(file, KEY));
+
+        // A later snapshot replaces the file, and leaves no temporary file behind
+        FeedSnapshot.write(file, KEY, articles.subList(0, 1));
+        assertSameArticles(articles.subList(0, 1), FeedSnapshot.read(file, KEY));
+        assertEquals(1, mFolder.getRoot().list().length);
+    }
+
+    private static List<News> articles() {
+        StringBuilder longTitle = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longTitle.append("\u00e9\u20ac\ud83d\udcf0");
+        }
+        return Arrays.asList(
+                new News("Politics", "Title", "2018-09-27T08:52:24Z", "Jane Doe",
+                        "https://www.theguardian.com/a", "https://media.guim.co.uk/a.jpg"),
+                new News("Politics", longTitle.toString(), "2018-09-27T10:52:24.123+02:00",
+                        "Jane Doe", "https://www.theguardian.com/b", null),
+                new News("Caf\u00e9", "Title", "not a date", NewsJsonParser.NO_AUTHOR,
+                        "https://www.theguardian.com/c", null),
+                new News(null, null, null, null, null, null));
+    }
+
+    private static void assertSameArticles(List<News> expected, List<News> actual) {
+        assertEquals(expected, actual);
+        for (int i = 0; i < expected.size(); i++) {
+            // equals() compares the parsed times, so compare the dates as given too
+            assertEquals(expected.get(i).getDate(), actual.get(i).getDate());
+        }
+    }
+
+    private static void assertCorrupt(byte[] snapshot) {
+        try {
+            FeedSnapshot.decode(ByteBuffer.wrap(snapshot), KEY);
+            fail("Expected an IOException for " + snapshot.length + " bytes");
+        } catch (IOException expected) {
+        }
+    }
+}
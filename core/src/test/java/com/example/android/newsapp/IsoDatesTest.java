@@ -0,0 +1,87 @@
+package com.example.android.newsapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of {@link IsoDates}.
+ */
+public class IsoDatesTest {
+
+    @Test
+    public void parseMillis_guardianForm() {
+        assertEquals(1538038344000L, IsoDates.parseMillis("2018-09-27T08:52:24Z"));
+    }
+
+    @Test
+    public void parseMillis_fractionAndOffsets() {
+        assertEquals(1538038344123L, IsoDates.parseMillis("2018-09-27T08:52:24.123Z"));
+        assertEquals(1538038344000L, IsoDates.parseMillis("2018-09-27T10:52:24+02:00"));
+        assertEquals(1538038344000L, IsoDates.parseMillis("2018-09-27T03:22:24-05:30"));
+    }
+
+    @Test
+    public void parseMillis_leapDays() {
+        assertEquals(1456704000000L, IsoDates.parseMillis("2016-02-29T00:00:00Z"));
+        assertEquals(951782400000L, IsoDates.parseMillis("2000-02-29T00:00:00Z"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-02-29T00:00:00Z"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("1900-02-29T00:00:00Z"));
+    }
+
+    @Test
+    public void parseMillis_rejectsDaysPastTheEndOfTheMonth() {
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-02-31T00:00:00Z"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-04-31T00:00:00Z"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-12-32T00:00:00Z"));
+        assertEquals(1546214400000L, IsoDates.parseMillis("2018-12-31T00:00:00Z"));
+    }
+
+    @Test
+    public void parseMillis_rejectsOffsetsBeyondEighteenHours() {
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-01-01T00:00:00+99:00"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-01-01T00:00:00-18:01"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-01-01T00:00:00+05:60"));
+        assertEquals(1514700000000L, IsoDates.parseMillis("2018-01-01T00:00:00+18:00"));
+    }
+
+    @Test
+    public void parseMillis_rejectsMalformedTimestamps() {
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis(null));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis(""));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-09-27"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-09-27T08:52:24"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018/09/27T08:52:24Z"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-13-01T08:52:24Z"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-09-27T24:00:00Z"));
+        assertEquals(IsoDates.INVALID, IsoDates.parseMillis("2018-09-27T08:52:24Zjunk"));
+    }
+
+    @Test
+    public void format_roundTripsRandomTimes() {
+        // Whole seconds from year 0 to 9999, the range format supports
+        long min = IsoDates.parseMillis("0000-01-01T00:00:00Z") / 1000;
+        long max = IsoDates.parseMillis("9999-12-31T23:59:59Z") / 1000;
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            long millis = (min + (long) (random.nextDouble() * (max - min + 1))) * 1000;
+            String formatted = IsoDates.format(millis);
+            assertEquals(formatted, millis, IsoDates.parseMillis(formatted));
+            assertTrue(formatted, IsoDates.isFormatOf(formatted, millis));
+        }
+    }
+
+    @Test
+    public void isFormatOf_otherFormsOfTheSameTime() {
+        long millis = IsoDates.parseMillis("2018-09-27T08:52:24Z");
+        assertTrue(IsoDates.isFormatOf("2018-09-27T08:52:24Z", millis));
+        assertFalse(IsoDates.isFormatOf("2018-09-27T10:52:24+02:00", millis));
+        assertFalse(IsoDates.isFormatOf("2018-09-27 08:52:24Z", millis));
+        assertFalse(IsoDates.isFormatOf("2018-09-27T08:52:25Z", millis));
+        assertFalse(IsoDates.isFormatOf("2018-09-27T08:52:24Z", millis + 1));
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.android.newsapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of {@link NewsBatch}.
+ */
+public class NewsBatchTest {
+
+    @Test
+    public void get_acrossChunkBoundaries() {
+        // Past the growing chunks of 8, 16 and 32 rows and several full ones
+        int count = 8 + 16 + 32 + 64 * 3 + 5;
+        NewsBatch.Builder builder = new NewsBatch.Builder();
+        News[] added = new News[count];
+        for (int i = 0; i < count; i++) {
+            added[i] = add(builder, i);
+        }
+        NewsBatch batch = builder.build();
+        assertEquals(count, batch.size());
+        for (int i = 0; i < count; i++) {
+            News article = batch.get(i);
+            assertEquals("Title " + i, article.getTitle());
+            assertEquals("https://www.theguardian.com/" + i, article.getUrl());
+            assertEquals(time(i), article.getTimeInMillis());
+            // Every row has a single view, handed out by the builder and the batch alike
+            assertSame(added[i], article);
+            assertSame(article, batch.get(i));
+        }
+    }
+
+    @Test
+    public void build_isNotChangedByLaterArticles() {
+        NewsBatch.Builder builder = new NewsBatch.Builder();
+        for (int i = 0; i < 10; i++) {
+            add(builder, i);
+        }
+        NewsBatch first = builder.build();
+        News tenth = first.get(9);
+        for (int i = 10; i < 100; i++) {
+            add(builder, i);
+        }
+        assertEquals(10, first.size());
+        assertEquals(100, builder.build().size());
+        // Articles handed out before stay valid as the batch grows
+        assertEquals("Title 9", tenth.getTitle());
+        assertSame(tenth, builder.build().get(9));
+    }
+
+    @Test
+    public void get_outOfRange() {
+        NewsBatch.Builder builder = new NewsBatch.Builder();
+        add(builder, 0);
+        NewsBatch batch = builder.build();
+        for (int index : new int[]{-1, 1, 8}) {
+            try {
+                batch.get(index);
+                fail("Expected an IndexOutOfBoundsException for " + index);
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        }
+        assertEquals(0, new NewsBatch.Builder().build().size());
+    }
+
+    @Test
+    public void add_internsSectionsAndAuthors() {
+        NewsBatch.Builder builder = new NewsBatch.Builder();
+        News first = builder.add(new String("Politics"), "A", null, new String("Jane Doe"),
+                "https://www.theguardian.com/a", null);
+        News second = builder.add(new String("Politics"), "B", null, new String("Jane Doe"),
+                "https://www.theguardian.com/b", null);
+        assertSame(first.getSection(), second.getSection());
+        assertSame(first.getAuthor(), second.getAuthor());
+        char[] chars = "Jane Doe".toCharArray();
+        assertSame(first.getAuthor(), builder.intern(chars, chars.length));
+    }
+
+    @Test
+    public void add_keepsDatesThatCantBeRebuilt() {
+        NewsBatch.Builder builder = new NewsBatch.Builder();
+        String[] dates = {"2018-09-27T08:52:24Z", "2018-09-27T08:52:24.500Z",
+                "2018-09-27T10:52:24+02:00", "2018-09-27 08:52:24Z", "yesterday"};
+        for (String date : dates) {
+            builder.add("Section", "Title", date, "Author", "https://www.theguardian.com/", null);
+        }
+        builder.add("Section", "Title", null, "Author", "https://www.theguardian.com/", null);
+        NewsBatch batch = builder.build();
+        for (int i = 0; i < dates.length; i++) {
+            assertEquals(dates[i], batch.get(i).getDate());
+        }
+        assertNull(batch.get(dates.length).getDate());
+        assertEquals(IsoDates.INVALID, batch.get(dates.length).getTimeInMillis());
+        // Only the date that is exactly the formatted time is left to be rebuilt
+        assertNull(NewsBatch.keptDate(dates[0], IsoDates.parseMillis(dates[0])));
+        assertSame(dates[1], NewsBatch.keptDate(dates[1], IsoDates.parseMillis(dates[1])));
+    }
+
+    @Test
+    public void compact_copiesArticlesPickedFromLargeBatches() {
+        NewsBatch.Builder builder = new NewsBatch.Builder();
+        for (int i = 0; i < 300; i++) {
+            add(builder, i);
+        }
+        builder.add("Section", "Undated", "yesterday", "Author", "https://www.theguardian.com/u",
+                null);
+        NewsBatch batch = builder.build();
+        // One article out of every full chunk, and the one with a date that isn't rebuilt
+        List<News> picked = new ArrayList<>();
+        for (int i = 60; i < batch.size(); i += 64) {
+            picked.add(batch.get(i));
+        }
+        picked.add(batch.get(300));
+
+        List<News> compacted = NewsBatch.compact(picked);
+        assertNotSame(picked, compacted);
+        assertEquals(picked, compacted);
+        for (int i = 0; i < picked.size(); i++) {
+            assertEquals(picked.get(i).getDate(), compacted.get(i).getDate());
+            assertEquals(picked.get(i).getTimeInMillis(), compacted.get(i).getTimeInMillis());
+            // The copies no longer keep the chunks of the batch
+            assertNotSame(picked.get(i).getColumns(), compacted.get(i).getColumns());
+        }
+    }
+
+    @Test
+    public void compact_keepsListsThatUseTheirChunks() {
+        NewsBatch.Builder builder = new NewsBatch.Builder();
+        for (int i = 0; i < 200; i++) {
+            add(builder, i);
+        }
+        NewsBatch batch = builder.build();
+        assertSame(batch, NewsBatch.compact(batch));
+        List<News> firstPages = batch.subList(0, 50);
+        assertSame(firstPages, NewsBatch.compact(firstPages));
+
+        // Articles made with a constructor each have a row of their own
+        List<News> single = Arrays.asList(
+                new News("Section", "A", null, "Author", "https://www.theguardian.com/a"),
+                new News("Section", "B", null, "Author", "https://www.theguardian.com/b"));
+        assertSame(single, NewsBatch.compact(single));
+        List<News> empty = new ArrayList<>();
+        assertSame(empty, NewsBatch.compact(empty));
+    }
+
+    @Test
+    public void capacityFor_chunkSizes() {
+        assertEquals(0, NewsBatch.capacityFor(0));
+        assertEquals(8, NewsBatch.capacityFor(1));
+        assertEquals(8, NewsBatch.capacityFor(8));
+        assertEquals(24, NewsBatch.capacityFor(9));
+        assertEquals(56, NewsBatch.capacityFor(56));
+        assertEquals(120, NewsBatch.capacityFor(57));
+    }
+
+    private static News add(NewsBatch.Builder builder, int i) {
+        return builder.add("Section " + i % 5, "Title " + i, IsoDates.format(time(i)),
+                "Author " + i % 7, "https://www.theguardian.com/" + i, null);
+    }
+
+    private static long time(int i) {
+        return 1538038344000L - i * 60000L;
+    }
+}
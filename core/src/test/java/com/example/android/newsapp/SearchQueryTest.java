@@ -0,0 +1,59 @@
+package com.example.android.newsapp;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests of {@link SearchQuery}.
+ */
+public class SearchQueryTest {
+
+    @Test
+    public void toMatchExpression_wordsArePrefixes() {
+        assertEquals("brexit*", SearchQuery.toMatchExpression("Brexit"));
+        assertEquals("world* cup* 2018*", SearchQuery.toMatchExpression("  World Cup 2018 "));
+    }
+
+    @Test
+    public void toMatchExpression_noWords() {
+        assertNull(SearchQuery.toMatchExpression(null));
+        assertNull(SearchQuery.toMatchExpression(""));
+        assertNull(SearchQuery.toMatchExpression(" -*\"():^ "));
+    }
+
+    @Test
+    public void toMatchExpression_dropsFtsSyntax() {
+        assertEquals("trump* or* may*", SearchQuery.toMatchExpression("trump OR may"));
+        assertEquals("a* near* b*", SearchQuery.toMatchExpression("a NEAR b"));
+        assertEquals("title* brexit* not* deal*",
+                SearchQuery.toMatchExpression("title:brexit -\"not deal\"*"));
+    }
+
+    @Test
+    public void toMatchExpression_keepsLettersOfAnyScript() {
+        assertEquals("caf\u00e9* m\u00fcnchen* \u4e2d\u6587*",
+                SearchQuery.toMatchExpression("Caf\u00e9, M\u00fcnchen / \u4e2d\u6587"));
+    }
+
+    @Test
+    public void toMatchExpression_lowerCasesIndependentlyOfTheLocale() {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            // In Turkish, "I" lower-cases to a dotless i
+            assertEquals("india*", SearchQuery.toMatchExpression("INDIA"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void toMatchExpression_keepsTheFirstTerms() {
+        assertEquals("a* b* c* d* e* f* g* h*",
+                SearchQuery.toMatchExpression("a b c d e f g h i j"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.android.newsapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests of {@link TimeBucket}.
+ */
+public class TimeBucketTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    private TimeZone mDefaultZone;
+
+    @Before
+    public void setUp() {
+        mDefaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultZone);
+    }
+
+    @Test
+    public void startOfToday_localMidnight() {
+        long midnight = IsoDates.parseMillis("2018-09-27T00:00:00Z");
+        assertEquals(midnight, TimeBucket.startOfToday(midnight));
+        assertEquals(midnight, TimeBucket.startOfToday(midnight + DAY - 1));
+        assertEquals(midnight - DAY, TimeBucket.startOfToday(midnight - 1));
+
+        // 23:00 on the 26th in New York
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        assertEquals(IsoDates.parseMillis("2018-09-26T04:00:00Z"),
+                TimeBucket.startOfToday(IsoDates.parseMillis("2018-09-27T03:00:00Z")));
+    }
+
+    @Test
+    public void of_dayBoundaries() {
+        long startOfToday = IsoDates.parseMillis("2018-09-27T00:00:00Z");
+        assertEquals(TimeBucket.TODAY, TimeBucket.of(startOfToday, startOfToday));
+        assertEquals(TimeBucket.TODAY, TimeBucket.of(startOfToday + DAY - 1, startOfToday));
+        assertEquals(TimeBucket.YESTERDAY, TimeBucket.of(startOfToday - 1, startOfToday));
+        assertEquals(TimeBucket.YESTERDAY, TimeBucket.of(startOfToday - DAY, startOfToday));
+        assertEquals(TimeBucket.THIS_WEEK, TimeBucket.of(startOfToday - DAY - 1, startOfToday));
+    }
+
+    @Test
+    public void of_weekBoundary() {
+        long startOfToday = IsoDates.parseMillis("2018-09-27T00:00:00Z");
+        // Today and the six days before it, the earliest of which is the 21st
+        long startOfWeek = IsoDates.parseMillis("2018-09-21T00:00:00Z");
+        assertEquals(TimeBucket.THIS_WEEK, TimeBucket.of(startOfWeek, startOfToday));
+        assertEquals(TimeBucket.OLDER, TimeBucket.of(startOfWeek - 1, startOfToday));
+        assertEquals(TimeBucket.OLDER, TimeBucket.of(0, startOfToday));
+    }
+
+    @Test
+    public void of_futureAndInvalidTimes() {
+        long startOfToday = IsoDates.parseMillis("2018-09-27T00:00:00Z");
+        assertEquals(TimeBucket.TODAY, TimeBucket.of(startOfToday + DAY, startOfToday));
+        assertEquals(TimeBucket.TODAY, TimeBucket.of(Long.MAX_VALUE, startOfToday));
+        assertEquals(TimeBucket.UNKNOWN, TimeBucket.of(IsoDates.INVALID, startOfToday));
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.android.newsapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests of {@link Utf8ArticleScanner}, checked against the Gson {@link
+ * com.google.gson.stream.JsonReader} path of {@link NewsJsonParser}.
+ */
+public class Utf8ArticleScannerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void readArticles_allFields() throws IOException {
+        List<News> news = assertSameAsJsonReader(response(
+                "{\"sectionName\":\"World news\",\"webTitle\":\"A title\","
+                        + "\"webPublicationDate\":\"2018-09-27T08:52:24Z\","
+                        + "\"webUrl\":\"https://www.theguardian.com/a\","
+                        + "\"tags\":[{\"webTitle\":\"Jane Doe\"}],"
+                        + "\"fields\":{\"byline\":\"Someone else\","
+                        + "\"thumbnail\":\"https://media.guim.co.uk/a.jpg\"}}"));
+        assertEquals(1, news.size());
+        News article = news.get(0);
+        assertEquals("World news", article.getSection());
+        assertEquals("A title", article.getTitle());
+        assertEquals("2018-09-27T08:52:24Z", article.getDate());
+        assertEquals(1538038344000L, article.getTimeInMillis());
+        assertEquals("Jane Doe", article.getAuthor());
+        assertEquals("https://www.theguardian.com/a", article.getUrl());
+        assertEquals("https://media.guim.co.uk/a.jpg", article.getThumbnailUrl());
+    }
+
+    @Test
+    public void readArticles_authorFallbacks() throws IOException {
+        List<News> news = assertSameAsJsonReader(response(
+                article("tags", "[{\"webTitle\":\"First\"},{\"id\":1},{\"webTitle\":\"Last\"}]"),
+                article("fields", "{\"byline\":\"By line\"}"),
+                article("tags", "[]"),
+                article("fields", "{}")));
+        assertEquals("Last", news.get(0).getAuthor());
+        assertEquals("By line", news.get(1).getAuthor());
+        assertEquals(NewsJsonParser.NO_AUTHOR, news.get(2).getAuthor());
+        assertEquals(NewsJsonParser.NO_AUTHOR, news.get(3).getAuthor());
+    }
+
+    @Test
+    public void readArticles_skipsUnknownValues() throws IOException {
+        String skipped = "{\"a\":[1,-2.5e3,true,false,null,{\"b\":[[]]}],\"c\":\"}]\\\"\"}";
+        List<News> news = assertSameAsJsonReader(
+                "{\"status\":" + skipped + ",\"response\":{\"total\":2,\"other\":" + skipped
+                        + ",\"results\":["
+                        + article("id", skipped) + ","
+                        + article("isHosted", "false") + "],\"pages\":1},\"more\":[" + skipped
+                        + "]}");
+        assertEquals(2, news.size());
+    }
+
+    @Test
+    public void readArticles_escapesAndMultiByteCharacters() throws IOException {
+        List<News> news = assertSameAsJsonReader(response(
+                "{\"sectionName\":\"Caf\u00e9 \\u00e9\",\"webTitle\":\"\\\"Quoted\\\" \\\\ "
+                        + "\\/ \\n\\t \u20ac \ud83d\udcf0 \\ud83d\\udcf0\","
+                        + "\"webUrl\":\"https://www.theguardian.com/\u00fc\","
+                        + "\"fields\":{\"byline\":\"Bj\u00f6rk \u4e2d\u6587\"}}"));
+        News article = news.get(0);
+        assertEquals("Caf\u00e9 \u00e9", article.getSection());
+        assertEquals("\"Quoted\" \\ / \n\t \u20ac \ud83d\udcf0 \ud83d\udcf0", article.getTitle());
+        assertEquals("Bj\u00f6rk \u4e2d\u6587", article.getAuthor());
+    }
+
+    @Test
+    public void readArticles_nullValues() throws IOException {
+        List<News> news = assertSameAsJsonReader(response(
+                "{\"sectionName\":null,\"webTitle\":null,\"webPublicationDate\":null,"
+                        + "\"webUrl\":null,\"fields\":{\"byline\":null,\"thumbnail\":null}}"));
+        News article = news.get(0);
+        assertEquals(null, article.getTitle());
+        assertEquals(null, article.getThumbnailUrl());
+        assertEquals(IsoDates.INVALID, article.getTimeInMillis());
+    }
+
+    @Test
+    public void readArticles_valuesAcrossBufferBoundaries() throws IOException {
+        // Titles of odd lengths put every offset of the values at the end of a buffer
+        String[] articles = new String[400];
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < articles.length; i++) {
+            title.append(i % 3 == 0 ? "\u00e9" : i % 3 == 1 ? "\ud83d\udcf0" : "x");
+            articles[i] = "{\"sectionName\":\"Section " + (i % 7) + "\",\"webTitle\":\""
+                    + title + "\",\"webPublicationDate\":\"2018-09-27T08:52:"
+                    + (10 + i % 50) + "Z\",\"webUrl\":\"https://www.theguardian.com/" + i
+                    + "\",\"fields\":{\"body\":\"" + title + "\"}}";
+        }
+        List<News> news = assertSameAsJsonReader(response(articles));
+        assertEquals(articles.length, news.size());
+    }
+
+    @Test
+    public void readArticles_truncatedBodyFails() throws IOException {
+        String body = response(article("id", "1"), article("id", "2"));
+        // Every cut after the first article must fail, keeping the articles completed before it
+        int secondStart = body.indexOf("},{") + 2;
+        int secondEnd = body.lastIndexOf("]}}");
+        for (int end = secondStart; end < body.length(); end++) {
+            List<News> news = new ArrayList<>();
+            try {
+                NewsJsonParser.readArticlesFromStream(stream(body.substring(0, end)), news, null);
+                fail("Expected an IOException for " + body.substring(0, end));
+            } catch (IOException expected) {
+                assertEquals(end < secondEnd ? 1 : 2, news.size());
+            }
+        }
+    }
+
+    @Test
+    public void readArticles_invalidUtf8Fails() throws IOException {
+        int[][] invalid = {
+                {0x80},                         // Lone continuation byte
+                {0xc3},                         // Missing continuation byte
+                {0xc3, 0x28},                   // Bad continuation byte
+                {0xc0, 0xaf},                   // Overlong "/"
+                {0xe0, 0x80, 0xaf},             // Overlong "/"
+                {0xed, 0xa0, 0x80},             // Surrogate U+D800
+                {0xed, 0xbf, 0xbf},             // Surrogate U+DFFF
+                {0xf0, 0x80, 0x80, 0xaf},       // Overlong "/"
+                {0xf0, 0x8f, 0xbf, 0xbf},       // Overlong U+FFFF
+                {0xf4, 0x90, 0x80, 0x80},       // U+110000
+                {0xf5, 0x80, 0x80, 0x80},
+                {0xf7, 0xbf, 0xbf, 0xbf},
+                {0xf8, 0x88, 0x80, 0x80, 0x80},
+                {0xff}};
+        for (int[] bytes : invalid) {
+            try {
+                NewsJsonParser.readArticlesFromStream(
+                        titleWithBytes(bytes), new ArrayList<News>(), null);
+                fail("Expected an IOException for " + Arrays.toString(bytes));
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void readArticles_validUtf8Limits() throws IOException {
+        int[][] valid = {
+                {0xc2, 0x80},                   // U+0080
+                {0xe0, 0xa0, 0x80},             // U+0800
+                {0xed, 0x9f, 0xbf},             // U+D7FF
+                {0xee, 0x80, 0x80},             // U+E000
+                {0xef, 0xbf, 0xbf},             // U+FFFF
+                {0xf0, 0x90, 0x80, 0x80},       // U+10000
+                {0xf4, 0x8f, 0xbf, 0xbf}};      // U+10FFFF
+        String[] expected = {"\u0080", "\u0800", "\ud7ff", "\ue000", "\uffff",
+                "\ud800\udc00", "\udbff\udfff"};
+        for (int i = 0; i < valid.length; i++) {
+            List<News> news = new ArrayList<>();
+            NewsJsonParser.readArticlesFromStream(titleWithBytes(valid[i]), news, null);
+            List<News> escaped = new ArrayList<>();
+            NewsJsonParser.readArticlesFromStream(
+                    stream(response("{\"webTitle\":\"" + expected[i] + "\"}")), escaped, null);
+            assertEquals(escaped.get(0).getTitle(), news.get(0).getTitle());
+        }
+    }
+
+    /**
+     * Returns the articles scanned from the given body, after checking they are the same as
+     * those read with a JsonReader.
+     */
+    private static List<News> assertSameAsJsonReader(String body) throws IOException {
+        List<News> scanned = new ArrayList<>();
+        NewsJsonParser.readArticlesFromStream(stream(body), scanned, null);
+        List<News> read = new ArrayList<>();
+        NewsJsonParser.readArticlesWithJsonReader(stream(body), read, null);
+        assertEquals(read, scanned);
+        for (int i = 0; i < read.size(); i++) {
+            // equals() compares the parsed times, so compare the dates as given too
+            assertEquals(read.get(i).getDate(), scanned.get(i).getDate());
+        }
+        return scanned;
+    }
+
+    /** Returns a Guardian search response with the given results */
+    private static String response(String... articles) {
+        StringBuilder body = new StringBuilder("{\"response\":{\"status\":\"ok\",\"results\":[");
+        for (int i = 0; i < articles.length; i++) {
+            body.append(i > 0 ? "," : "").append(articles[i]);
+        }
+        return body.append("]}}").toString();
+    }
+
+    /** Returns a result with the usual members plus the given one */
+    private static String article(String name, String value) {
+        return "{\"sectionName\":\"News\",\"webTitle\":\"Title\","
+                + "\"webPublicationDate\":\"2018-09-27T08:52:24Z\","
+                + "\"webUrl\":\"https://www.theguardian.com/" + name + "\","
+                + "\"" + name + "\":" + value + "}";
+    }
+
+    /** Returns a response with a single article, whose title is made of the given bytes */
+    private static InputStream titleWithBytes(int[] bytes) {
+        String[] parts = response("{\"webTitle\":\"\u0000\"}").split("\u0000");
+        byte[] before = parts[0].getBytes(UTF_8);
+        byte[] after = parts[1].getBytes(UTF_8);
+        byte[] body = new byte[before.length + bytes.length + after.length];
+        System.arraycopy(before, 0, body, 0, before.length);
+        for (int i = 0; i < bytes.length; i++) {
+            body[before.length + i] = (byte) bytes[i];
+        }
+        System.arraycopy(after, 0, body, before.length + bytes.length, after.length);
+        return new ByteArrayInputStream(body);
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(UTF_8));
+    }
+}
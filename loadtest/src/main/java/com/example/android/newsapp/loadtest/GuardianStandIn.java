@@ -0,0 +1,348 @@
+package com.example.android.newsapp.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the Guardian search API ("/search"), so fetches can be measured against a
+ * server that answers the same way every time.  It answers the parameters the app sends: "q",
+ * "sectionId", "page", "page-size", "order-by", "from-date", "ids" and "show-fields" (byline,
+ * thumbnail and bodyText); "api-key" is ignored.  Pages are generated by {@link SyntheticFeed},
+ * except pages recorded from the real API: a file "search-&lt;page&gt;.json" in the recordings
+ * directory is served as is for that page, whatever the other parameters but "ids".  Record one
+ * with:
+ *
+ *   curl -o recordings/search-1.json \
+ *       'https://content.guardianapis.com/search?q=alaska&amp;page=1&amp;api-key=...'
+ *
+ * Like the real API, responses are gzipped when the client accepts it, carry an ETag and answer
+ * a matching If-None-Match with a 304.  To reproduce a bad network or a struggling server, every
+ * response can be delayed, throttled to a bandwidth, replaced by an error or cut short; these can
+ * be changed while the server runs.
+ *
+ * Run it on its own, then point the app at it (see app/build.gradle):
+ *
+ *   ./gradlew :loadtest:standIn -PstandInArgs='--port 8080 --latency-ms 300 --bandwidth-kbit 400'
+ *
+ * Options: --port, --results (articles per feed, default 5000), --publish-interval-s (0: the
+ * feeds never change), --recordings, and the faults: --latency-ms, --jitter-ms,
+ * --bandwidth-kbit (0: unlimited), --error-rate and --truncate-rate (fractions of responses).
+ */
+public final class GuardianStandIn {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Largest page the stand-in serves; the real API stops at 200, this allows huge payloads */
+    private static final int MAX_PAGE_SIZE = 100000;
+
+    /** Bytes written per write while throttling, as a fraction of the bytes per second */
+    private static final int THROTTLE_SLICES_PER_SECOND = 20;
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final SyntheticFeed mFeed;
+    private final File mRecordings;
+    private final Random mRandom = new Random();
+
+    private volatile long mLatencyMillis;
+    private volatile long mJitterMillis;
+    private volatile long mBytesPerSecond;
+    private volatile double mErrorRate;
+    private volatile double mTruncateRate;
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    /**
+     * Creates a stand-in on the given port (0 for any free port) serving feeds of the given
+     * number of articles.  Call {@link #start} to start serving.
+     *
+     * @param recordings directory of recorded pages, or null
+     */
+    public GuardianStandIn(int port, int results, long publishIntervalMillis, File recordings)
+            throws IOException {
+        mFeed = new SyntheticFeed(results, publishIntervalMillis);
+        mRecordings = recordings;
+        mServer = HttpServer.create(new InetSocketAddress(port), 0);
+        // A thread per request, so delayed and throttled responses don't hold up the others
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleSearch(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a stand-in from the command line options described above, and removes them.
+     */
+    static GuardianStandIn fromOptions(Options options, int defaultPort) throws IOException {
+        String recordings = options.getString("recordings", null);
+        GuardianStandIn standIn = new GuardianStandIn(
+                options.getInt("port", defaultPort),
+                options.getInt("results", 5000),
+                options.getInt("publish-interval-s", 0) * 1000L,
+                recordings != null ? new File(recordings) : null);
+        standIn.setLatency(options.getInt("latency-ms", 0), options.getInt("jitter-ms", 0));
+        standIn.setBandwidth(options.getInt("bandwidth-kbit", 0) * 1000L / 8);
+        standIn.setErrorRate(options.getDouble("error-rate", 0));
+        standIn.setTruncateRate(options.getDouble("truncate-rate", 0));
+        return standIn;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options(args);
+        GuardianStandIn standIn = fromOptions(options, 8080);
+        options.checkAllRead();
+        standIn.start();
+        System.out.println("Serving " + standIn.getBaseUrl()
+                + " (from an emulator: http://10.0.2.2:" + standIn.getPort() + "/search?)");
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    public int getPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    /** Returns the URL to use instead of https://content.guardianapis.com/search? */
+    public String getBaseUrl() {
+        return "http://localhost:" + getPort() + "/search?";
+    }
+
+    /**
+     * Delays every response by the given time, plus a random time up to the given jitter.
+     */
+    public void setLatency(long millis, long jitterMillis) {
+        mLatencyMillis = millis;
+        mJitterMillis = jitterMillis;
+    }
+
+    /**
+     * Sends response bodies no faster than the given rate, or as fast as possible if it is 0.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /** Answers the given fraction of requests with a 503, a 500 or a 429 */
+    public void setErrorRate(double rate) {
+        mErrorRate = rate;
+    }
+
+    /** Cuts the body of the given fraction of responses in half, then closes the connection */
+    public void setTruncateRate(double rate) {
+        mTruncateRate = rate;
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + mRequests.get() + ", errors=" + mErrors.get()
+                + ", sent=" + mBytesSent.get() / 1024 + "KB";
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+        sleep(mLatencyMillis + (mJitterMillis > 0 ? (long) (random() * mJitterMillis) : 0));
+
+        if (random() < mErrorRate) {
+            mErrors.incrementAndGet();
+            int[] codes = {503, 500, 429};
+            int code = codes[(int) (random() * codes.length)];
+            sendJson(exchange, code, errorResponse("Injected " + code + " error"), false);
+            return;
+        }
+
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        byte[] body;
+        try {
+            body = pageFor(params);
+        } catch (IllegalArgumentException e) {
+            sendJson(exchange, 400, errorResponse(e.getMessage()), false);
+            return;
+        }
+        if (body == null) {
+            sendJson(exchange, 400,
+                    errorResponse("requested page is beyond the number of available pages"),
+                    false);
+            return;
+        }
+
+        String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        sendJson(exchange, 200, body, random() < mTruncateRate);
+    }
+
+    /**
+     * Returns the page the given parameters ask for, or null if it is past the last page.
+     */
+    private byte[] pageFor(Map<String, String> params) throws IOException {
+        String fields = params.get("show-fields");
+        fields = fields != null ? fields : "";
+        boolean all = fields.contains("all");
+        String ids = params.get("ids");
+        if (ids != null) {
+            return mFeed.idsResponse(ids.split(","), all || fields.contains("bodyText"));
+        }
+        int page = intParam(params, "page", 1, 1, Integer.MAX_VALUE);
+        if (mRecordings != null) {
+            File recorded = new File(mRecordings, "search-" + page + ".json");
+            if (recorded.isFile()) {
+                return readFile(recorded);
+            }
+        }
+        return mFeed.searchResponse(params.get("q"), params.get("sectionId"), page,
+                intParam(params, "page-size", 10, 1, MAX_PAGE_SIZE), params.get("from-date"),
+                "oldest".equals(params.get("order-by")),
+                all || fields.contains("byline"), all || fields.contains("thumbnail"));
+    }
+
+    private void sendJson(HttpExchange exchange, int code, byte[] body, boolean truncate)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            body = gzip(body);
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream out = exchange.getResponseBody();
+        int length = truncate ? body.length / 2 : body.length;
+        long bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(body, 0, length);
+        } else {
+            // Write a slice at a time, each when the bandwidth allows it
+            int slice = (int) Math.max(1, bytesPerSecond / THROTTLE_SLICES_PER_SECOND);
+            long startNanos = System.nanoTime();
+            for (int offset = 0; offset < length; ) {
+                int count = Math.min(slice, length - offset);
+                out.write(body, offset, count);
+                out.flush();
+                offset += count;
+                long dueNanos = startNanos + offset * 1000000000L / bytesPerSecond;
+                sleep((dueNanos - System.nanoTime()) / 1000000);
+            }
+        }
+        mBytesSent.addAndGet(length);
+        if (truncate) {
+            // The declared length was never reached, the client sees the connection close early
+            throw new IOException("Injected truncated response");
+        }
+        out.close();
+    }
+
+    private synchronized double random() {
+        return mRandom.nextDouble();
+    }
+
+    private static byte[] errorResponse(String message) {
+        return ("{\"response\":{\"status\":\"error\",\"message\":\"" + message + "\"}}")
+                .getBytes(UTF_8);
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue,
+            int min, int max) {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Bad " + name + " " + value);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String param : query.split("&")) {
+            int equals = param.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(body);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.newsapp.loadtest;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Counts latencies in buckets of about 6% of their value, so a run of any length is summarized
+ * in a few kilobytes: percentiles are exact to within a bucket.  Safe to use from any thread.
+ */
+final class LatencyHistogram {
+
+    /** Buckets per power of two */
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] mCounts = new long[64 * SUB_BUCKETS];
+    private long mCount;
+    private long mMax;
+
+    synchronized void record(long micros) {
+        mCounts[indexOf(Math.max(0, micros))]++;
+        mCount++;
+        mMax = Math.max(mMax, micros);
+    }
+
+    synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the latency under which the given fraction of the latencies are, or 0 if none was
+     * recorded.
+     */
+    synchronized long getPercentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * mCount);
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= Math.max(rank, 1)) {
+                // The top of the bucket, but never more than what was actually seen
+                return Math.min(lowestOf(i + 1) - 1, mMax);
+            }
+        }
+        return 0;
+    }
+
+    synchronized void add(LatencyHistogram other) {
+        synchronized (other) {
+            for (int i = 0; i < mCounts.length; i++) {
+                mCounts[i] += other.mCounts[i];
+            }
+            mCount += other.mCount;
+            mMax = Math.max(mMax, other.mMax);
+        }
+    }
+
+    /**
+     * Returns a copy of this histogram, and clears this one.
+     */
+    synchronized LatencyHistogram takeSnapshot() {
+        LatencyHistogram snapshot = new LatencyHistogram();
+        snapshot.add(this);
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mMax = 0;
+        return snapshot;
+    }
+
+    /**
+     * Returns the index of the bucket of the given value: values under SUB_BUCKETS have their
+     * own bucket, larger ones share it with the values that have the same top bits.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Returns the lowest value of the given bucket */
+    private static long lowestOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                getPercentile(0.5) / 1000.0, getPercentile(0.9) / 1000.0,
+                getPercentile(0.99) / 1000.0, mMax / 1000.0);
+    }
+}
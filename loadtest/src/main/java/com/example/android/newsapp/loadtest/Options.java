@@ -0,0 +1,43 @@
+package com.example.android.newsapp.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the form "--name value".  Every option is read once; options nobody
+ * read are reported by {@link #checkAllRead}, so a typo doesn't silently run with the defaults.
+ */
+final class Options {
+
+    private final Map<String, String> mValues = new LinkedHashMap<>();
+
+    Options(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --name value, got " + args[i]);
+            }
+            mValues.put(args[i].substring(2), args[i + 1]);
+        }
+    }
+
+    String getString(String name, String defaultValue) {
+        String value = mValues.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    int getInt(String name, int defaultValue) {
+        String value = mValues.remove(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    double getDouble(String name, double defaultValue) {
+        String value = mValues.remove(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    void checkAllRead() {
+        if (!mValues.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + mValues.keySet());
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.example.android.newsapp.loadtest;
+
+import com.example.android.newsapp.News;
+import com.example.android.newsapp.NewsJsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads the news feed over and over from a {@link GuardianStandIn} (or any server with the same
+ * API), the way the app does, and reports how the fetches and the JVM hold up over a long run.
+ *
+ * Every client loads a feed like {@link com.example.android.newsapp.NewsLoader} does: the first
+ * page of every section at once, then the next pages one after the other as if the user
+ * scrolled, each parsed from the response stream by the app's parser.  It keeps the articles of
+ * its last load, as the loader keeps the list it delivered.  Every report interval, and once more
+ * at the end, it prints:
+ *
+ * - the latency percentiles of the requests (until the response is parsed), and of the first
+ *   pages (until the first page of every section is parsed, what the user waits for);
+ * - the requests per second and the failed requests;
+ * - the peak heap use, sampled every few milliseconds, and the heap still used after the last
+ *   GC, which keeps growing if something leaks;
+ * - the number of GCs and the time spent in them.
+ *
+ * Without --url a stand-in is started in this JVM and takes the stand-in options (see
+ * {@link GuardianStandIn}); its memory then counts in the heap figures.  Other options:
+ * --duration-s, --clients, --pages, --page-size, --sections, --queries, --fields, --report-s.
+ *
+ *   ./gradlew :loadtest:run -PsoakArgs='--duration-s 3600 --clients 8 --latency-ms 80'
+ */
+public final class SoakHarness {
+
+    /** Timeouts of the requests, the defaults of the app */
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    /** Time between two samples of the heap use */
+    private static final long HEAP_SAMPLE_MILLIS = 10;
+
+    private final String mBaseUrl;
+    private final int mPages;
+    private final int mPageSize;
+    private final List<String> mSections;
+    private final List<String> mQueries;
+    private final String mFields;
+
+    /** Fetches the first pages of the sections at once, as the loader's fetch executor does */
+    private final ExecutorService mFetchExecutor = Executors.newCachedThreadPool();
+
+    /** The articles of the last load of every client */
+    private final AtomicReferenceArray<List<News>> mShown;
+
+    /** Latencies, failures and peak heap use since the last report */
+    private final LatencyHistogram mRequestLatencies = new LatencyHistogram();
+    private final LatencyHistogram mFirstPageLatencies = new LatencyHistogram();
+    private final AtomicLong mFailures = new AtomicLong();
+    private final AtomicLong mPeakHeapBytes = new AtomicLong();
+
+    /** The same over the whole run, only used by the reporting thread */
+    private final LatencyHistogram mTotalRequests = new LatencyHistogram();
+    private final LatencyHistogram mTotalFirstPages = new LatencyHistogram();
+    private long mTotalFailures;
+    private final Map<String, Long> mFailureReasons = new TreeMap<>();
+    private long mTotalPeakHeapBytes;
+    private long mLastGcCount;
+    private long mLastGcMillis;
+
+    private final List<MemoryPoolMXBean> mHeapPools = new ArrayList<>();
+
+    private SoakHarness(String baseUrl, int clients, int pages, int pageSize,
+            List<String> sections, List<String> queries, String fields) {
+        mBaseUrl = baseUrl;
+        mPages = pages;
+        mPageSize = pageSize;
+        mSections = sections;
+        mQueries = queries;
+        mFields = fields;
+        mShown = new AtomicReferenceArray<>(clients);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                mHeapPools.add(pool);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options(args);
+        String url = options.getString("url", null);
+        int durationSeconds = options.getInt("duration-s", 60);
+        int clients = options.getInt("clients", 4);
+        int reportSeconds = options.getInt("report-s", 10);
+        GuardianStandIn standIn = url == null ? GuardianStandIn.fromOptions(options, 0) : null;
+        final SoakHarness harness = new SoakHarness(
+                standIn != null ? standIn.getBaseUrl() : url,
+                clients,
+                options.getInt("pages", 3),
+                options.getInt("page-size", 20),
+                Arrays.asList(options.getString("sections", "world,us-news,environment")
+                        .split(",")),
+                Arrays.asList(options.getString("queries", "alaska,climate,salmon").split(",")),
+                options.getString("fields", "byline,thumbnail"));
+        options.checkAllRead();
+
+        if (standIn != null) {
+            standIn.start();
+        }
+        System.out.println("Soaking " + harness.mBaseUrl + " with " + clients + " clients for "
+                + durationSeconds + "s");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                harness.sampleHeap();
+            }
+        }, 0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            final int client = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    harness.runClient(client, deadline);
+                }
+            }, "client-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        long start = System.nanoTime();
+        long lastReport = start;
+        while (System.nanoTime() < deadline) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            Thread.sleep(Math.max(1, Math.min(reportSeconds * 1000L, remaining)));
+            long now = System.nanoTime();
+            System.out.println(String.format(Locale.US, "[%5ds] ",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start))
+                    + harness.report(now - lastReport));
+            lastReport = now;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        sampler.shutdownNow();
+        harness.mFetchExecutor.shutdownNow();
+        harness.report(System.nanoTime() - lastReport);
+
+        System.out.println();
+        System.out.println("Total: " + harness.totalReport(System.nanoTime() - start));
+        synchronized (harness.mFailureReasons) {
+            for (Map.Entry<String, Long> reason : harness.mFailureReasons.entrySet()) {
+                System.out.println("  failed " + reason.getValue() + "x: " + reason.getKey());
+            }
+        }
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            System.out.println("  GC " + collector.getName() + ": "
+                    + collector.getCollectionCount() + " collections, "
+                    + collector.getCollectionTime() + "ms");
+        }
+        if (standIn != null) {
+            System.out.println("Stand-in: " + standIn);
+            standIn.stop();
+        }
+    }
+
+    /**
+     * Loads feeds until the deadline, one query after the other.
+     */
+    private void runClient(int client, long deadline) {
+        for (int load = client; System.nanoTime() < deadline; load++) {
+            String query = mQueries.get(load % mQueries.size());
+            List<News> loaded = new ArrayList<>();
+            try {
+                for (int page = 1; page <= mPages && System.nanoTime() < deadline; page++) {
+                    loaded.addAll(loadPage(query, page));
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            mShown.set(client, loaded);
+        }
+    }
+
+    /**
+     * Fetches the given page of every section at once, and returns their articles.  A failed
+     * section is counted and left out, as the loader does.
+     */
+    private List<News> loadPage(final String query, final int page)
+            throws InterruptedException {
+        long startNanos = System.nanoTime();
+        List<Future<List<News>>> sections = new ArrayList<>();
+        for (final String section : mSections) {
+            sections.add(mFetchExecutor.submit(new Callable<List<News>>() {
+                @Override
+                public List<News> call() throws IOException {
+                    return fetch(buildUrl(query, section, page));
+                }
+            }));
+        }
+        List<News> articles = new ArrayList<>();
+        for (Future<List<News>> section : sections) {
+            try {
+                articles.addAll(section.get());
+            } catch (ExecutionException e) {
+                mFailures.incrementAndGet();
+                countFailure(e.getCause());
+            }
+        }
+        if (page == 1) {
+            mFirstPageLatencies.record((System.nanoTime() - startNanos) / 1000);
+        }
+        return articles;
+    }
+
+    private String buildUrl(String query, String section, int page) throws IOException {
+        return mBaseUrl + "q=" + URLEncoder.encode(query, "UTF-8")
+                + "&order-by=newest&show-fields=" + URLEncoder.encode(mFields, "UTF-8")
+                + "&api-key=test&sectionId=" + URLEncoder.encode(section, "UTF-8")
+                + "&page=" + page + "&page-size=" + mPageSize;
+    }
+
+    /**
+     * Fetches and parses one page, as QueryUtils does.
+     */
+    private List<News> fetch(String url) throws IOException {
+        long startNanos = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            // Android's HttpURLConnection and OkHttp ask for gzip by themselves
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Error response code: " + connection.getResponseCode());
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                if ("gzip".equals(connection.getContentEncoding())) {
+                    in = new GZIPInputStream(in);
+                }
+                List<News> articles = new ArrayList<>();
+                NewsJsonParser.readArticlesFromStream(in, articles, null);
+                return articles;
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+            mRequestLatencies.record((System.nanoTime() - startNanos) / 1000);
+        }
+    }
+
+    private void countFailure(Throwable cause) {
+        String reason = cause.getClass().getSimpleName()
+                + (cause.getMessage() != null ? ": " + cause.getMessage() : "");
+        synchronized (mFailureReasons) {
+            Long count = mFailureReasons.get(reason);
+            mFailureReasons.put(reason, count != null ? count + 1 : 1);
+        }
+    }
+
+    private void sampleHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : mHeapPools) {
+            used += pool.getUsage().getUsed();
+        }
+        long peak;
+        do {
+            peak = mPeakHeapBytes.get();
+        } while (used > peak && !mPeakHeapBytes.compareAndSet(peak, used));
+    }
+
+    /**
+     * Returns the heap still used after the last GC of every pool.
+     */
+    private long liveHeapBytes() {
+        long live = 0;
+        for (MemoryPoolMXBean pool : mHeapPools) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                live += usage.getUsed();
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Describes what happened since the previous report, and adds it to the whole run.
+     */
+    private String report(long elapsedNanos) {
+        LatencyHistogram requests = mRequestLatencies.takeSnapshot();
+        LatencyHistogram firstPages = mFirstPageLatencies.takeSnapshot();
+        mTotalRequests.add(requests);
+        mTotalFirstPages.add(firstPages);
+        long failures = mFailures.getAndSet(0);
+        mTotalFailures += failures;
+        long peakHeapBytes = mPeakHeapBytes.getAndSet(0);
+        mTotalPeakHeapBytes = Math.max(mTotalPeakHeapBytes, peakHeapBytes);
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, collector.getCollectionCount());
+            gcMillis += Math.max(0, collector.getCollectionTime());
+        }
+        String report = String.format(Locale.US,
+                "%d requests (%.1f/s), %d failed | requests %s | first pages %s"
+                        + " | heap peak %dMB, live %dMB | %d GCs, %dms",
+                requests.getCount(), requests.getCount() * 1e9 / Math.max(1, elapsedNanos),
+                failures, requests, firstPages, peakHeapBytes >> 20, liveHeapBytes() >> 20,
+                gcCount - mLastGcCount, gcMillis - mLastGcMillis);
+        mLastGcCount = gcCount;
+        mLastGcMillis = gcMillis;
+        return report;
+    }
+
+    /**
+     * Describes the whole run.
+     */
+    private String totalReport(long elapsedNanos) {
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, collector.getCollectionCount());
+            gcMillis += Math.max(0, collector.getCollectionTime());
+        }
+        return String.format(Locale.US,
+                "%d requests (%.1f/s), %d failed%n  requests    %s%n  first pages %s%n"
+                        + "  heap peak %dMB, live %dMB%n  %d GCs, %dms",
+                mTotalRequests.getCount(),
+                mTotalRequests.getCount() * 1e9 / Math.max(1, elapsedNanos), mTotalFailures,
+                mTotalRequests, mTotalFirstPages, mTotalPeakHeapBytes >> 20,
+                liveHeapBytes() >> 20, gcCount, gcMillis);
+    }
+}
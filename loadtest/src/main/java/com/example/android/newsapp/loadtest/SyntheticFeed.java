@@ -0,0 +1,261 @@
+package com.example.android.newsapp.loadtest;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Generated Guardian search results, with the same shape as real ones.  Every query (search term
+ * and section) has its own feed of articles, numbered from the oldest one.  Article n is
+ * generated from a seed made of the query and n, so any page is generated without the ones
+ * before it, and is the same on every request.
+ *
+ * Articles asked for by ID ("ids") are generated from the ID alone, with the "bodyText" field
+ * the reader view downloads.
+ *
+ * The newest article is published when the feed is created.  Unless the publish interval is 0, a
+ * new article is then published every interval, at the top of the feed: the pages shift as they
+ * do on the real feed, and a "from-date" request finds the new articles.
+ */
+final class SyntheticFeed {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Time between two articles of a feed that doesn't publish new ones */
+    private static final long DEFAULT_SPACING_MILLIS = 10 * 60 * 1000;
+
+    private static final String[][] SECTIONS = {
+            {"us-news", "US news"},
+            {"world", "World news"},
+            {"commentisfree", "Opinion"},
+            {"environment", "Environment"},
+            {"film", "Film"},
+            {"books", "Books"},
+            {"science", "Science"},
+            {"technology", "Technology"},
+    };
+
+    private static final String[] WORDS = {
+            "alaska", "anchorage", "juneau", "salmon", "glacier", "senator", "oil", "pipeline",
+            "wildfire", "tribe", "climate", "fishery", "arctic", "election", "court", "ruling",
+            "drilling", "refuge", "earthquake", "tsunami", "warning", "village", "caribou",
+            "permafrost", "ferry", "harbour", "tundra", "aurora", "budget", "governor",
+    };
+
+    /** Number of articles when the feed was created */
+    private final int mInitialCount;
+
+    /** Time between two articles, and between two new articles if they are published */
+    private final long mSpacingMillis;
+
+    private final boolean mPublishing;
+
+    /** Publication time of article mInitialCount - 1 */
+    private final long mStartMillis;
+
+    SyntheticFeed(int initialCount, long publishIntervalMillis) {
+        mInitialCount = initialCount;
+        mPublishing = publishIntervalMillis > 0;
+        mSpacingMillis = mPublishing ? publishIntervalMillis : DEFAULT_SPACING_MILLIS;
+        // Whole seconds, like the dates of the Guardian
+        mStartMillis = System.currentTimeMillis() / 1000 * 1000;
+    }
+
+    /**
+     * Returns the number of articles published at the given time.
+     */
+    long size(long nowMillis) {
+        if (!mPublishing || nowMillis < mStartMillis) {
+            return mInitialCount;
+        }
+        return mInitialCount + (nowMillis - mStartMillis) / mSpacingMillis;
+    }
+
+    /**
+     * Returns the publication time of the given article.
+     */
+    private long dateOf(long article) {
+        return mStartMillis + (article - (mInitialCount - 1)) * mSpacingMillis;
+    }
+
+    /**
+     * Returns the first article published at or after the given time.
+     */
+    private long firstArticleSince(long fromMillis) {
+        long offset = fromMillis - mStartMillis;
+        // Spacings after the start, rounded up; division rounds towards zero
+        long steps = offset > 0 ? (offset + mSpacingMillis - 1) / mSpacingMillis
+                : offset / mSpacingMillis;
+        return Math.max(0, steps + mInitialCount - 1);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a search response, or null if the page is past the last one.
+     *
+     * @param query     the search term; every term has its own feed
+     * @param section   the section ID, or null for articles of every section
+     * @param fromDate  the value of the "from-date" parameter, or null
+     * @param oldest    whether the results are ordered oldest first
+     * @param byline    whether to add the "byline" field
+     * @param thumbnail whether to add the "thumbnail" field
+     */
+    byte[] searchResponse(String query, String section, int page, int pageSize, String fromDate,
+            boolean oldest, boolean byline, boolean thumbnail) {
+        long size = size(System.currentTimeMillis());
+        long first = fromDate != null ? Math.min(size, firstArticleSince(parseDate(fromDate))) : 0;
+        long total = size - first;
+        long pages = (total + pageSize - 1) / pageSize;
+        if (page > Math.max(pages, 1)) {
+            return null;
+        }
+        long startIndex = (long) (page - 1) * pageSize;
+        int count = (int) Math.max(0, Math.min(pageSize, total - startIndex));
+
+        SimpleDateFormat format = newDateFormat();
+        long seed = ((query != null ? query : "") + '/' + (section != null ? section : ""))
+                .hashCode();
+        StringBuilder json = new StringBuilder(256 + count * 700);
+        json.append("{\"response\":{\"status\":\"ok\",\"userTier\":\"developer\",\"total\":")
+                .append(total)
+                .append(",\"startIndex\":").append(startIndex + 1)
+                .append(",\"pageSize\":").append(pageSize)
+                .append(",\"currentPage\":").append(page)
+                .append(",\"pages\":").append(pages)
+                .append(",\"orderBy\":\"").append(oldest ? "oldest" : "newest")
+                .append("\",\"results\":[");
+        for (int i = 0; i < count; i++) {
+            long index = startIndex + i;
+            long article = oldest ? first + index : size - 1 - index;
+            if (i > 0) {
+                json.append(',');
+            }
+            appendResult(json, article, new Random(seed * 31 + article), section, format,
+                    byline, thumbnail);
+        }
+        json.append("]}}");
+        return json.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a response to a request for the given article IDs.
+     *
+     * @param bodyText whether to add the "bodyText" field
+     */
+    byte[] idsResponse(String[] ids, boolean bodyText) {
+        StringBuilder json = new StringBuilder(256 + ids.length * (bodyText ? 6000 : 300));
+        json.append("{\"response\":{\"status\":\"ok\",\"userTier\":\"developer\",\"total\":")
+                .append(ids.length)
+                .append(",\"startIndex\":1,\"pageSize\":").append(ids.length)
+                .append(",\"currentPage\":1,\"pages\":1,\"orderBy\":\"relevance\"")
+                .append(",\"results\":[");
+        for (int i = 0; i < ids.length; i++) {
+            // Article IDs are paths, which need no escaping
+            String id = ids[i];
+            Random random = new Random(id.hashCode());
+            json.append(i > 0 ? "," : "")
+                    .append("{\"id\":\"").append(id)
+                    .append("\",\"type\":\"article\",\"webTitle\":\"")
+                    .append(capitalize(words(random, 6 + random.nextInt(10))))
+                    .append("\",\"webUrl\":\"https://www.theguardian.com/").append(id)
+                    .append("\",\"apiUrl\":\"https://content.guardianapis.com/").append(id)
+                    .append('"');
+            if (bodyText) {
+                json.append(",\"fields\":{\"bodyText\":\"");
+                // About the length of a news story, in sentences of a dozen words
+                int sentences = 30 + random.nextInt(60);
+                for (int s = 0; s < sentences; s++) {
+                    json.append(s > 0 ? " " : "")
+                            .append(capitalize(words(random, 6 + random.nextInt(12)))).append('.');
+                }
+                json.append("\"}");
+            }
+            json.append('}');
+        }
+        json.append("]}}");
+        return json.toString().getBytes(UTF_8);
+    }
+
+    private void appendResult(StringBuilder json, long article, Random random, String sectionId,
+            SimpleDateFormat format, boolean byline, boolean thumbnail) {
+        String[] section = SECTIONS[random.nextInt(SECTIONS.length)];
+        if (sectionId != null) {
+            section = new String[] {sectionId, capitalize(sectionId.replace('-', ' '))};
+        }
+        String title = words(random, 6 + random.nextInt(10));
+        String date = format.format(new Date(dateOf(article)));
+        String path = section[0] + "/" + date.substring(0, 10).replace('-', '/') + "/"
+                + title.replace(' ', '-') + "-" + article;
+
+        json.append("{\"id\":\"").append(path)
+                .append("\",\"type\":\"article\",\"sectionId\":\"").append(section[0])
+                .append("\",\"sectionName\":\"").append(section[1])
+                .append("\",\"webPublicationDate\":\"").append(date)
+                .append("\",\"webTitle\":\"").append(capitalize(title))
+                .append("\",\"webUrl\":\"https://www.theguardian.com/").append(path)
+                .append("\",\"apiUrl\":\"https://content.guardianapis.com/").append(path)
+                .append('"');
+        if (byline || thumbnail) {
+            json.append(",\"fields\":{");
+            int contributors = random.nextInt(3);
+            if (byline && contributors > 0) {
+                json.append("\"byline\":\"");
+                for (int c = 0; c < contributors; c++) {
+                    json.append(c > 0 ? " and " : "")
+                            .append(capitalize(WORDS[random.nextInt(WORDS.length)])).append(' ')
+                            .append(capitalize(WORDS[random.nextInt(WORDS.length)]));
+                }
+                json.append('"');
+            }
+            if (thumbnail) {
+                json.append(byline && contributors > 0 ? "," : "")
+                        .append("\"thumbnail\":\"https://media.guim.co.uk/")
+                        .append(Long.toHexString(random.nextLong() & Long.MAX_VALUE))
+                        .append(Long.toHexString(random.nextLong() & Long.MAX_VALUE))
+                        .append("/0_0_3000_1800/500.jpg\"");
+            }
+            json.append('}');
+        }
+        json.append(",\"isHosted\":false,\"pillarId\":\"pillar/news\",\"pillarName\":\"News\"}");
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    private static SimpleDateFormat newDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /**
+     * Parses a "from-date" the way the Guardian does: a date, or a date and time.
+     */
+    private static long parseDate(String value) {
+        try {
+            if (value.length() == "yyyy-MM-dd".length()) {
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                return format.parse(value).getTime();
+            }
+            return newDateFormat().parse(value).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Bad from-date " + value);
+        }
+    }
+}